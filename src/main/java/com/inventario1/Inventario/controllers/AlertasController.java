@@ -1,8 +1,8 @@
 // Ubicación: src/main/java/com/inventario1/Inventario/controllers/AlertasController.java
 package com.inventario1.Inventario.controllers;
 
-import com.inventario1.Inventario.models.Producto;
 import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.dto.ProductoListItem;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Controller;
@@ -25,7 +25,7 @@ class AlertasController {
 
     @GetMapping
     String verAlertas(Model model) {
-        List<Producto> base = productoRepository.findByActivoTrue();
+        List<ProductoListItem> base = productoRepository.findListItemsByActivo(true);
         List<AlertaVM> alertas = buildAlertas(base);
         model.addAttribute("alertas", alertas);
         model.addAttribute("totalAlertas", alertas.size());
@@ -35,17 +35,17 @@ class AlertasController {
 
     @ModelAttribute("totalAlertas")
     Integer totalAlertasAttr() {
-        List<Producto> base = productoRepository.findByActivoTrue();
+        List<ProductoListItem> base = productoRepository.findListItemsByActivo(true);
         return buildAlertas(base).size();
     }
 
     @ModelAttribute("alertasTop3")
     List<AlertaVM> alertasTop3Attr() {
-        List<Producto> base = productoRepository.findByActivoTrue();
+        List<ProductoListItem> base = productoRepository.findListItemsByActivo(true);
         return buildAlertas(base).stream().limit(3).toList();
     }
 
-    static List<AlertaVM> buildAlertas(List<Producto> base) {
+    static List<AlertaVM> buildAlertas(List<ProductoListItem> base) {
         return base.stream()
                 .map(AlertasController::toVM)
                 .filter(vm -> !"bg-success".equals(vm.getColor()))
@@ -53,9 +53,9 @@ class AlertasController {
                 .toList();
     }
 
-    static AlertaVM toVM(Producto p) {
-        int sa = nvl(p.getStockActual());
-        int sm = nvl(p.getStockMinimo());
+    static AlertaVM toVM(ProductoListItem p) {
+        int sa = nvl(p.stockActual());
+        int sm = nvl(p.stockMinimo());
 
         String color;
         String estado;
@@ -65,15 +65,15 @@ class AlertasController {
         else { color = "bg-success"; estado = "OK"; }
 
         AlertaVM vm = new AlertaVM();
-        vm.setId(p.getId());
-        vm.setNombreProducto(p.getNombre());
-        vm.setCodigoBarras(p.getCodigoBarras());
+        vm.setId(p.id());
+        vm.setNombreProducto(p.nombre());
+        vm.setCodigoBarras(p.codigoBarras());
         vm.setStock(sa);
         vm.setColor(color);
         vm.setEstado(estado);
         vm.setActivo(true);
-        if (p.getCodigoBarras() != null && !p.getCodigoBarras().isBlank()) {
-            vm.setImagenUrl("/img/productos/" + p.getCodigoBarras());
+        if (p.codigoBarras() != null && !p.codigoBarras().isBlank()) {
+            vm.setImagenUrl("/img/productos/" + p.codigoBarras() + "?size=64");
         }
         return vm;
     }
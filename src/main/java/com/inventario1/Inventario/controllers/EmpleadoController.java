@@ -4,9 +4,15 @@ package com.inventario1.Inventario.controllers;
 import com.inventario1.Inventario.models.Rol;
 import com.inventario1.Inventario.models.Usuario;
 import com.inventario1.Inventario.repos.UsuarioRepository;
+import com.inventario1.Inventario.services.dto.EmpleadoListItem;
+import com.inventario1.Inventario.util.RutUtils;
 import com.inventario1.Inventario.web.EmpleadoForm;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -49,30 +55,43 @@ public class EmpleadoController {
     @ModelAttribute("roles")
     public Rol[] roles() { return Rol.values(); }
 
-    // LISTA
+    // LISTA (búsqueda y paginación en BD; proyección sin foto)
     @GetMapping
-    public String lista(@RequestParam(name = "q", required = false) String q, Model model) {
+    public String lista(@RequestParam(name = "q", required = false) String q,
+                        @RequestParam(name = "page", defaultValue = "0") int page,
+                        @RequestParam(name = "size", defaultValue = "24") int size,
+                        Model model) {
         Set<Rol> rolesEnum = EnumSet.of(Rol.BODEGUERO, Rol.BARRA, Rol.SUPERVISOR);
-        var empleados = usuarioRepository.findByRolInAndActivoTrueOrderByNombreAsc(rolesEnum);
+        size = Math.min(Math.max(size, 1), 100);
+        Pageable pageable = PageRequest.of(Math.max(page, 0), size, Sort.by("nombre").ascending().and(Sort.by("rut")));
 
+        String patron = null, rutPatron = null;
         if (q != null && !q.isBlank()) {
-            String needle = q.toLowerCase(Locale.ROOT);
-            empleados = empleados.stream().filter(u ->
-                    (u.getNombre()   != null && u.getNombre().toLowerCase(Locale.ROOT).contains(needle)) ||
-                            (u.getUsername() != null && u.getUsername().toLowerCase(Locale.ROOT).contains(needle)) ||
-                            (u.getEmail()    != null && u.getEmail().toLowerCase(Locale.ROOT).contains(needle)) ||
-                            (u.getRut()      != null && u.getRut().toLowerCase(Locale.ROOT).contains(needle))
-            ).toList();
+            patron = "%" + escaparLike(q.trim().toLowerCase(Locale.ROOT)) + "%";
+            String rut = RutUtils.normalize(q);
+            rutPatron = rut == null ? patron : "%" + escaparLike(rut) + "%";
         }
+        Page<EmpleadoListItem> empleados = usuarioRepository.buscarEmpleados(rolesEnum, patron, rutPatron, pageable);
 
-        model.addAttribute("empleados", empleados);
+        model.addAttribute("empleados", empleados.getContent());
         model.addAttribute("q", q);
-        model.addAttribute("page", 0);
-        model.addAttribute("size", empleados.size());
-        model.addAttribute("totalPages", 1);
+        model.addAttribute("page", empleados.getNumber());
+        model.addAttribute("size", empleados.getSize());
+        model.addAttribute("totalPages", Math.max(empleados.getTotalPages(), 1));
+        model.addAttribute("totalElements", empleados.getTotalElements());
         return "empleadoslista";
     }
 
+    private static String escaparLike(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 4);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') sb.append('\\');
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
     // NUEVO (GET)
     @GetMapping("/nuevo")
     public String nuevoForm(Model model) {
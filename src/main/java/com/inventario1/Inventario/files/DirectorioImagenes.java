@@ -0,0 +1,307 @@
+package com.inventario1.Inventario.files;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Índice en memoria de un directorio de imágenes: código -> archivo ({codigo}.jpg|.jpeg|.png|.webp).
+ * - Los archivos se ubican según una {@link DisposicionArchivos} (p.ej. ab/{codigo}.jpg); {@link #ubicacion}
+ *   dice dónde escribir. Al leer también se aceptan los que sigan en la raíz (disposición plana original).
+ * - Se arma con un solo recorrido del directorio (raíz + subdirectorios de fragmento) al arrancar.
+ *   Se vigilan solo los niveles de la disposición actual (un watch de inotify por directorio); los fragmentos más
+ *   profundos de una disposición anterior se indexan al arrancar pero no se vigilan: {@link #reordenar} los vacía.
+ * - Un WatchService lo mantiene al día con lo que se copie o borre por fuera; quien sube un archivo
+ *   llama a {@link #refrescar(String)} para no depender de la latencia del watcher.
+ * - Con el watcher activo el índice es completo: un código ausente es "no hay imagen" sin tocar disco.
+ *   Si el watcher no se pudo iniciar, los misses se verifican en disco y se recuerdan {@link #NEGATIVO_TTL_MS}.
+ * - Si hay varios archivos para un código gana el de la disposición actual y, entre ellos, la primera de {@link #EXTENSIONES}.
+ */
+@Slf4j
+public class DirectorioImagenes implements AutoCloseable {
+
+    public static final List<String> EXTENSIONES = List.of(".jpg", ".jpeg", ".png", ".webp");
+    static final long NEGATIVO_TTL_MS = 30_000;
+    private static final int MAX_NEGATIVOS = 10_000;
+
+    private final Path dir;
+    private final DisposicionArchivos disposicion;
+    private final Map<String, Path> porCodigo = new ConcurrentHashMap<>();
+    /** Solo sin watcher: código -> instante (ms) hasta el que se da por inexistente. */
+    private final Map<String, Long> negativos = new ConcurrentHashMap<>();
+
+    private volatile boolean completo;
+    private volatile boolean registroFallido;
+    private WatchService watcher;
+    private Thread hilo;
+
+    /** Resultado de {@link #reordenar}: archivos movidos, ya ubicados y copias viejas descartadas. */
+    public record Reordenamiento(int movidos, int yaUbicados, int descartados) {}
+
+    public DirectorioImagenes(Path dir, DisposicionArchivos disposicion) {
+        this.dir = dir.toAbsolutePath().normalize();
+        this.disposicion = disposicion;
+    }
+
+    public Path getDirectorio() {
+        return dir;
+    }
+
+    /** Registra el watcher y luego recorre el directorio (así no se pierde nada creado entremedio). */
+    public void iniciar() {
+        long t0 = System.nanoTime();
+        try {
+            Files.createDirectories(dir);
+            watcher = dir.getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Sin WatchService para {} ({}); los misses se verificarán en disco", dir, e.getMessage());
+            cerrarWatcher();
+        }
+        escanear(); // registra cada directorio antes de listarlo
+        if (watcher != null && !registroFallido) {
+            hilo = new Thread(this::vigilar, "imagenes-watch-" + dir.getFileName());
+            hilo.setDaemon(true);
+            hilo.start();
+            completo = true;
+        } else {
+            cerrarWatcher();
+        }
+        log.info("Índice de imágenes {}: {} archivos en {} ms (watcher {})", dir, porCodigo.size(),
+                (System.nanoTime() - t0) / 1_000_000, completo ? "activo" : "inactivo");
+    }
+
+    public Optional<Path> buscar(String codigo) {
+        if (codigo == null || codigo.isBlank()) return Optional.empty();
+        Path p = porCodigo.get(codigo);
+        if (p != null) return Optional.of(p);
+        if (completo) return Optional.empty();
+
+        long ahora = System.currentTimeMillis();
+        Long hasta = negativos.get(codigo);
+        if (hasta != null && hasta > ahora) return Optional.empty();
+        Optional<Path> enDisco = sondear(codigo);
+        if (enDisco.isPresent()) {
+            porCodigo.put(codigo, enDisco.get());
+            negativos.remove(codigo);
+        } else {
+            if (negativos.size() >= MAX_NEGATIVOS) negativos.clear();
+            negativos.put(codigo, ahora + NEGATIVO_TTL_MS);
+        }
+        return enDisco;
+    }
+
+    /** Vuelve a mirar en disco los archivos de un código (tras subir o borrar uno). */
+    public void refrescar(String codigo) {
+        if (codigo == null || codigo.isBlank()) return;
+        negativos.remove(codigo);
+        sondear(codigo).ifPresentOrElse(p -> porCodigo.put(codigo, p), () -> porCodigo.remove(codigo));
+    }
+
+    /** Dónde se escribe el archivo del código con esa extensión, según la disposición actual. */
+    public Path ubicacion(String codigo, String ext) {
+        if (!codigoValido(codigo)) throw new IllegalArgumentException("Código de barras inválido: " + codigo);
+        return dir.resolve(disposicion.subdirectorio(codigo)).resolve(codigo + ext).normalize();
+    }
+
+    /** Todos los lugares donde puede haber un archivo del código: disposición actual y raíz, en orden de preferencia. */
+    public List<Path> candidatos(String codigo) {
+        if (!codigoValido(codigo)) return List.of();
+        Set<Path> out = new LinkedHashSet<>();
+        for (String ext : EXTENSIONES) out.add(ubicacion(codigo, ext));
+        for (String ext : EXTENSIONES) out.add(dir.resolve(codigo + ext));
+        return List.copyOf(out);
+    }
+
+    /**
+     * Herramienta de una sola vez: mueve cada archivo a la ubicación de la disposición actual (p.ej. de la raíz
+     * o de ab/cd/ a ab/) y borra los subdirectorios de fragmento que queden vacíos. Se puede repetir sin efecto.
+     */
+    public Reordenamiento reordenar() throws IOException {
+        Reordenamiento r = reordenar(dir, disposicion);
+        escanear();
+        return r;
+    }
+
+    /** Igual que {@link #reordenar()}, para directorios sin índice (p.ej. miniaturas). */
+    public static Reordenamiento reordenar(Path base, DisposicionArchivos disposicion) throws IOException {
+        Path raiz = base.toAbsolutePath().normalize();
+        if (!Files.isDirectory(raiz)) return new Reordenamiento(0, 0, 0);
+        List<Path> archivos = new ArrayList<>();
+        List<Path> fragmentos = new ArrayList<>();
+        listar(raiz, 0, archivos, fragmentos);
+
+        int movidos = 0, ubicados = 0, descartados = 0;
+        for (Path p : archivos) {
+            String nombre = p.getFileName().toString();
+            String codigo = codigoDe(nombre);
+            if (!codigoValido(codigo)) continue;
+            Path destino = raiz.resolve(disposicion.subdirectorio(codigo)).resolve(nombre).normalize();
+            if (destino.equals(p)) {
+                ubicados++;
+            } else if (Files.exists(destino)) {
+                // lo que está en la ubicación actual lo escribió la app después del cambio: el otro es viejo
+                Files.deleteIfExists(p);
+                descartados++;
+            } else {
+                Files.createDirectories(destino.getParent());
+                Files.move(p, destino, StandardCopyOption.ATOMIC_MOVE);
+                movidos++;
+            }
+        }
+        // de más profundo a menos, para que un "ab" quede vacío después de sus "cd"
+        fragmentos.sort(Comparator.comparingInt(Path::getNameCount).reversed());
+        for (Path f : fragmentos) {
+            try {
+                Files.deleteIfExists(f);
+            } catch (DirectoryNotEmptyException ignored) { }
+        }
+        log.info("Reordenamiento de {}: {} movidos, {} ya ubicados, {} copias viejas descartadas", raiz, movidos, ubicados, descartados);
+        return new Reordenamiento(movidos, ubicados, descartados);
+    }
+
+    public int size() {
+        return porCodigo.size();
+    }
+
+    @Override
+    public void close() {
+        completo = false;
+        cerrarWatcher();
+        if (hilo != null) hilo.interrupt();
+    }
+
+    // ----------------- helpers -----------------
+
+    private Optional<Path> sondear(String codigo) {
+        for (Path p : candidatos(codigo)) {
+            if (Files.isRegularFile(p)) return Optional.of(p);
+        }
+        return Optional.empty();
+    }
+
+    private void escanear() {
+        Map<String, Path> nuevo = new HashMap<>();
+        recorrer(dir, 0, nuevo);
+        porCodigo.keySet().retainAll(nuevo.keySet());
+        porCodigo.putAll(nuevo);
+        negativos.clear();
+    }
+
+    /**
+     * Indexa los archivos de d y, si es la raíz o un fragmento intermedio, baja a sus subdirectorios de fragmento.
+     * Solo vigila d si está dentro de los niveles de la disposición actual.
+     */
+    private void recorrer(Path d, int nivel, Map<String, Path> destino) {
+        if (nivel <= disposicion.niveles()) registrar(d);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(d)) {
+            for (Path p : ds) {
+                String nombre = p.getFileName().toString();
+                if (nivel < DisposicionEstandar.MAX_NIVELES && DisposicionEstandar.esFragmento(nombre) && Files.isDirectory(p)) {
+                    recorrer(p, nivel + 1, destino);
+                    continue;
+                }
+                String codigo = codigoDe(nombre);
+                if (codigo == null || !Files.isRegularFile(p)) continue;
+                destino.merge(codigo, p, (a, b) -> prioridad(a) <= prioridad(b) ? a : b);
+            }
+        } catch (IOException e) {
+            log.warn("No se pudo recorrer {}: {}", d, e.getMessage());
+        }
+    }
+
+    private static void listar(Path d, int nivel, List<Path> archivos, List<Path> fragmentos) throws IOException {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(d)) {
+            for (Path p : ds) {
+                if (nivel < DisposicionEstandar.MAX_NIVELES && DisposicionEstandar.esFragmento(p.getFileName().toString())
+                        && Files.isDirectory(p)) {
+                    fragmentos.add(p);
+                    listar(p, nivel + 1, archivos, fragmentos);
+                } else if (Files.isRegularFile(p)) {
+                    archivos.add(p);
+                }
+            }
+        }
+    }
+
+    private void registrar(Path d) {
+        if (watcher == null) return;
+        try {
+            d.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        } catch (IOException e) {
+            // p.ej. tope de inotify: sin watcher en algún directorio el índice ya no es completo
+            if (!registroFallido) log.warn("No se pudo vigilar {} ({}); los misses se verificarán en disco", d, e.getMessage());
+            registroFallido = true;
+            completo = false;
+        }
+    }
+
+    private void vigilar() {
+        WatchService ws = watcher;
+        try {
+            while (true) {
+                WatchKey key = ws.take();
+                Path d = (Path) key.watchable();
+                for (WatchEvent<?> ev : key.pollEvents()) {
+                    if (ev.kind() == OVERFLOW) {
+                        escanear();
+                        continue;
+                    }
+                    Path p = d.resolve((Path) ev.context());
+                    String nombre = p.getFileName().toString();
+                    int nivel = dir.relativize(p).getNameCount();
+                    if (ev.kind() == ENTRY_CREATE && nivel <= disposicion.niveles()
+                            && DisposicionEstandar.esFragmento(nombre) && Files.isDirectory(p)) {
+                        // fragmento nuevo: vigilarlo e indexar lo que ya tenga
+                        Map<String, Path> nuevos = new HashMap<>();
+                        recorrer(p, nivel, nuevos);
+                        nuevos.keySet().forEach(this::refrescar);
+                        continue;
+                    }
+                    String codigo = codigoDe(nombre);
+                    if (codigo != null) refrescar(codigo);
+                }
+                if (!key.reset() && d.equals(dir)) {
+                    log.warn("El directorio {} dejó de estar vigilado; los misses se verificarán en disco", dir);
+                    completo = false;
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            completo = false;
+        }
+    }
+
+    private void cerrarWatcher() {
+        if (watcher == null) return;
+        try {
+            watcher.close();
+        } catch (IOException ignored) { }
+        watcher = null;
+    }
+
+    /** Preferencia entre archivos del mismo código: primero la disposición actual, luego el orden de EXTENSIONES. */
+    private int prioridad(Path p) {
+        String n = p.getFileName().toString();
+        String codigo = n.substring(0, n.lastIndexOf('.'));
+        boolean actual = p.getParent().equals(dir.resolve(disposicion.subdirectorio(codigo)).normalize());
+        return (actual ? 0 : EXTENSIONES.size()) + EXTENSIONES.indexOf(n.substring(n.lastIndexOf('.')));
+    }
+
+    /** "7801234567890.png" -> "7801234567890"; null si no es una extensión de imagen. */
+    public static String codigoDe(String nombre) {
+        int dot = nombre.lastIndexOf('.');
+        if (dot <= 0) return null;
+        return EXTENSIONES.contains(nombre.substring(dot)) ? nombre.substring(0, dot) : null;
+    }
+
+    /** Un código sirve como nombre de archivo: sin separadores ni "." / "..". */
+    public static boolean codigoValido(String codigo) {
+        return codigo != null && !codigo.isBlank() && !codigo.equals(".") && !codigo.equals("..")
+                && codigo.indexOf('/') < 0 && codigo.indexOf('\\') < 0 && codigo.indexOf('\0') < 0;
+    }
+}
@@ -0,0 +1,20 @@
+package com.inventario1.Inventario.files;
+
+import java.nio.file.Path;
+
+/**
+ * Cómo se reparten los archivos de imagen ({codigo}.ext) dentro de su directorio base.
+ * La implementación se elige con app.uploads.disposicion (ver {@link DisposicionEstandar}); quien lee
+ * (DirectorioImagenes) encuentra archivos tanto en la disposición actual como en la plana original, así que
+ * se puede cambiar de disposición y reubicar lo existente después con {@link DirectorioImagenes#reordenar}.
+ */
+public interface DisposicionArchivos {
+
+    /** Subdirectorio, relativo al directorio base, donde va el archivo del código (vacío = en la raíz). */
+    Path subdirectorio(String codigo);
+
+    /** Niveles de subdirectorios que usa (0 = todo en la raíz); DirectorioImagenes vigila hasta esa profundidad. */
+    default int niveles() {
+        return 0;
+    }
+}
@@ -0,0 +1,15 @@
+package com.inventario1.Inventario.files;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+class DisposicionArchivosConfig {
+
+    /** Disposición de uploads/productos, sus miniaturas y uploads/products. */
+    @Bean
+    DisposicionArchivos disposicionArchivos(@Value("${app.uploads.disposicion:fragmentada}") String nombre) {
+        return DisposicionEstandar.desde(nombre);
+    }
+}
@@ -0,0 +1,83 @@
+package com.inventario1.Inventario.files;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Disposiciones incluidas:
+ * - PLANA: todo en el directorio base (esquema original).
+ * - FRAGMENTADA: un nivel según el SHA-256 del código, ab/{codigo}.ext (el primer byte en hex;
+ *   `printf %s CODIGO | sha256sum` da la ruta). 256 directorios: con 100k imágenes unos 400 archivos en cada uno,
+ *   y el watcher de cada índice necesita solo 257 watches de inotify.
+ * - FRAGMENTADA_2: dos niveles, ab/cd/{codigo}.ext, para catálogos de millones de imágenes. Son hasta 65.792
+ *   directorios, cada uno con su watch: hay que subir fs.inotify.max_user_watches o el índice pierde el watcher
+ *   (y vuelve a verificar los misses en disco).
+ */
+public enum DisposicionEstandar implements DisposicionArchivos {
+
+    PLANA {
+        @Override
+        public Path subdirectorio(String codigo) {
+            return Path.of("");
+        }
+    },
+
+    FRAGMENTADA {
+        @Override
+        public Path subdirectorio(String codigo) {
+            return Path.of(HexFormat.of().toHexDigits(sha256(codigo)[0]));
+        }
+
+        @Override
+        public int niveles() {
+            return 1;
+        }
+    },
+
+    FRAGMENTADA_2 {
+        @Override
+        public Path subdirectorio(String codigo) {
+            byte[] h = sha256(codigo);
+            HexFormat hex = HexFormat.of();
+            return Path.of(hex.toHexDigits(h[0]), hex.toHexDigits(h[1]));
+        }
+
+        @Override
+        public int niveles() {
+            return 2;
+        }
+    };
+
+    /**
+     * Profundidad máxima de fragmentos que se recorre al leer, sea cual sea la disposición actual: así se
+     * encuentran los archivos de una disposición anterior más profunda hasta que se reordenen.
+     */
+    public static final int MAX_NIVELES = 2;
+
+    /** Nombre de un subdirectorio de FRAGMENTADA ("00".."ff"). */
+    public static boolean esFragmento(String nombre) {
+        return nombre.length() == 2 && HexFormat.isHexDigit(nombre.charAt(0)) && HexFormat.isHexDigit(nombre.charAt(1))
+                && nombre.equals(nombre.toLowerCase());
+    }
+
+    /** "fragmentada" / "fragmentada-2" / "plana" (app.uploads.disposicion). */
+    public static DisposicionEstandar desde(String nombre) {
+        try {
+            return valueOf(nombre.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("app.uploads.disposicion desconocida: " + nombre
+                    + " (plana | fragmentada | fragmentada-2)", e);
+        }
+    }
+
+    private static byte[] sha256(String s) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.inventario1.Inventario.files;
 
+import jakarta.annotation.PreDestroy;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
@@ -13,12 +14,22 @@ public class FileStorageService {
 
     private final Path root = Paths.get("uploads").resolve("products");
 
-    public FileStorageService() {
+    /** Qué códigos tienen archivo en root (un recorrido al arrancar + WatchService); root/ab/{codigo}.ext. */
+    private final DirectorioImagenes indice;
+
+    public FileStorageService(DisposicionArchivos disposicion) {
+        indice = new DirectorioImagenes(root, disposicion);
         try {
             Files.createDirectories(root);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        indice.iniciar();
+    }
+
+    @PreDestroy
+    void detener() {
+        indice.close();
     }
 
     public Path saveForCodigo(String codigo, MultipartFile file) throws IOException {
@@ -29,20 +40,25 @@ public class FileStorageService {
         if (dot >= 0) ext = cleanName.substring(dot).toLowerCase(Locale.ROOT); // .jpg, .png, .webp
         if (!ext.matches("\\.(jpg|jpeg|png|webp)")) ext = ".jpg"; // default a jpg
 
-        Path target = root.resolve(codigo + ext);
-        Files.createDirectories(root);
+        Path target = indice.ubicacion(codigo, ext);
+        Files.createDirectories(target.getParent());
         try (InputStream in = file.getInputStream()) {
             Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
         }
+        for (Path otro : indice.candidatos(codigo)) {
+            if (!otro.equals(target)) Files.deleteIfExists(otro);
+        }
+        indice.refrescar(codigo);
         return target;
     }
 
+    /** Archivo del código o null; se responde desde el índice, sin sondear el disco. */
     public Path findExisting(String codigo) {
-        String[] exts = {".jpg", ".jpeg", ".png", ".webp"};
-        for (String e : exts) {
-            Path p = root.resolve(codigo + e);
-            if (Files.exists(p)) return p;
-        }
-        return null;
+        return indice.buscar(codigo).orElse(null);
+    }
+
+    /** Mueve los archivos de la raíz plana a la disposición actual. */
+    public DirectorioImagenes.Reordenamiento reordenar() throws IOException {
+        return indice.reordenar();
     }
 }
@@ -0,0 +1,21 @@
+package com.inventario1.Inventario.models;
+
+/**
+ * Generador de ids por tabla (id_generadores) para las entidades que se insertan de a muchas
+ * (cabeceras y líneas de movimiento). Con IDENTITY Hibernate no puede agrupar los INSERT en batch;
+ * con este generador reserva bloques de {@link #BLOQUE} ids de una vez (optimizador pooled).
+ * Una fila por tabla con el último valor usado (hibernate.id.generator.stored_last_used): quien lee v y lo sube
+ * a v + BLOQUE se queda con los ids v - BLOQUE + 2 .. v + 1.
+ * Ver services.IdGeneradores (siembra al arrancar y reserva para escrituras por JDBC).
+ */
+public final class GeneradoresId {
+    private GeneradoresId() {}
+
+    public static final String TABLA = "id_generadores";
+    public static final String COL_ENTIDAD = "entidad";
+    public static final String COL_SIGUIENTE = "siguiente";
+    public static final int BLOQUE = 50;
+
+    public static final String MOVIMIENTOS = "movimientos_inventario";
+    public static final String LINEAS = "movimiento_lineas";
+}
@@ -19,8 +19,12 @@ import java.util.List;
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
 public class MovimientoInventario {
 
+    // Ids por bloques (no IDENTITY) para que las líneas y cabeceras se inserten en batch
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "movimientos_ids")
+    @TableGenerator(name = "movimientos_ids", table = GeneradoresId.TABLA,
+            pkColumnName = GeneradoresId.COL_ENTIDAD, valueColumnName = GeneradoresId.COL_SIGUIENTE,
+            pkColumnValue = GeneradoresId.MOVIMIENTOS, allocationSize = GeneradoresId.BLOQUE)
     private Long id;
 
     /** Referencia idempotente (p.ej. INIT:<codigo>:<fecha> o CSV:<hash>) */
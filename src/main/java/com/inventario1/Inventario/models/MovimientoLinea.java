@@ -1,16 +1,26 @@
 package com.inventario1.Inventario.models;
 
+import com.inventario1.Inventario.services.index.ProductoCambiosListener;
 import jakarta.persistence.*;
 import lombok.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "movimiento_lineas")
+@Table(name = "movimiento_lineas",
+        indexes = {
+                // líneas nuevas desde el checkpoint de stock (ConciliacionStockService)
+                @Index(name = "idx_ml_creado_producto", columnList = "created_at, producto_id")
+        })
+@EntityListeners(ProductoCambiosListener.class)
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
 public class MovimientoLinea {
 
+    // Ids por bloques (no IDENTITY) para que las líneas se inserten en batch
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "lineas_ids")
+    @TableGenerator(name = "lineas_ids", table = GeneradoresId.TABLA,
+            pkColumnName = GeneradoresId.COL_ENTIDAD, valueColumnName = GeneradoresId.COL_SIGUIENTE,
+            pkColumnValue = GeneradoresId.LINEAS, allocationSize = GeneradoresId.BLOQUE)
     private Long id;
 
     // FK al movimiento
@@ -1,5 +1,6 @@
 package com.inventario1.Inventario.models;
 
+import com.inventario1.Inventario.services.index.ProductoCambiosListener;
 import jakarta.persistence.*;
 import lombok.*;
 
@@ -7,7 +8,9 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "productos")
+@Table(name = "productos",
+        indexes = @Index(name = "idx_productos_nombre_id", columnList = "nombre, id")) // keyset por (nombre, id)
+@EntityListeners(ProductoCambiosListener.class)
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
 public class Producto {
 
@@ -73,11 +76,7 @@ public class Producto {
     @Version
     private Long version;
 
-    // --- Imagen en BD ---
-    @Lob
-    @Column(name = "imagen", columnDefinition = "LONGBLOB")
-    private byte[] imagen;
-
+    // --- Imagen: metadatos aquí; los bytes viven en ProductoImagen (carga bajo demanda) ---
     @Column(name = "imagen_content_type", length = 100)
     private String imagenContentType;
 
@@ -90,6 +89,13 @@ public class Producto {
     @Column(name = "imagen_url", length = 255)
     private String imagenUrl;
 
+    // SHA-256 (hex) del archivo subido y momento de la subida: ETag / Last-Modified de la imagen
+    @Column(name = "imagen_hash", length = 64)
+    private String imagenHash;
+
+    @Column(name = "imagen_actualizada_en")
+    private LocalDateTime imagenActualizadaEn;
+
     @PrePersist
     public void prePersist() {
         var now = LocalDateTime.now();
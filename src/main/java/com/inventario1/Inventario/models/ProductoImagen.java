@@ -0,0 +1,48 @@
+package com.inventario1.Inventario.models;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.LocalDateTime;
+
+/**
+ * Bytes de la imagen de un producto, en su propia tabla (1:1 con productos).
+ * Por qué: así los listados de Producto nunca cargan el BLOB; solo se lee al servir la imagen.
+ * Los metadatos livianos (content-type, nombre, tamaño, url) siguen en Producto.
+ * Tras la migración al almacén en disco (ProductoImagenAlmacenMigration) datos queda en NULL y
+ * archivoSha256 apunta al archivo {almacen}/ab/cd/{sha256}; si datos no es NULL, manda datos.
+ * Las subidas nuevas van directo al almacén: datos solo lo conservan las filas antiguas (lectura).
+ */
+@Entity
+@Table(name = "producto_imagenes")
+@Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
+public class ProductoImagen {
+
+    @Id
+    @Column(name = "producto_id")
+    private Long productoId;
+
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "producto_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Producto producto;
+
+    @Lob
+    @Column(name = "datos", columnDefinition = "LONGBLOB")
+    private byte[] datos;
+
+    @Column(name = "archivo_sha256", length = 64)
+    private String archivoSha256;
+
+    @Column(name = "actualizado_en")
+    private LocalDateTime actualizadoEn;
+
+    @PrePersist
+    @PreUpdate
+    public void touch() {
+        actualizadoEn = LocalDateTime.now();
+    }
+}
@@ -10,6 +10,8 @@ public class RegistrarSalidaRequest {
     public String motivo;
     public String referencia;
     public String usuario;
+    /** Reserva de stock de la salida (id del carrito, ver ReservasStock); opcional. */
+    public String reserva;
 
     @NotNull
     public List<Item> items;
@@ -0,0 +1,12 @@
+package com.inventario1.Inventario.models;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+
+/** Fija las unidades reservadas de un producto para el carrito de la página de salidas (0 las libera). */
+public class ReservaSalidaRequest {
+    /** Id de la reserva (UUID que genera salidas.js por carrito; ver ReservasStock). */
+    @NotNull public String reserva;
+    @NotNull public String codigo;
+    @PositiveOrZero public int cantidad;
+}
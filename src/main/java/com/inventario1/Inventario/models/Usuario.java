@@ -10,7 +10,8 @@ import org.hibernate.annotations.UpdateTimestamp;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "usuarios")
+@Table(name = "usuarios",
+        indexes = @Index(name = "idx_usuarios_activo_nombre", columnList = "activo, nombre"))
 @Data
 @Builder
 @NoArgsConstructor
@@ -0,0 +1,30 @@
+package com.inventario1.Inventario.repos;
+
+import com.inventario1.Inventario.models.ProductoImagen;
+import com.inventario1.Inventario.services.dto.ProductoImagenBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ProductoImagenRepository extends JpaRepository<ProductoImagen, Long> { // PK = producto_id
+
+    /** Solo los bytes; no hidrata la entidad ni el Producto. */
+    @Query("select pi.datos from ProductoImagen pi where pi.productoId = :productoId")
+    Optional<byte[]> findDatosByProductoId(@Param("productoId") Long productoId);
+
+    @Query("select pi.datos from ProductoImagen pi where pi.producto.codigoBarras = :codigo")
+    Optional<byte[]> findDatosByCodigoBarras(@Param("codigo") String codigoBarras);
+
+    /** Bytes (o referencia al almacén) + content-type sin hidratar el Producto completo. */
+    @Query("""
+           select new com.inventario1.Inventario.services.dto.ProductoImagenBlob(
+                pi.datos, p.imagenContentType, pi.archivoSha256)
+           from ProductoImagen pi join pi.producto p
+           where p.codigoBarras = :codigo
+           """)
+    Optional<ProductoImagenBlob> findBlobByCodigoBarras(@Param("codigo") String codigoBarras);
+}
@@ -2,15 +2,22 @@
 package com.inventario1.Inventario.repos;
 
 import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.services.dto.ProductoListItem;
+import com.inventario1.Inventario.services.dto.ProductoSnapshot;
+import com.inventario1.Inventario.util.CodigoBarras;
 import jakarta.persistence.LockModeType;
 import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.repository.*;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
@@ -22,11 +29,92 @@ public interface ProductoRepository extends JpaRepository<Producto, Long> {
     Optional<Producto> findByCodigoBarras(String codigoBarras);
     boolean existsByCodigoBarras(String codigoBarras);
 
+    /**
+     * Por el código tal como llega (sin espacios alrededor) y, si no aparece, por su forma normalizada
+     * (CodigoBarras: ".0", notación científica, separadores). Para las búsquedas de los controladores.
+     */
+    default Optional<Producto> buscarPorCodigo(String codigo) {
+        if (codigo == null || codigo.isBlank()) return Optional.empty();
+        String cb = codigo.trim();
+        Optional<Producto> p = findByCodigoBarras(cb);
+        if (p.isPresent()) return p;
+        String norm = CodigoBarras.normalizar(cb);
+        return norm != null && !norm.equals(cb) ? findByCodigoBarras(norm) : Optional.empty();
+    }
+
+    // ==== SNAPSHOTS (índice en memoria por código) ====
+    @Query("""
+           select new com.inventario1.Inventario.services.dto.ProductoSnapshot(
+                p.id, p.codigoBarras, p.nombre, p.marca, p.categoria, p.unidadBase,
+                p.volumenNominalMl, p.graduacionAlcoholica, p.fechaVencimiento,
+                p.perecible, p.retornable, p.stockActual, p.stockMinimo, p.activo, p.precio, p.imagenUrl,
+                p.imagenHash, p.imagenActualizadaEn)
+           from Producto p
+           """)
+    List<ProductoSnapshot> findAllSnapshots();
+
+    @Query("""
+           select new com.inventario1.Inventario.services.dto.ProductoSnapshot(
+                p.id, p.codigoBarras, p.nombre, p.marca, p.categoria, p.unidadBase,
+                p.volumenNominalMl, p.graduacionAlcoholica, p.fechaVencimiento,
+                p.perecible, p.retornable, p.stockActual, p.stockMinimo, p.activo, p.precio, p.imagenUrl,
+                p.imagenHash, p.imagenActualizadaEn)
+           from Producto p
+           where p.codigoBarras = :codigo
+           """)
+    Optional<ProductoSnapshot> findSnapshotByCodigoBarras(@Param("codigo") String codigoBarras);
+
+    @Query("""
+           select new com.inventario1.Inventario.services.dto.ProductoSnapshot(
+                p.id, p.codigoBarras, p.nombre, p.marca, p.categoria, p.unidadBase,
+                p.volumenNominalMl, p.graduacionAlcoholica, p.fechaVencimiento,
+                p.perecible, p.retornable, p.stockActual, p.stockMinimo, p.activo, p.precio, p.imagenUrl,
+                p.imagenHash, p.imagenActualizadaEn)
+           from Producto p
+           where p.codigoBarras in :codigos
+           """)
+    List<ProductoSnapshot> findSnapshotsByCodigoBarrasIn(@Param("codigos") Collection<String> codigos);
+
     // ==== LISTADOS BÁSICOS ====
     Page<Producto> findByActivoTrue(Pageable pageable);    // /buscar (solo activos)
     Page<Producto> findByActivoFalse(Pageable pageable);   // /buscar-inactivo (solo inactivos)
     List<Producto> findByActivoTrue();                     // <— para Alertas: SOLO activos sin paginar
 
+    // ==== LISTADOS LIVIANOS (proyección ProductoListItem, sin entidades gestionadas) ====
+    @Query("""
+           select new com.inventario1.Inventario.services.dto.ProductoListItem(
+                p.id, p.codigoBarras, p.nombre, p.marca, p.categoria, p.unidadBase,
+                p.stockActual, p.stockMinimo, p.perecible, p.retornable, p.imagenUrl)
+           from Producto p
+           where p.id in :ids
+           """)
+    List<ProductoListItem> findListItemsByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("""
+           select new com.inventario1.Inventario.services.dto.ProductoListItem(
+                p.id, p.codigoBarras, p.nombre, p.marca, p.categoria, p.unidadBase,
+                p.stockActual, p.stockMinimo, p.perecible, p.retornable, p.imagenUrl)
+           from Producto p
+           where p.activo = :activo
+           """)
+    List<ProductoListItem> findListItemsByActivo(@Param("activo") boolean activo);   // alertas
+
+    @Query("""
+           select new com.inventario1.Inventario.services.dto.ProductoListItem(
+                p.id, p.codigoBarras, p.nombre, p.marca, p.categoria, p.unidadBase,
+                p.stockActual, p.stockMinimo, p.perecible, p.retornable, p.imagenUrl)
+           from Producto p
+           where p.stockMinimo is not null
+           """)
+    List<ProductoListItem> findListItemsConMinimo();                                  // alertas del dashboard
+
+    // ==== LISTADOS KEYSET (sin offset ni count; ver util.CursorTokens) ====
+    Window<ProductoListItem> findListItemsByActivoOrderByCodigoBarrasAsc(boolean activo, ScrollPosition position, Limit limit);
+
+    Window<ProductoListItem> findListItemsByOrderByNombreAscIdAsc(ScrollPosition position, Limit limit);
+
+    long countByActivo(boolean activo);
+
     // ==== BÚSQUEDA PAGINADA ====
     @Query("select p.codigoBarras from Producto p where p.codigoBarras in :cbs")
     List<String> findExistingCodigos(@Param("cbs") Collection<String> cbs);
@@ -136,6 +224,38 @@ public interface ProductoRepository extends JpaRepository<Producto, Long> {
     @Query("select p from Producto p where p.codigoBarras = :codigo")
     Optional<Producto> lockByCodigo(@Param("codigo") String codigoBarras);
 
+    /**
+     * Productos de los códigos con bloqueo de escritura, siempre en orden de id: dos movimientos con productos
+     * en común los bloquean en el mismo orden y no se cruzan (sin deadlocks).
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from Producto p where p.codigoBarras in :codigos order by p.id")
+    List<Producto> lockAllByCodigoBarrasIn(@Param("codigos") Collection<String> codigos);
+
+    // ==== STOCK (incremento atómico en BD: sin leer-sumar-guardar la entidad) ====
+    // Sube version para que un save() con la entidad vieja falle (optimistic lock) en vez de pisar el stock.
+    // No pasa por ProductoCambiosListener: el evento lo publica la MovimientoLinea que acompaña al cambio.
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    @Query("""
+           update Producto p
+           set p.stockActual = p.stockActual + :delta,
+               p.version = coalesce(p.version, 0) + 1,
+               p.actualizadoEn = current_timestamp
+           where p.id = :id and p.stockActual + :delta >= 0
+           """)
+    int sumarStock(@Param("id") Long id, @Param("delta") int delta);
+
+    @Query("select p.stockActual from Producto p where p.id = :id")
+    Optional<Integer> findStockActualById(@Param("id") Long id);
+
+    /**
+     * Suma delta (puede ser negativo) y devuelve el stock resultante; vacío si el producto no existe o el
+     * stock quedaría negativo. Debe llamarse dentro de una transacción: la lectura ve la fila ya bloqueada.
+     */
+    default Optional<Integer> sumarStockActual(Long id, int delta) {
+        return sumarStock(id, delta) == 1 ? findStockActualById(id) : Optional.empty();
+    }
+
     // ==== SOFT DELETE / REACTIVAR ====
     @Modifying(clearAutomatically = true, flushAutomatically = true)
     @Query("update Producto p set p.activo = false, p.actualizadoEn = current_timestamp where p.id = :id")
@@ -154,6 +274,17 @@ public interface ProductoRepository extends JpaRepository<Producto, Long> {
     @Query("update Producto p set p.activo = true, p.actualizadoEn = current_timestamp where p.codigoBarras = :codigo")
     int reactivarPorCodigo(@Param("codigo") String codigoBarras);
 
+    // ==== IMAGEN (hash para ETag de imágenes subidas antes de guardarlo) ====
+    @Modifying
+    @Transactional
+    @Query("""
+           update Producto p set p.imagenHash = :hash, p.imagenActualizadaEn = :ts
+           where p.codigoBarras = :codigo and p.imagenHash is null
+           """)
+    int registrarHashImagen(@Param("codigo") String codigoBarras,
+                            @Param("hash") String hash,
+                            @Param("ts") LocalDateTime ts);
+
     @Override
     @Transactional
     void deleteById(Long id);
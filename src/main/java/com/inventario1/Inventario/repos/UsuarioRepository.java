@@ -2,7 +2,12 @@ package com.inventario1.Inventario.repos;
 
 import com.inventario1.Inventario.models.Usuario;
 import com.inventario1.Inventario.models.Rol;
+import com.inventario1.Inventario.services.dto.EmpleadoListItem;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.*;
 
@@ -14,4 +19,34 @@ public interface UsuarioRepository extends JpaRepository<Usuario, String> { // P
     boolean existsByUsername(String username);
 
     List<Usuario> findByRolInAndActivoTrueOrderByNombreAsc(Set<Rol> roles);
+
+    /**
+     * Directorio de empleados activos, paginado en BD y sin cargar la foto.
+     * patron / rutPatron: "%texto%" ya escapado (null = sin filtro); rutPatron va en formato compacto.
+     */
+    @Query(value = """
+           select new com.inventario1.Inventario.services.dto.EmpleadoListItem(
+                u.rut, u.username, u.nombre, u.email, u.rol)
+           from Usuario u
+           where u.activo = true and u.rol in :roles
+             and (:patron is null
+                  or lower(u.nombre) like :patron escape '\\'
+                  or lower(u.username) like :patron escape '\\'
+                  or lower(u.email) like :patron escape '\\'
+                  or upper(u.rut) like :rutPatron escape '\\')
+           """,
+           countQuery = """
+           select count(u)
+           from Usuario u
+           where u.activo = true and u.rol in :roles
+             and (:patron is null
+                  or lower(u.nombre) like :patron escape '\\'
+                  or lower(u.username) like :patron escape '\\'
+                  or lower(u.email) like :patron escape '\\'
+                  or upper(u.rut) like :rutPatron escape '\\')
+           """)
+    Page<EmpleadoListItem> buscarEmpleados(@Param("roles") Collection<Rol> roles,
+                                           @Param("patron") String patron,
+                                           @Param("rutPatron") String rutPatron,
+                                           Pageable pageable);
 }
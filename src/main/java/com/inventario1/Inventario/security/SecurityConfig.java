@@ -45,6 +45,7 @@ class SecurityConfig {
                                 "/favicon.ico"
                         ).permitAll()
                         .requestMatchers(HttpMethod.GET, "/empleados/*/foto").permitAll()
+                        .requestMatchers("/admin/**").hasRole("SUPERVISOR")
                         .anyRequest().authenticated()
                 )
                 .formLogin(form -> form
@@ -42,7 +42,7 @@ public class AlertasService {
         dto.setStock(sa);
         dto.setColor(color);
         if (p.getCodigoBarras() != null && !p.getCodigoBarras().isBlank()) {
-            dto.setImagenUrl("/img/productos/" + p.getCodigoBarras());
+            dto.setImagenUrl("/img/productos/" + p.getCodigoBarras() + "?size=64");
         }
         return dto;
     }
@@ -10,6 +10,7 @@ import com.inventario1.Inventario.models.UnidadBase;
 import com.inventario1.Inventario.repos.MovimientoInventarioRepository;
 import com.inventario1.Inventario.repos.MovimientoLineaRepository;
 import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.util.CodigoBarras;
 import lombok.*;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -90,7 +91,8 @@ public class BulkMovimientoLoaderService {
                 String comentario= pick(r, "comentario","comment","note");
 
                 String codigo = normalizeBarcode(rawCodigo);
-                if (isBlank(codigo)) throw new IllegalArgumentException("codigo vacío");
+                if (isBlank(codigo)) throw new IllegalArgumentException(isBlank(rawCodigo) ? "codigo vacío"
+                        : "codigo inválido (sin dígitos o más de " + CodigoBarras.MAX + ")");
 
                 TipoMovimiento tipo = normalizeTipo(tipoRaw);
                 if (tipo == null) throw new IllegalArgumentException("tipo inválido (usa I/S o ENTRADA/SALIDA)");
@@ -100,6 +102,10 @@ public class BulkMovimientoLoaderService {
                 if (cantidad <= 0) throw new IllegalArgumentException("cantidad inválida");
 
                 Producto p = productoRepository.findByCodigoBarras(codigo).orElse(null);
+                if (p == null && CodigoBarras.gtinInvalido(codigo)) {
+                    // no se crea un producto con un código mal digitado
+                    throw new IllegalArgumentException("codigo con dígito verificador inválido: " + codigo);
+                }
                 if (p == null) {
                     if (!dryRun) {
                         p = new Producto();
@@ -130,6 +136,13 @@ public class BulkMovimientoLoaderService {
                 if (existsByReferencia(ref)) { skip++; continue; }
 
                 if (!dryRun) {
+                    // stock con el mismo UPDATE atómico que MovimientosService; una SALIDA que lo dejaría
+                    // negativo se informa como error de la fila y no se escribe nada de ella
+                    int delta = tipo == TipoMovimiento.SALIDA ? -cantidad : tipo == TipoMovimiento.ENTRADA ? cantidad : 0;
+                    if (delta != 0 && productoRepository.sumarStock(p.getId(), delta) != 1) {
+                        throw new IllegalStateException("stock insuficiente para " + codigo);
+                    }
+
                     MovimientoInventario cab = new MovimientoInventario();
                     cab.setFecha(fecha);
                     cab.setTipo(tipo); // I = ENTRADA, S = SALIDA
@@ -326,12 +339,7 @@ public class BulkMovimientoLoaderService {
     }
 
     String normalizeBarcode(String v) {
-        if (v == null) return null;
-        String s = v.trim().replace(",", ".");
-        try { if (s.toLowerCase(Locale.ROOT).contains("e")) s = String.valueOf((long)Double.parseDouble(s)); } catch (Exception ignored) {}
-        if (s.endsWith(".0")) s = s.substring(0, s.length()-2);
-        String digits = s.replaceAll("\\D+", "");
-        return digits.isEmpty() ? null : digits;
+        return CodigoBarras.normalizar(v);   // notación científica, ".0", separadores
     }
 
     String sha1(String s) {
@@ -0,0 +1,83 @@
+package com.inventario1.Inventario.services;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Carrito de salida guardado en sesión: código de barras -> cantidad, en orden de llegada.
+ * Cada cambio sube {@link #getVersion()}; {@link CarritoSalidaService} usa la versión para
+ * no volver a resolver los productos mientras el carrito no cambie.
+ */
+public class CarritoSalida implements Serializable {
+
+    public static final int MAX_LINEAS = 500;
+
+    private final LinkedHashMap<String, Integer> lineas = new LinkedHashMap<>();
+    private long version;
+    /** Id de la reserva de stock del carrito (ReservasStock). */
+    private final String id = UUID.randomUUID().toString();
+
+    // Caché de resolución (no viaja con la sesión serializada)
+    transient long versionResuelta = -1;
+    transient CarritoSalidaService.Resolucion resolucion;
+
+    public String getId() {
+        return id;
+    }
+
+    /** Cantidad actual de la línea (0 si no está). */
+    public synchronized int cantidad(String codigo) {
+        return codigo == null ? 0 : lineas.getOrDefault(codigo.trim(), 0);
+    }
+
+    /** Suma cantidad a la línea (la crea si no existe). */
+    public synchronized void agregar(String codigo, int cantidad) {
+        if (codigo == null || codigo.isBlank() || cantidad <= 0) return;
+        String cb = codigo.trim();
+        if (!lineas.containsKey(cb) && lineas.size() >= MAX_LINEAS) {
+            throw new IllegalStateException("El carrito admite como máximo " + MAX_LINEAS + " productos distintos.");
+        }
+        lineas.merge(cb, cantidad, Integer::sum);
+        version++;
+    }
+
+    /** Fija la cantidad de una línea existente; 0 o menos la quita. */
+    public synchronized void fijar(String codigo, int cantidad) {
+        if (codigo == null || !lineas.containsKey(codigo.trim())) return;
+        if (cantidad <= 0) lineas.remove(codigo.trim());
+        else lineas.put(codigo.trim(), cantidad);
+        version++;
+    }
+
+    public synchronized void quitar(String codigo) {
+        if (codigo != null && lineas.remove(codigo.trim()) != null) version++;
+    }
+
+    public synchronized void vaciar() {
+        if (lineas.isEmpty()) return;
+        lineas.clear();
+        version++;
+    }
+
+    /** Copia inmodificable de las líneas (código -> cantidad). */
+    public synchronized Map<String, Integer> getLineas() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(lineas));
+    }
+
+    public synchronized boolean isVacio() {
+        return lineas.isEmpty();
+    }
+
+    public synchronized int getTotalUnidades() {
+        int total = 0;
+        for (int c : lineas.values()) total += c;
+        return total;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,139 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.models.RegistrarSalidaRequest;
+import com.inventario1.Inventario.models.RegistrarSalidaResponse;
+import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.dto.ProductoSnapshot;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operaciones sobre el {@link CarritoSalida} de la sesión.
+ * - resolver: trae TODOS los productos del carrito en una sola consulta (IN) y deja el resultado
+ *   cacheado en el carrito hasta que cambie su versión.
+ * - agregar / fijar / quitar / vaciar: cambian el carrito y su reserva de stock (ReservasStock) juntos; si no
+ *   hay disponibles para un aumento, el carrito no cambia (IllegalStateException).
+ * - registrar: envía el carrito completo por SalidasService.registrarSalida (una transacción), que libera la
+ *   reserva al confirmar.
+ */
+@Service
+@RequiredArgsConstructor
+public class CarritoSalidaService {
+
+    private final ProductoRepository productoRepository;
+    private final SalidasService salidasService;
+    private final ReservasStock reservas;
+
+    /** Línea del carrito con su producto resuelto. */
+    public record Linea(ProductoSnapshot producto, int cantidad) {}
+
+    /** Resultado de resolver el carrito: líneas en orden de llegada y códigos que ya no existen. */
+    public record Resolucion(long version, List<Linea> lineas, List<String> faltantes) {}
+
+    /** Suma cantidad a la línea reservando las unidades. */
+    public void agregar(CarritoSalida carrito, String codigo, int cantidad) {
+        if (codigo == null || codigo.isBlank() || cantidad <= 0) return;
+        String cb = codigo.trim();
+        synchronized (carrito) {
+            int antes = carrito.cantidad(cb);
+            reservas.reservar(carrito.getId(), cb, antes + cantidad);
+            try {
+                carrito.agregar(cb, cantidad);
+            } catch (IllegalStateException e) {
+                reservas.reservar(carrito.getId(), cb, antes); // carrito lleno: se deshace la reserva
+                throw e;
+            }
+        }
+    }
+
+    /** Fija la cantidad de una línea existente (0 o menos la quita) y ajusta su reserva. */
+    public void fijar(CarritoSalida carrito, String codigo, int cantidad) {
+        if (codigo == null) return;
+        String cb = codigo.trim();
+        synchronized (carrito) {
+            if (carrito.cantidad(cb) == 0) return;
+            reservas.reservar(carrito.getId(), cb, Math.max(0, cantidad));
+            carrito.fijar(cb, cantidad);
+        }
+    }
+
+    public void quitar(CarritoSalida carrito, String codigo) {
+        if (codigo == null) return;
+        synchronized (carrito) {
+            reservas.reservar(carrito.getId(), codigo.trim(), 0);
+            carrito.quitar(codigo);
+        }
+    }
+
+    public void vaciar(CarritoSalida carrito) {
+        synchronized (carrito) {
+            reservas.liberar(carrito.getId());
+            carrito.vaciar();
+        }
+    }
+
+    public Resolucion resolver(CarritoSalida carrito) {
+        reservas.renovar(carrito.getId()); // el carrito se está mirando: su reserva no vence
+        synchronized (carrito) {
+            long v = carrito.getVersion();
+            if (carrito.resolucion != null && carrito.versionResuelta == v) return carrito.resolucion;
+
+            Map<String, Integer> lineas = carrito.getLineas();
+            Map<String, ProductoSnapshot> porCodigo = new HashMap<>();
+            if (!lineas.isEmpty()) {
+                for (ProductoSnapshot s : productoRepository.findSnapshotsByCodigoBarrasIn(lineas.keySet())) {
+                    porCodigo.put(s.codigoBarras(), s);
+                }
+            }
+
+            List<Linea> resueltas = new ArrayList<>(lineas.size());
+            List<String> faltantes = new ArrayList<>();
+            lineas.forEach((cb, cant) -> {
+                ProductoSnapshot s = porCodigo.get(cb);
+                if (s != null) resueltas.add(new Linea(s, cant));
+                else faltantes.add(cb);
+            });
+
+            Resolucion r = new Resolucion(v, List.copyOf(resueltas), List.copyOf(faltantes));
+            carrito.resolucion = r;
+            carrito.versionResuelta = v;
+            return r;
+        }
+    }
+
+    /**
+     * Registra el carrito completo como una sola SALIDA. Si queda registrada, vacía el carrito;
+     * si falla (p.ej. stock insuficiente), el carrito se conserva para corregirlo.
+     */
+    public RegistrarSalidaResponse registrar(CarritoSalida carrito, String motivo, String referencia, String usuario) {
+        Map<String, Integer> lineas = carrito.getLineas();
+        long version = carrito.getVersion();
+
+        RegistrarSalidaRequest req = new RegistrarSalidaRequest();
+        req.motivo = motivo;
+        req.referencia = referencia;
+        req.usuario = usuario;
+        req.reserva = carrito.getId();
+        req.items = new ArrayList<>(lineas.size());
+        lineas.forEach((cb, cant) -> {
+            RegistrarSalidaRequest.Item it = new RegistrarSalidaRequest.Item();
+            it.codigo = cb;
+            it.cantidad = cant;
+            req.items.add(it);
+        });
+
+        RegistrarSalidaResponse res = salidasService.registrarSalida(req);
+        if (res.ok) {
+            synchronized (carrito) {
+                // Solo se vacía si nadie lo modificó mientras se registraba
+                if (carrito.getVersion() == version) carrito.vaciar();
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,310 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.services.index.ProductoCambiadoEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Conciliación de productos.stock_actual contra el libro de movimientos (movimiento_lineas: ENTRADA suma,
+ * SALIDA resta, AJUSTE no cambia), a pedido de un supervisor.
+ * - Checkpoint por producto en stock_checkpoints: saldo del libro con todas las líneas creadas hasta "hasta".
+ *   Cada pasada lee solo las líneas posteriores al checkpoint de cada producto (índice created_at, producto_id)
+ *   y lo adelanta al corte (ahora - app.conciliacion.margen): así no se vuelve a recorrer todo el libro.
+ * - El checkpoint va por created_at y no por id: los ids salen por bloques (GeneradoresId) y no siguen el orden
+ *   de commit. El margen cubre las transacciones que crearon líneas y aún no confirmaron.
+ * - Tramos de app.conciliacion.tramo productos (keyset por id) en app.conciliacion.paralelo hilos; cada tramo lee
+ *   stock y libro en una transacción REPEATABLE READ (misma foto: lo que se confirme en medio no descuadra).
+ * - Productos sin checkpoint (apertura): se recorre todo su libro una vez. Las ediciones manuales del stock
+ *   también quedan en el libro (MovimientosService.fijarStock), así que si el libro no da el stock actual es un
+ *   descuadre real: se informa (apertura=true) pero no se repara, y el checkpoint parte del stock actual, porque
+ *   en una BD que viene de antes el libro puede no cubrir toda la historia del producto.
+ * - Con reconstruir=true se ignoran los checkpoints existentes: todo el libro de cada producto, desde 0, es la
+ *   referencia (también en la apertura) y los checkpoints se rehacen desde ahí.
+ * - Con reparar=true, stock_actual += diferencia (relativo: no pisa movimientos concurrentes), sin dejarlo negativo.
+ *   Las diferencias de apertura solo se reparan reconstruyendo.
+ * Corre en un hilo propio; {@link #estado()} informa el avance y los descuadres encontrados.
+ */
+@Component
+@Slf4j
+public class ConciliacionStockService {
+
+    public static final String TABLA = "stock_checkpoints";
+    /** Tope de descuadres que se informan en el estado (el total se cuenta igual). */
+    private static final int MAX_INFORMADOS = 1000;
+
+    /** apertura=true: diferencia encontrada al abrir el checkpoint; se informa, el saldo parte del stock actual. */
+    public record Descuadre(long productoId, String codigoBarras, int stockActual, int esperado, int diferencia,
+                            boolean reparado, boolean apertura) {}
+
+    public record Estado(boolean enCurso, boolean reparar, boolean reconstruir, long productos, long lineas,
+                         long tramos, long descuadres, long reparados, List<Descuadre> detalle, String error,
+                         LocalDateTime corte, LocalDateTime inicio, LocalDateTime fin) {}
+
+    /** Fila de producto del tramo, con su checkpoint (saldo/hasta null si no tiene). */
+    private record Fila(long id, String codigoBarras, int stock, Integer saldo, LocalDateTime hasta) {}
+
+    /** Suma del libro desde el checkpoint: total y la parte hasta el corte. */
+    private record Libro(long total, long hastaCorte, long lineas) {}
+
+    private record ResultadoTramo(int productos, long lineas, List<Descuadre> descuadres) {}
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate foto;
+    private final ApplicationEventPublisher publisher;
+    private final int tramo;
+    private final int paralelo;
+    private final Duration margen;
+
+    private final AtomicBoolean corriendo = new AtomicBoolean();
+    private volatile boolean detener;
+    private volatile Estado estado = new Estado(false, false, false, 0, 0, 0, 0, 0, List.of(), null, null, null, null);
+
+    public ConciliacionStockService(JdbcTemplate jdbc,
+                                    PlatformTransactionManager txManager,
+                                    ApplicationEventPublisher publisher,
+                                    @Value("${app.conciliacion.tramo:1000}") int tramo,
+                                    @Value("${app.conciliacion.paralelo:4}") int paralelo,
+                                    @Value("${app.conciliacion.margen:5m}") Duration margen) {
+        this.jdbc = jdbc;
+        this.foto = new TransactionTemplate(txManager);
+        this.foto.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.publisher = publisher;
+        this.tramo = Math.max(1, tramo);
+        this.paralelo = Math.max(1, paralelo);
+        this.margen = margen;
+    }
+
+    @PostConstruct
+    void crearTabla() {
+        jdbc.execute("CREATE TABLE IF NOT EXISTS " + TABLA + " ("
+                + "producto_id BIGINT NOT NULL PRIMARY KEY, "
+                + "saldo INT NOT NULL, "
+                + "hasta DATETIME(6) NOT NULL, "
+                + "actualizado_en DATETIME(6) NOT NULL)");
+    }
+
+    public Estado estado() {
+        return estado;
+    }
+
+    /** Lanza la conciliación en segundo plano. false si ya había una en curso. */
+    public boolean iniciar(boolean reparar, boolean reconstruir) {
+        if (!corriendo.compareAndSet(false, true)) return false;
+        detener = false;
+        estado = new Estado(true, reparar, reconstruir, 0, 0, 0, 0, 0, List.of(), null, null, LocalDateTime.now(), null);
+        Thread hilo = new Thread(() -> ejecutar(reparar, reconstruir), "conciliacion-stock");
+        hilo.setDaemon(true);
+        hilo.start();
+        return true;
+    }
+
+    @PreDestroy
+    void cerrar() {
+        detener = true; // los tramos ya confirmados dejan su checkpoint; el resto se hace en la próxima pasada
+    }
+
+    private void ejecutar(boolean reparar, boolean reconstruir) {
+        LocalDateTime corte = LocalDateTime.now().minus(margen);
+        AtomicInteger n = new AtomicInteger();
+        ExecutorService hilos = Executors.newFixedThreadPool(paralelo, r -> {
+            Thread t = new Thread(r, "conciliacion-stock-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicLong productos = new AtomicLong(), lineas = new AtomicLong(), tramos = new AtomicLong();
+        AtomicLong descuadres = new AtomicLong(), reparados = new AtomicLong();
+        List<Descuadre> detalle = Collections.synchronizedList(new ArrayList<>());
+        String error = null;
+        try {
+            // el hilo principal reparte rangos de ids; a lo sumo 2x paralelo tramos en vuelo
+            Semaphore enVuelo = new Semaphore(paralelo * 2);
+            List<Future<?>> futuros = new ArrayList<>();
+            long desde = 0;
+            while (!detener) {
+                List<Long> ids = jdbc.queryForList("SELECT id FROM productos WHERE id > ? ORDER BY id LIMIT " + tramo,
+                        Long.class, desde);
+                if (ids.isEmpty()) break;
+                long primero = ids.get(0), ultimo = ids.get(ids.size() - 1);
+                desde = ultimo;
+                enVuelo.acquire();
+                futuros.add(hilos.submit(() -> {
+                    try {
+                        ResultadoTramo r = conciliarTramo(primero, ultimo, corte, reparar, reconstruir);
+                        productos.addAndGet(r.productos());
+                        lineas.addAndGet(r.lineas());
+                        tramos.incrementAndGet();
+                        for (Descuadre d : r.descuadres()) {
+                            descuadres.incrementAndGet();
+                            if (d.reparado()) reparados.incrementAndGet();
+                            if (detalle.size() < MAX_INFORMADOS) detalle.add(d);
+                        }
+                        estado = new Estado(true, reparar, reconstruir, productos.get(), lineas.get(), tramos.get(),
+                                descuadres.get(), reparados.get(), List.of(), null, corte, estado.inicio(), null);
+                    } finally {
+                        enVuelo.release();
+                    }
+                }));
+            }
+            for (Future<?> f : futuros) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "Interrumpida";
+        } catch (ExecutionException | RuntimeException e) {
+            Throwable causa = e instanceof ExecutionException ? e.getCause() : e;
+            log.error("Conciliación de stock interrumpida", causa);
+            error = causa.getMessage();
+        } finally {
+            hilos.shutdownNow();
+            List<Descuadre> informados;
+            synchronized (detalle) {
+                informados = List.copyOf(detalle);
+            }
+            estado = new Estado(false, reparar, reconstruir, productos.get(), lineas.get(), tramos.get(),
+                    descuadres.get(), reparados.get(), informados, error, corte, estado.inicio(), LocalDateTime.now());
+            corriendo.set(false);
+        }
+        log.info("Conciliación de stock: {} productos, {} líneas, {} descuadres ({} reparados) en {} ms",
+                productos.get(), lineas.get(), descuadres.get(), reparados.get(),
+                Duration.between(estado.inicio(), estado.fin()).toMillis());
+    }
+
+    /** Un rango de ids de producto: lee stock + libro en la misma foto, avanza checkpoints y, si se pide, repara. */
+    private ResultadoTramo conciliarTramo(long desde, long hasta, LocalDateTime corte, boolean reparar, boolean reconstruir) {
+        Timestamp tsCorte = Timestamp.valueOf(corte);
+        return foto.execute(st -> {
+            List<Fila> filas = jdbc.query("""
+                    SELECT p.id, p.codigo_barras, p.stock_actual, c.saldo, c.hasta
+                    FROM productos p LEFT JOIN stock_checkpoints c ON c.producto_id = p.id
+                    WHERE p.id BETWEEN ? AND ?
+                    """, (rs, i) -> {
+                Timestamp h = rs.getTimestamp(5);
+                return new Fila(rs.getLong(1), rs.getString(2), rs.getInt(3), rs.getObject(4, Integer.class),
+                        h == null ? null : h.toLocalDateTime());
+            }, desde, hasta);
+
+            Map<Long, Libro> libro = new HashMap<>();
+            // sin checkpoint (o reconstruyendo): todo su libro
+            List<Long> desdeCero = filas.stream().filter(f -> reconstruir || f.saldo() == null).map(Fila::id).toList();
+            if (!desdeCero.isEmpty()) sumarLibro(libro, desdeCero, tsCorte);
+            // con checkpoint, agrupados por "hasta" (casi siempre uno: el corte de la pasada anterior); el rango
+            // created_at > hasta recorre solo las líneas nuevas
+            filas.stream().filter(f -> !reconstruir && f.saldo() != null)
+                    .collect(Collectors.groupingBy(Fila::hasta, Collectors.mapping(Fila::id, Collectors.toList())))
+                    .forEach((desdeCk, ids) -> sumarDesde(libro, ids, desdeCk, tsCorte));
+
+            Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+            List<Object[]> checkpoints = new ArrayList<>(filas.size());
+            List<Descuadre> descuadres = new ArrayList<>();
+            long lineas = 0;
+            for (Fila f : filas) {
+                Libro l = libro.getOrDefault(f.id(), new Libro(0, 0, 0));
+                lineas += l.lineas();
+                long saldoCorte;
+                if (f.saldo() == null && !reconstruir) {
+                    // apertura: el stock de hoy, menos lo que entró/salió después del corte; lo que el libro no
+                    // explique se informa
+                    saldoCorte = f.stock() - (l.total() - l.hastaCorte());
+                    if (l.total() != f.stock()) {
+                        descuadres.add(new Descuadre(f.id(), f.codigoBarras(), f.stock(), (int) l.total(),
+                                (int) (l.total() - f.stock()), false, true));
+                    }
+                } else {
+                    long base = reconstruir || f.saldo() == null ? 0 : f.saldo();
+                    long esperado = base + l.total();
+                    saldoCorte = base + l.hastaCorte();
+                    if (esperado != f.stock()) {
+                        descuadres.add(new Descuadre(f.id(), f.codigoBarras(), f.stock(), (int) esperado,
+                                (int) (esperado - f.stock()), false, false));
+                    }
+                }
+                // un checkpoint nunca retrocede (p.ej. si se achicó el margen entre pasadas), salvo al reconstruir:
+                // ahí el saldo se calculó hasta el corte
+                LocalDateTime nuevoHasta = !reconstruir && f.hasta() != null && f.hasta().isAfter(corte) ? f.hasta() : corte;
+                checkpoints.add(new Object[]{f.id(), (int) saldoCorte, Timestamp.valueOf(nuevoHasta), ahora});
+            }
+
+            if (!checkpoints.isEmpty()) {
+                jdbc.batchUpdate("INSERT INTO " + TABLA + " (producto_id, saldo, hasta, actualizado_en) VALUES (?, ?, ?, ?) "
+                        + "ON DUPLICATE KEY UPDATE saldo = VALUES(saldo), hasta = VALUES(hasta), "
+                        + "actualizado_en = VALUES(actualizado_en)", checkpoints);
+            }
+            if (reparar && !descuadres.isEmpty()) {
+                descuadres = reparar(descuadres, ahora);
+            }
+            return new ResultadoTramo(filas.size(), lineas, descuadres);
+        });
+    }
+
+    private static final String SUMA_LIBRO = """
+            SELECT l.producto_id,
+                   SUM(CASE m.tipo WHEN 'ENTRADA' THEN l.cantidad WHEN 'SALIDA' THEN -l.cantidad ELSE 0 END),
+                   SUM(CASE WHEN l.created_at IS NULL OR l.created_at <= ? THEN
+                       CASE m.tipo WHEN 'ENTRADA' THEN l.cantidad WHEN 'SALIDA' THEN -l.cantidad ELSE 0 END
+                       ELSE 0 END),
+                   COUNT(*)
+            FROM movimiento_lineas l
+            JOIN movimientos_inventario m ON m.id = l.movimiento_id
+            WHERE %s
+            GROUP BY l.producto_id
+            """;
+
+    /** Libro completo de los productos (reconstrucción): por producto_id. */
+    private void sumarLibro(Map<Long, Libro> libro, List<Long> ids, Timestamp corte) {
+        List<Object> args = new ArrayList<>(ids.size() + 1);
+        args.add(corte);
+        args.addAll(ids);
+        String filtro = "l.producto_id IN (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+        jdbc.query(SUMA_LIBRO.formatted(filtro), rs -> {
+            libro.put(rs.getLong(1), new Libro(rs.getLong(2), rs.getLong(3), rs.getLong(4)));
+        }, args.toArray());
+    }
+
+    /**
+     * Líneas de los productos creadas después de "desde" (su checkpoint): rango
+     * created_at > desde (las nuevas, normalmente pocas) acotado al rango de ids del tramo; lo que sea de otros
+     * productos del rango se descarta.
+     */
+    private void sumarDesde(Map<Long, Libro> libro, List<Long> ids, LocalDateTime desde, Timestamp corte) {
+        Set<Long> del = new HashSet<>(ids);
+        jdbc.query(SUMA_LIBRO.formatted("l.created_at > ? AND l.producto_id BETWEEN ? AND ?"), rs -> {
+            long id = rs.getLong(1);
+            if (del.contains(id)) libro.put(id, new Libro(rs.getLong(2), rs.getLong(3), rs.getLong(4)));
+        }, corte, Timestamp.valueOf(desde), Collections.min(ids), Collections.max(ids));
+    }
+
+    /** stock_actual += diferencia; los de apertura y los que quedarían negativos se informan sin reparar. */
+    private List<Descuadre> reparar(List<Descuadre> descuadres, Timestamp ahora) {
+        // de a uno (son pocos): un batch reescrito por el driver no informa qué filas cumplieron el WHERE
+        List<Descuadre> out = new ArrayList<>(descuadres.size());
+        for (Descuadre d : descuadres) {
+            if (d.apertura()) {
+                out.add(d);
+                continue;
+            }
+            boolean ok = jdbc.update("UPDATE productos SET stock_actual = stock_actual + ?, version = COALESCE(version, 0) + 1, "
+                    + "actualizado_en = ? WHERE id = ? AND stock_actual + ? >= 0",
+                    d.diferencia(), ahora, d.productoId(), d.diferencia()) == 1;
+            if (ok) publisher.publishEvent(new ProductoCambiadoEvent(d.productoId(), d.codigoBarras(), true));
+            out.add(new Descuadre(d.productoId(), d.codigoBarras(), d.stockActual(), d.esperado(), d.diferencia(), ok, false));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,106 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.models.GeneradoresId;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tabla id_generadores (ver {@link GeneradoresId}).
+ * - Migración al arrancar: crea la tabla si falta y deja cada fila por encima del MAX(id) actual de su tabla
+ *   (las filas creadas con AUTO_INCREMENT siguen ahí; el generador no debe repetir sus ids). Es idempotente.
+ * - {@link #reservar} aparta ids para quien inserta por JDBC sin pasar por Hibernate, con la misma semántica
+ *   que el TableGenerator + optimizador pooled de Hibernate: quien lee v y lo sube en k bloques se queda con
+ *   v - BLOQUE + 2 .. v + 1 + (k - 1) * BLOQUE.
+ * - Como el optimizador pooled, cada tabla guarda en memoria el rango ya apartado y lo va entregando: solo se va
+ *   a BD (SELECT ... FOR UPDATE + UPDATE) cuando el pedido no cabe en lo que queda. Lo que sobra de un rango al
+ *   apartar el siguiente, o al reiniciar la app, queda como hueco.
+ */
+@Component
+@Slf4j
+public class IdGeneradores {
+
+    private static final List<String> TABLAS = List.of(GeneradoresId.MOVIMIENTOS, GeneradoresId.LINEAS);
+
+    /** Rango apartado en BD y aún no entregado: [siguiente, hasta). Protegido por su monitor. */
+    private static final class Rango {
+        long siguiente;
+        long hasta;
+    }
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate aparte;
+    private final Map<String, Rango> rangos = new ConcurrentHashMap<>();
+
+    /** EntityManagerFactory: la siembra corre después de que Hibernate actualizó el esquema. */
+    public IdGeneradores(JdbcTemplate jdbc, PlatformTransactionManager txManager, EntityManagerFactory emf) {
+        this.jdbc = jdbc;
+        this.aparte = new TransactionTemplate(txManager);
+        // como el TableGenerator de Hibernate: la reserva no queda bloqueada hasta el commit de quien la pidió
+        this.aparte.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @PostConstruct
+    void sembrar() {
+        jdbc.execute("CREATE TABLE IF NOT EXISTS " + GeneradoresId.TABLA + " ("
+                + GeneradoresId.COL_ENTIDAD + " VARCHAR(255) NOT NULL PRIMARY KEY, "
+                + GeneradoresId.COL_SIGUIENTE + " BIGINT)");
+        for (String tabla : TABLAS) {
+            aparte.executeWithoutResult(st -> {
+                Long max = jdbc.queryForObject("SELECT COALESCE(MAX(id), 0) FROM " + tabla, Long.class);
+                long minimo = max + GeneradoresId.BLOQUE - 1; // el primer bloque que se entregue empieza en max + 1
+                List<Long> actual = jdbc.queryForList("SELECT " + GeneradoresId.COL_SIGUIENTE + " FROM " + GeneradoresId.TABLA
+                        + " WHERE " + GeneradoresId.COL_ENTIDAD + " = ? FOR UPDATE", Long.class, tabla);
+                if (actual.isEmpty()) {
+                    jdbc.update("INSERT INTO " + GeneradoresId.TABLA + " (" + GeneradoresId.COL_ENTIDAD + ", "
+                            + GeneradoresId.COL_SIGUIENTE + ") VALUES (?, ?)", tabla, minimo);
+                    log.info("Ids de {}: generador por tabla iniciado en {} (MAX(id) = {})", tabla, max + 1, max);
+                } else if (actual.get(0) == null || actual.get(0) < minimo) {
+                    jdbc.update("UPDATE " + GeneradoresId.TABLA + " SET " + GeneradoresId.COL_SIGUIENTE + " = ? WHERE "
+                            + GeneradoresId.COL_ENTIDAD + " = ?", minimo, tabla);
+                    log.info("Ids de {}: generador por tabla adelantado a {} (MAX(id) = {})", tabla, max + 1, max);
+                }
+            });
+        }
+    }
+
+    /**
+     * Primer id de un rango de n ids consecutivos apartado para la tabla. Sale del rango en memoria si alcanza;
+     * si no, aparta bloques nuevos en BD (en su propia transacción).
+     */
+    public long reservar(String tabla, int n) {
+        int cuantos = Math.max(1, n);
+        Rango r = rangos.computeIfAbsent(tabla, k -> new Rango());
+        synchronized (r) {
+            if (r.hasta - r.siguiente < cuantos) {
+                int bloques = (cuantos + GeneradoresId.BLOQUE - 1) / GeneradoresId.BLOQUE;
+                r.siguiente = apartar(tabla, bloques);
+                r.hasta = r.siguiente + (long) bloques * GeneradoresId.BLOQUE;
+            }
+            long primero = r.siguiente;
+            r.siguiente += cuantos;
+            return primero;
+        }
+    }
+
+    /** Sube la fila de la tabla en "bloques" bloques y devuelve el primer id apartado. */
+    private long apartar(String tabla, int bloques) {
+        Long v = aparte.execute(st -> {
+            Long actual = jdbc.queryForObject("SELECT " + GeneradoresId.COL_SIGUIENTE + " FROM " + GeneradoresId.TABLA
+                    + " WHERE " + GeneradoresId.COL_ENTIDAD + " = ? FOR UPDATE", Long.class, tabla);
+            jdbc.update("UPDATE " + GeneradoresId.TABLA + " SET " + GeneradoresId.COL_SIGUIENTE + " = ? WHERE "
+                    + GeneradoresId.COL_ENTIDAD + " = ?", actual + (long) bloques * GeneradoresId.BLOQUE, tabla);
+            return actual;
+        });
+        return v - GeneradoresId.BLOQUE + 2;
+    }
+}
@@ -0,0 +1,251 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.models.RegistrarSalidaResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Idempotency-Key para las salidas y los escaneos de stock (/productos/actualizar-stock y /ajustar-stock): los
+ * escáneres reintentan el POST cuando se corta el Wi-Fi, y el reintento no debe registrar otro movimiento.
+ * - Clave por ámbito (la misma clave en dos APIs distintas no choca). Solo se recuerdan las salidas que quedaron
+ *   registradas (ok); una que falló no escribió nada y se puede reintentar tal cual.
+ * - La clave se guarda en la tabla idempotencia en la MISMA transacción que el movimiento: quedan los dos o
+ *   ninguno. Si dos instancias la ejecutan a la vez, la PK deja pasar a una; la otra deshace su movimiento y
+ *   devuelve la respuesta de la primera.
+ * - Delante de la tabla hay un LRU acotado (app.idempotencia.max-memoria) y, en la misma instancia, un reintento
+ *   que llega mientras el original sigue en curso espera su resultado en vez de ejecutarse en paralelo.
+ * - La misma clave con otro contenido (huella distinta) es un error del cliente: IllegalStateException.
+ * - Las claves vencen a los app.idempotencia.ttl (24h); un hilo borra las vencidas cada app.idempotencia.limpieza.
+ */
+@Service
+@Slf4j
+public class IdempotenciaService {
+
+    public static final String TABLA = "idempotencia";
+    public static final int MAX_CLAVE = 128;
+
+    /** Salida ya registrada con una clave; la respuesta se rearma (nueva instancia) en cada reintento. */
+    private record Resultado(String huella, Long movimientoId, int registrados, LocalDateTime expira) {
+        RegistrarSalidaResponse respuesta() {
+            RegistrarSalidaResponse res = new RegistrarSalidaResponse();
+            res.ok = true;
+            res.movimientoId = movimientoId;
+            res.registrados = registrados;
+            return res;
+        }
+
+        boolean vencido(LocalDateTime ahora) {
+            return !expira.isAfter(ahora);
+        }
+    }
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final Duration ttl;
+    private final Duration intervaloLimpieza;
+    private final ScheduledExecutorService limpieza;
+
+    // LRU protegido por su propio monitor; las consultas a BD van fuera del lock
+    private final LinkedHashMap<String, Resultado> recientes;
+    /** Ejecuciones en curso en esta instancia, por ámbito + clave. */
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> enCurso = new ConcurrentHashMap<>();
+
+    public IdempotenciaService(JdbcTemplate jdbc,
+                               PlatformTransactionManager txManager,
+                               @Value("${app.idempotencia.ttl:24h}") Duration ttl,
+                               @Value("${app.idempotencia.max-memoria:10000}") int maxMemoria,
+                               @Value("${app.idempotencia.limpieza:10m}") Duration intervaloLimpieza) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+        this.ttl = ttl;
+        this.intervaloLimpieza = intervaloLimpieza;
+        int max = Math.max(1, maxMemoria);
+        this.recientes = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Resultado> eldest) {
+                return size() > max;
+            }
+        };
+        this.limpieza = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "idempotencia-limpieza");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PostConstruct
+    void iniciar() {
+        jdbc.execute("CREATE TABLE IF NOT EXISTS " + TABLA + " ("
+                + "ambito VARCHAR(32) NOT NULL, "
+                + "clave VARCHAR(" + MAX_CLAVE + ") NOT NULL, "
+                + "huella CHAR(64) NOT NULL, "
+                + "movimiento_id BIGINT, "
+                + "registrados INT NOT NULL, "
+                + "creado_en DATETIME NOT NULL, "
+                + "expira_en DATETIME NOT NULL, "
+                + "PRIMARY KEY (ambito, clave), "
+                + "INDEX idx_idempotencia_expira (expira_en))");
+        long ms = Math.max(1000, intervaloLimpieza.toMillis());
+        limpieza.scheduleWithFixedDelay(this::limpiar, ms, ms, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void detener() {
+        limpieza.shutdownNow();
+    }
+
+    /**
+     * Ejecuta la salida en una transacción, salvo que la clave ya tenga resultado: entonces devuelve la respuesta
+     * original sin tocar movimientos_inventario. Sin clave, solo la ejecuta (también en una transacción).
+     */
+    public RegistrarSalidaResponse ejecutar(String ambito, String clave, String huella,
+                                            Supplier<RegistrarSalidaResponse> accion) {
+        if (clave == null || clave.isBlank()) return tx.execute(st -> accion.get());
+        String c = clave.trim();
+        if (c.length() > MAX_CLAVE) {
+            throw new IllegalArgumentException("Idempotency-Key demasiado larga (máximo " + MAX_CLAVE + " caracteres)");
+        }
+        String k = ambito + ":" + c;
+        while (true) {
+            Resultado r = buscar(ambito, c, k);
+            if (r != null) return verificar(r, huella).respuesta();
+
+            CompletableFuture<Void> mio = new CompletableFuture<>();
+            CompletableFuture<Void> otro = enCurso.putIfAbsent(k, mio);
+            if (otro != null) {
+                otro.join(); // el original terminó (bien o mal): se vuelve a mirar
+                continue;
+            }
+            try {
+                r = buscar(ambito, c, k); // pudo terminar justo antes de tomar el turno
+                if (r != null) return verificar(r, huella).respuesta();
+                return ejecutarYGuardar(ambito, c, k, huella, accion);
+            } finally {
+                enCurso.remove(k, mio);
+                mio.complete(null);
+            }
+        }
+    }
+
+    /** SHA-256 (hex) de las partes de la solicitud, para detectar la misma clave con otro contenido. */
+    public static String huella(List<String> partes) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String p : partes) {
+                md.update(String.valueOf(p).getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0x1f);
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ----------------- internos -----------------
+
+    private RegistrarSalidaResponse ejecutarYGuardar(String ambito, String clave, String k, String huella,
+                                                     Supplier<RegistrarSalidaResponse> accion) {
+        LocalDateTime ahora = LocalDateTime.now();
+        RegistrarSalidaResponse res;
+        try {
+            res = tx.execute(st -> {
+                RegistrarSalidaResponse r = accion.get();
+                if (r != null && r.ok) {
+                    // una fila vencida que la limpieza aún no borró no debe bloquear la clave
+                    jdbc.update("DELETE FROM " + TABLA + " WHERE ambito = ? AND clave = ? AND expira_en <= ?",
+                            ambito, clave, Timestamp.valueOf(ahora));
+                    jdbc.update("INSERT INTO " + TABLA + " (ambito, clave, huella, movimiento_id, registrados, creado_en, expira_en) "
+                                    + "VALUES (?, ?, ?, ?, ?, ?, ?)",
+                            ambito, clave, huella, r.movimientoId, r.registrados,
+                            Timestamp.valueOf(ahora), Timestamp.valueOf(ahora.plus(ttl)));
+                }
+                return r;
+            });
+        } catch (DuplicateKeyException e) {
+            // otra instancia la registró primero: nuestro movimiento se deshizo, vale el suyo
+            Resultado r = leer(ambito, clave);
+            if (r == null) throw e;
+            recordar(k, r);
+            return verificar(r, huella).respuesta();
+        }
+        if (res == null || !res.ok) return res;
+        recordar(k, new Resultado(huella, res.movimientoId, res.registrados, ahora.plus(ttl)));
+        return res;
+    }
+
+    private Resultado buscar(String ambito, String clave, String k) {
+        LocalDateTime ahora = LocalDateTime.now();
+        synchronized (recientes) {
+            Resultado r = recientes.get(k);
+            if (r != null) {
+                if (!r.vencido(ahora)) return r;
+                recientes.remove(k);
+            }
+        }
+        Resultado r = leer(ambito, clave);
+        if (r != null) recordar(k, r);
+        return r;
+    }
+
+    /** Fila vigente de la clave, o null. */
+    private Resultado leer(String ambito, String clave) {
+        List<Resultado> filas = jdbc.query(
+                "SELECT huella, movimiento_id, registrados, expira_en FROM " + TABLA
+                        + " WHERE ambito = ? AND clave = ? AND expira_en > ?",
+                (rs, i) -> new Resultado(rs.getString(1), rs.getObject(2, Long.class), rs.getInt(3),
+                        rs.getTimestamp(4).toLocalDateTime()),
+                ambito, clave, Timestamp.valueOf(LocalDateTime.now()));
+        return filas.isEmpty() ? null : filas.get(0);
+    }
+
+    private void recordar(String k, Resultado r) {
+        synchronized (recientes) {
+            recientes.put(k, r);
+        }
+    }
+
+    private static Resultado verificar(Resultado r, String huella) {
+        if (!r.huella().equals(huella)) {
+            throw new IllegalStateException("La Idempotency-Key ya se usó con otra solicitud.");
+        }
+        return r;
+    }
+
+    /** Borra las claves vencidas, en BD y en memoria. */
+    void limpiar() {
+        LocalDateTime ahora = LocalDateTime.now();
+        try {
+            int n = jdbc.update("DELETE FROM " + TABLA + " WHERE expira_en <= ?", Timestamp.valueOf(ahora));
+            if (n > 0) log.info("Idempotencia: {} claves vencidas borradas", n);
+        } catch (RuntimeException e) {
+            log.warn("Idempotencia: no se pudieron borrar las claves vencidas ({})", e.getMessage());
+        }
+        synchronized (recientes) {
+            recientes.values().removeIf(r -> r.vencido(ahora));
+        }
+    }
+}
@@ -8,13 +8,18 @@ import com.inventario1.Inventario.repos.MovimientoInventarioRepository;
 import com.inventario1.Inventario.repos.ProductoRepository;
 import com.inventario1.Inventario.services.dto.AlertaDTO;
 import com.inventario1.Inventario.services.dto.LineaMovimientoInput;
+import com.inventario1.Inventario.services.dto.ProductoListItem;
+import com.inventario1.Inventario.services.dto.ProductoSnapshot;
+import com.inventario1.Inventario.services.index.ProductoCodigoIndex;
+import com.inventario1.Inventario.services.index.ProductoTrigramIndex;
 import jakarta.persistence.EntityNotFoundException;
-import jakarta.persistence.PersistenceException;
 import lombok.RequiredArgsConstructor;
-import org.springframework.dao.DataAccessException;
-import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -28,6 +33,9 @@ public class InventarioService {
 
     private final ProductoRepository productoRepo;
     private final MovimientoInventarioRepository movRepo;
+    private final ProductoCodigoIndex productoCodigoIndex;
+    private final ProductoTrigramIndex productoTrigramIndex;
+    private final StockEnLote stockEnLote;
 
     // =========================
     //   PRODUCTOS
@@ -37,15 +45,46 @@ public class InventarioService {
         return productoRepo.findAll(pageable);
     }
 
+    /** Listado por (nombre, id) con keyset: el costo no depende de qué tan lejos se pagine. */
     @Transactional(readOnly = true)
-    public Page<Producto> buscarProductos(String q, Pageable pageable) {
-        if (q == null || q.isBlank()) return listarProductos(pageable);
-        return productoRepo.search(q.trim(), pageable);
+    public Window<ProductoListItem> listarProductosKeyset(KeysetScrollPosition pos, int size) {
+        return productoRepo.findListItemsByOrderByNombreAscIdAsc(pos, Limit.of(size));
     }
 
     @Transactional(readOnly = true)
-    public Producto leerProducto(String codigoBarras) {
-        return productoRepo.findByCodigoBarras(codigoBarras)
+    public Page<ProductoListItem> buscarProductos(String q, Pageable pageable) {
+        if (q == null || q.isBlank()) return productoRepo.findAll(pageable).map(InventarioService::toListItem);
+        return buscarIndexado(q.trim(), true, pageable);
+    }
+
+    /**
+     * Búsqueda por nombre/marca/código servida desde el índice de trigramas (orden por relevancia).
+     * Solo se cargan de BD las filas de la página pedida, como proyección de listado.
+     */
+    @Transactional(readOnly = true)
+    public Page<ProductoListItem> buscarIndexado(String q, boolean activos, Pageable pageable) {
+        ProductoTrigramIndex.Resultado r = productoTrigramIndex.buscar(
+                q, activos, pageable.getPageNumber(), pageable.getPageSize());
+        if (r.ids().isEmpty()) return new PageImpl<>(List.of(), pageable, r.total());
+
+        Map<Long, ProductoListItem> porId = productoRepo.findListItemsByIdIn(r.ids()).stream()
+                .collect(Collectors.toMap(ProductoListItem::id, p -> p));
+        List<ProductoListItem> contenido = r.ids().stream()
+                .map(porId::get)
+                .filter(Objects::nonNull)
+                .toList();
+        return new PageImpl<>(contenido, pageable, r.total());
+    }
+
+    private static ProductoListItem toListItem(Producto p) {
+        return new ProductoListItem(p.getId(), p.getCodigoBarras(), p.getNombre(), p.getMarca(),
+                p.getCategoria(), p.getUnidadBase(), p.getStockActual(), p.getStockMinimo(),
+                p.getPerecible(), p.getRetornable(), p.getImagenUrl());
+    }
+
+    /** Lectura por código desde el índice en memoria (BD solo si no está indexado). */
+    public ProductoSnapshot leerProducto(String codigoBarras) {
+        return productoCodigoIndex.buscar(codigoBarras)
                 .orElseThrow(() -> new EntityNotFoundException("Producto no encontrado: " + codigoBarras));
     }
 
@@ -96,8 +135,8 @@ public class InventarioService {
                         Integer::sum
                 ));
 
-        // Cargar productos en bloque por código de barras
-        List<Producto> productos = productoRepo.findAllByCodigoBarrasIn(cantidadesPorCodigo.keySet());
+        // Cargar y bloquear los productos en bloque por código de barras (orden de id: sin deadlocks)
+        List<Producto> productos = productoRepo.lockAllByCodigoBarrasIn(cantidadesPorCodigo.keySet());
         if (productos.size() != cantidadesPorCodigo.size()) {
             Set<String> encontrados = productos.stream()
                     .map(Producto::getCodigoBarras).collect(Collectors.toSet());
@@ -110,6 +149,24 @@ public class InventarioService {
         Map<String, Producto> porCodigo = productos.stream()
                 .collect(Collectors.toMap(Producto::getCodigoBarras, p -> p));
 
+        // Stock: el mismo UPDATE atómico que MovimientosService, en un batch (ENTRADA suma, SALIDA resta, AJUSTE no cambia).
+        // Con las filas bloqueadas se valida todo antes de escribir; no hay triggers en BD que lo ajusten
+        if (tipo == TipoMovimiento.SALIDA) {
+            String insuficientes = productos.stream()
+                    .filter(p -> (p.getStockActual() == null ? 0 : p.getStockActual()) < cantidadesPorCodigo.get(p.getCodigoBarras()))
+                    .map(Producto::getCodigoBarras)
+                    .collect(Collectors.joining(", "));
+            if (!insuficientes.isEmpty()) {
+                throw new IllegalStateException("Stock insuficiente para una o más líneas de la SALIDA: " + insuficientes);
+            }
+        }
+        int signo = switch (tipo) {
+            case ENTRADA -> 1;
+            case SALIDA -> -1;
+            default -> 0;
+        };
+        stockEnLote.sumar(productos, p -> signo * cantidadesPorCodigo.get(p.getCodigoBarras()));
+
         // Cabecera del movimiento
         MovimientoInventario mov = new MovimientoInventario();
         mov.setTipo(tipo);
@@ -126,18 +183,8 @@ public class InventarioService {
             mov.getLineas().add(ml);
         });
 
-        try {
-            // Los triggers/constraints de BD ajustan stock y validan insuficiencia
-            return movRepo.save(mov);
-        } catch (DataIntegrityViolationException ex) {
-            String msg = ex.getMostSpecificCause() != null ? ex.getMostSpecificCause().getMessage() : ex.getMessage();
-            if (msg != null && msg.toLowerCase().contains("stock insuficiente")) {
-                throw new IllegalStateException("Stock insuficiente para una o más líneas de la SALIDA.", ex);
-            }
-            throw ex;
-        } catch (PersistenceException | DataAccessException ex) {
-            throw ex;
-        }
+        // los INSERT van en batch al hacer flush; un error aquí revierte también el stock
+        return movRepo.saveAndFlush(mov);
     }
 
     // =========================
@@ -152,25 +199,24 @@ public class InventarioService {
      */
     @Transactional(readOnly = true)
     public List<AlertaDTO> obtenerAlertas() {
-        return productoRepo.findAll().stream()
-                .filter(p -> p.getStockMinimo() != null)
+        return productoRepo.findListItemsConMinimo().stream()
                 .map(p -> {
-                    int stock = p.getStockActual() == null ? 0 : p.getStockActual();
-                    int min = p.getStockMinimo();
+                    int stock = p.stockActual() == null ? 0 : p.stockActual();
+                    int min = p.stockMinimo();
                     int margen = Math.max(5, (int) (min * 0.2));
 
                     if (stock <= min) {
                         AlertaDTO a = new AlertaDTO();
-                        a.setNombreProducto(p.getNombre());
+                        a.setNombreProducto(p.nombre());
                         a.setStock(stock);
-                        a.setImagenUrl(p.getImagenUrl());
+                        a.setImagenUrl(p.imagenUrl());
                         a.setColor("bg-danger");
                         return a;
                     } else if (stock <= min + margen) {
                         AlertaDTO a = new AlertaDTO();
-                        a.setNombreProducto(p.getNombre());
+                        a.setNombreProducto(p.nombre());
                         a.setStock(stock);
-                        a.setImagenUrl(p.getImagenUrl());
+                        a.setImagenUrl(p.imagenUrl());
                         a.setColor("bg-warning");
                         return a;
                     }
@@ -3,10 +3,47 @@ package com.inventario1.Inventario.services;
 import com.inventario1.Inventario.models.Producto;
 import com.inventario1.Inventario.models.TipoMovimiento;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface MovimientosService {
-    void registrarMovimiento(Producto producto,
+
+    /**
+     * Ajusta stock_actual en BD (ENTRADA suma, SALIDA resta, AJUSTE no cambia) y registra el movimiento,
+     * todo en una transacción. Devuelve el stock resultante.
+     * IllegalStateException si la SALIDA dejaría el stock negativo; IllegalArgumentException si el producto no existe.
+     */
+    int registrarMovimiento(Producto producto,
                              TipoMovimiento tipo,
                              int cantidad,
                              String comentario,
                              String referencia);
+
+    /**
+     * Lleva stock_actual a un valor absoluto (edición manual del producto) registrando la diferencia con el stock
+     * vigente como ENTRADA o SALIDA: el libro de movimientos sigue cuadrando con el stock (ConciliacionStockService
+     * no lo ve como descuadre ni lo revierte). Sin diferencia no registra nada. Devuelve la diferencia aplicada.
+     */
+    int fijarStock(Producto producto,
+                   int stockNuevo,
+                   String comentario,
+                   String referencia);
+
+    /**
+     * Igual que {@link #registrarMovimiento}, pero con app.movimientos.agrupar.habilitado=true se escribe junto
+     * con las demás mutaciones concurrentes en una sola transacción (group commit). El future trae el stock
+     * resultante o la misma excepción que lanzaría registrarMovimiento. Para llamadores sin transacción propia.
+     * Encolado, el future vence con TimeoutException a los app.movimientos.agrupar.espera-max-ms (5000) y la
+     * mutación ya no se escribe si seguía en cola.
+     */
+    CompletableFuture<Integer> registrarMovimientoAsync(Producto producto,
+                                                        TipoMovimiento tipo,
+                                                        int cantidad,
+                                                        String comentario,
+                                                        String referencia);
+
+    /**
+     * true con app.movimientos.agrupar.habilitado. Desactivado (por defecto) no hay nada que agrupar:
+     * conviene llamar a registrarMovimiento directamente.
+     */
+    boolean agrupaMovimientos();
 }
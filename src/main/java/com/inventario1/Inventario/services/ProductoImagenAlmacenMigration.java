@@ -0,0 +1,168 @@
+package com.inventario1.Inventario.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Migración (a pedido de un supervisor) de los BLOB de producto_imagenes al almacén por contenido en disco.
+ * - Recorre producto_imagenes por producto_id con paginación keyset (id > último, LIMIT), solo filas con BLOB.
+ * - Cada BLOB se lee en streaming, de a uno, y se copia a {almacen}/ab/cd/{sha256}; si el archivo ya existe
+ *   (misma imagen en varios productos) no se vuelve a escribir.
+ * - Por tramo, en una transacción, se guarda archivo_sha256 y se pone datos en NULL. La fila solo se toca si
+ *   actualizado_en no cambió: una subida concurrente no se pierde.
+ * - Es reanudable: las filas ya migradas quedan con datos NULL y no vuelven a salir en la consulta.
+ * Las subidas nuevas ya van directo al almacén (ProductoImagenCola); esto solo mueve las filas antiguas.
+ * Corre en un hilo propio; {@link #estado()} informa el avance.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ProductoImagenAlmacenMigration {
+
+    private static final int TRAMO = 100;
+
+    private final JdbcTemplate jdbc;
+    private final PlatformTransactionManager txManager;
+    private final ProductoImagenService productoImagenService;
+
+    public record Estado(boolean enCurso, long migradas, long deduplicadas, long bytes, long ultimoId,
+                         String error, LocalDateTime inicio, LocalDateTime fin) {}
+
+    private final AtomicBoolean corriendo = new AtomicBoolean();
+    private volatile boolean detener;
+    private volatile Estado estado = new Estado(false, 0, 0, 0, 0, null, null, null);
+
+    /** BLOB ya copiado al almacén, pendiente de registrar en el UPDATE del tramo. */
+    private record Copiada(long productoId, String sha256, Timestamp actualizadoEn, boolean nuevo, long bytes) {}
+
+    public Estado estado() {
+        return estado;
+    }
+
+    /** Lanza la migración en segundo plano. false si ya había una en curso. */
+    public boolean iniciar() {
+        if (!corriendo.compareAndSet(false, true)) return false;
+        detener = false;
+        estado = new Estado(true, 0, 0, 0, 0, null, LocalDateTime.now(), null);
+        Thread hilo = new Thread(this::ejecutar, "imagenes-almacen");
+        hilo.setDaemon(true);
+        hilo.start();
+        return true;
+    }
+
+    /** Las subidas nuevas guardan datos NULL desde el primer momento: la columna tiene que aceptarlo al arrancar. */
+    @PostConstruct
+    void prepararColumna() {
+        try {
+            permitirDatosNulos();
+        } catch (RuntimeException e) {
+            log.warn("No se pudo ajustar producto_imagenes.datos a NULL: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void cerrar() {
+        detener = true; // termina el tramo en curso; lo que falte se retoma en la próxima ejecución
+    }
+
+    private void ejecutar() {
+        long migradas = 0, deduplicadas = 0, bytes = 0, desde = 0;
+        String error = null;
+        try {
+            permitirDatosNulos();
+            var tx = new TransactionTemplate(txManager);
+            while (!detener) {
+                List<Long> ids = jdbc.queryForList(
+                        "SELECT producto_id FROM producto_imagenes WHERE producto_id > ? AND datos IS NOT NULL "
+                                + "ORDER BY producto_id LIMIT " + TRAMO,
+                        Long.class, desde);
+                if (ids.isEmpty()) break;
+
+                // los archivos se escriben fuera de la transacción; solo el UPDATE del tramo va dentro
+                List<Copiada> tramo = new ArrayList<>(ids.size());
+                for (Long id : ids) {
+                    Copiada c = copiarAlAlmacen(id);
+                    if (c != null) tramo.add(c);
+                }
+                List<Object[]> args = tramo.stream()
+                        .map(c -> new Object[]{c.sha256(), c.productoId(), c.actualizadoEn(), c.actualizadoEn()})
+                        .toList();
+                int[] filas = args.isEmpty() ? new int[0] : tx.execute(status -> jdbc.batchUpdate("""
+                        UPDATE producto_imagenes SET datos = NULL, archivo_sha256 = ?
+                        WHERE producto_id = ? AND datos IS NOT NULL
+                          AND (actualizado_en = ? OR (actualizado_en IS NULL AND ? IS NULL))
+                        """, args));
+                for (int i = 0; i < filas.length; i++) {
+                    if (filas[i] == 0) continue; // se subió otra imagen mientras tanto: queda para la próxima pasada
+                    migradas++;
+                    bytes += tramo.get(i).bytes();
+                    if (!tramo.get(i).nuevo()) deduplicadas++;
+                }
+                desde = ids.get(ids.size() - 1);
+                estado = new Estado(true, migradas, deduplicadas, bytes, desde, null, estado.inicio(), null);
+            }
+        } catch (RuntimeException e) {
+            log.error("Migración al almacén interrumpida en producto_id > {}", desde, e);
+            error = e.getMessage();
+        } finally {
+            estado = new Estado(false, migradas, deduplicadas, bytes, desde, error, estado.inicio(), LocalDateTime.now());
+            corriendo.set(false);
+        }
+        log.info("Migración al almacén: {} imágenes movidas ({} deduplicadas, {} bytes)", migradas, deduplicadas, bytes);
+    }
+
+    /** Lee un BLOB en streaming y lo deja en el almacén. null si la fila ya no tiene BLOB. */
+    private Copiada copiarAlAlmacen(long productoId) {
+        return jdbc.query("SELECT datos, actualizado_en FROM producto_imagenes WHERE producto_id = ? AND datos IS NOT NULL",
+                rs -> {
+                    if (!rs.next()) return null;
+                    Timestamp ts = rs.getTimestamp("actualizado_en");
+                    try (InputStream in = rs.getBinaryStream("datos")) {
+                        if (in == null) return null;
+                        ProductoImagenService.Guardado g = productoImagenService.guardarEnAlmacen(in);
+                        return new Copiada(productoId, g.sha256(), ts, g.nuevo(),
+                                Files.size(productoImagenService.rutaAlmacen(g.sha256())));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("No se pudo copiar la imagen de producto_id " + productoId, e);
+                    }
+                }, productoId);
+    }
+
+    /** La columna se creó NOT NULL; Hibernate (ddl-auto=update) no cambia la nulabilidad, así que se ajusta aquí. */
+    private void permitirDatosNulos() {
+        Boolean noNula = jdbc.execute((Connection con) -> {
+            DatabaseMetaData md = con.getMetaData();
+            for (String tabla : new String[]{"producto_imagenes", "PRODUCTO_IMAGENES"}) {
+                for (String col : new String[]{"datos", "DATOS"}) {
+                    try (ResultSet rs = md.getColumns(con.getCatalog(), null, tabla, col)) {
+                        if (rs.next()) return "NO".equals(rs.getString("IS_NULLABLE"));
+                    }
+                }
+            }
+            return false;
+        });
+        if (Boolean.TRUE.equals(noNula)) {
+            log.info("Migración al almacén: producto_imagenes.datos pasa a aceptar NULL");
+            jdbc.execute("ALTER TABLE producto_imagenes MODIFY datos LONGBLOB NULL");
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.files.DirectorioImagenes;
+import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.repos.ProductoRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.Builder;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Carga masiva de imágenes desde un ZIP de proveedor ({codigo}.jpg|.jpeg|.png|.webp, en cualquier carpeta).
+ * - El ZIP se lee como stream (ZipInputStream): nunca se tiene el archivo completo en memoria; cada entrada se
+ *   copia al spool (con el tope de app.imagenes.cola.max-archivo) y se procesa por tramos de {@link #TRAMO}.
+ * - Por tramo: una sola consulta findAllByCodigoBarrasIn para saber qué códigos existen, validación y escritura
+ *   en uploads/productos en paralelo (app.imagenes.bulk.paralelo hilos), y una transacción con los metadatos.
+ * - Las miniaturas viejas se borran; las nuevas se generan la primera vez que se pidan.
+ * - Si un código aparece más de una vez en el ZIP, vale la primera entrada.
+ * - El ZIP completo se acota a app.imagenes.bulk.max-zip (512MB) mientras se lee: el endpoint lo recibe como
+ *   cuerpo del request, fuera del límite global de multipart.
+ */
+@Service
+@Slf4j
+public class ProductoImagenBulkService {
+
+    private static final int TRAMO = 200;
+    /** Los códigos son ASCII: CP437 (el default de ZIP) nunca falla al decodificar nombres, vengan o no en UTF-8. */
+    private static final Charset NOMBRES_ZIP = Charset.forName("IBM437");
+
+    public enum EstadoEntrada { GUARDADA, SIN_PRODUCTO, IGNORADA, ERROR }
+
+    public record EntradaReporte(String nombre, String codigoBarras, EstadoEntrada estado, String mensaje) {}
+
+    @Data @Builder
+    public static class ImportResult {
+        private int totalEntradas;
+        private int guardadas;
+        private int sinProducto;
+        private int ignoradas;
+        private int errores;
+        private List<EntradaReporte> entradas;
+    }
+
+    /** El ZIP superó app.imagenes.bulk.max-zip; lo ya procesado queda guardado. */
+    public static class ZipDemasiadoGrandeException extends IOException {
+        public ZipDemasiadoGrandeException(long max) {
+            super("El ZIP supera " + DataSize.ofBytes(max).toMegabytes() + " MB");
+        }
+    }
+
+    /** Entrada ya copiada al spool, esperando su tramo. */
+    private record Pendiente(String nombre, String codigoBarras, Path spool) {}
+
+    private final ProductoRepository productoRepository;
+    private final ProductoImagenCola productoImagenCola;
+    private final ProductoMiniaturaService productoMiniaturaService;
+    private final TransactionTemplate tx;
+    private final ExecutorService escritores;
+    private final long maxZip;
+
+    @Value("${app.uploads.spool-dir:uploads/spool}")
+    private String spoolDir;
+
+    public ProductoImagenBulkService(ProductoRepository productoRepository,
+                                     ProductoImagenCola productoImagenCola,
+                                     ProductoMiniaturaService productoMiniaturaService,
+                                     PlatformTransactionManager txManager,
+                                     @Value("${app.imagenes.bulk.paralelo:4}") int paralelo,
+                                     @Value("${app.imagenes.bulk.max-zip:512MB}") DataSize maxZip) {
+        this.productoRepository = productoRepository;
+        this.productoImagenCola = productoImagenCola;
+        this.productoMiniaturaService = productoMiniaturaService;
+        this.tx = new TransactionTemplate(txManager);
+        this.maxZip = maxZip.toBytes();
+        AtomicInteger n = new AtomicInteger();
+        this.escritores = Executors.newFixedThreadPool(Math.max(1, paralelo), r -> {
+            Thread t = new Thread(r, "imagenes-bulk-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void detener() {
+        escritores.shutdownNow();
+    }
+
+    /** Tope del ZIP completo (app.imagenes.bulk.max-zip). */
+    public long maxZip() {
+        return maxZip;
+    }
+
+    /** @throws ZipDemasiadoGrandeException si el stream supera {@link #maxZip()} (lo anterior ya quedó guardado) */
+    public ImportResult importar(InputStream zip) throws IOException {
+        Path dir = Path.of(spoolDir);
+        Files.createDirectories(dir);
+
+        List<EntradaReporte> reporte = new ArrayList<>();
+        List<Pendiente> tramo = new ArrayList<>(TRAMO);
+        Set<String> vistos = new HashSet<>();
+        boolean hubo = false;
+        try (ZipInputStream zis = new ZipInputStream(acotar(zip, maxZip), NOMBRES_ZIP)) {
+            ZipEntry e;
+            while ((e = siguiente(zis, reporte)) != null) {
+                hubo = true;
+                if (e.isDirectory()) continue;
+                String nombre = e.getName();
+                String base = nombre.substring(nombre.lastIndexOf('/') + 1);
+                if (nombre.startsWith("__MACOSX/") || base.startsWith(".")) continue; // metadatos de macOS / ocultos
+
+                String codigo = codigoDe(base);
+                if (codigo == null) {
+                    reporte.add(new EntradaReporte(nombre, null, EstadoEntrada.IGNORADA, "No es una imagen (.jpg, .jpeg, .png, .webp)"));
+                    continue;
+                }
+                if (!vistos.add(codigo)) {
+                    reporte.add(new EntradaReporte(nombre, codigo, EstadoEntrada.IGNORADA, "Código repetido en el ZIP"));
+                    continue;
+                }
+
+                Path spool = Files.createTempFile(dir, "subida", ".tmp");
+                if (!copiarAcotado(zis, spool, productoImagenCola.maxBytes())) {
+                    Files.deleteIfExists(spool);
+                    reporte.add(new EntradaReporte(nombre, codigo, EstadoEntrada.ERROR, "La imagen supera el tamaño máximo"));
+                    continue;
+                }
+                tramo.add(new Pendiente(nombre, codigo, spool));
+                if (tramo.size() == TRAMO) {
+                    procesarTramo(tramo, reporte);
+                    tramo.clear();
+                }
+            }
+        } finally {
+            if (!tramo.isEmpty()) procesarTramo(tramo, reporte);
+        }
+        if (!hubo && reporte.isEmpty()) {
+            reporte.add(new EntradaReporte(null, null, EstadoEntrada.ERROR, "El archivo no es un ZIP o está vacío"));
+        }
+
+        Map<EstadoEntrada, Long> cuenta = reporte.stream()
+                .collect(Collectors.groupingBy(EntradaReporte::estado, () -> new EnumMap<>(EstadoEntrada.class), Collectors.counting()));
+        ImportResult res = ImportResult.builder()
+                .totalEntradas(reporte.size())
+                .guardadas(cuenta.getOrDefault(EstadoEntrada.GUARDADA, 0L).intValue())
+                .sinProducto(cuenta.getOrDefault(EstadoEntrada.SIN_PRODUCTO, 0L).intValue())
+                .ignoradas(cuenta.getOrDefault(EstadoEntrada.IGNORADA, 0L).intValue())
+                .errores(cuenta.getOrDefault(EstadoEntrada.ERROR, 0L).intValue())
+                .entradas(reporte)
+                .build();
+        log.info("[BULK-IMAGENES] {} entradas: {} guardadas, {} sin producto, {} ignoradas, {} con error",
+                res.getTotalEntradas(), res.getGuardadas(), res.getSinProducto(), res.getIgnoradas(), res.getErrores());
+        return res;
+    }
+
+    // ----------------- tramo -----------------
+
+    private void procesarTramo(List<Pendiente> tramo, List<EntradaReporte> reporte) {
+        try {
+            Set<String> codigos = tramo.stream().map(Pendiente::codigoBarras).collect(Collectors.toSet());
+            Map<String, Long> existentes = productoRepository.findAllByCodigoBarrasIn(codigos).stream()
+                    .collect(Collectors.toMap(Producto::getCodigoBarras, Producto::getId));
+
+            // validación + escritura en paralelo; cada future devuelve el archivo guardado o el motivo del error
+            Map<Pendiente, CompletableFuture<Object>> escrituras = new LinkedHashMap<>();
+            for (Pendiente p : tramo) {
+                if (!existentes.containsKey(p.codigoBarras())) continue;
+                escrituras.put(p, CompletableFuture.supplyAsync(() -> escribir(p), escritores));
+            }
+
+            Map<String, ProductoImagenCola.ArchivoGuardado> guardados = new HashMap<>();
+            Map<Pendiente, String> fallidos = new HashMap<>();
+            escrituras.forEach((p, f) -> {
+                Object r = f.join();
+                if (r instanceof ProductoImagenCola.ArchivoGuardado g) guardados.put(p.codigoBarras(), g);
+                else fallidos.put(p, (String) r);
+            });
+
+            if (!guardados.isEmpty()) {
+                Map<String, String> nombres = tramo.stream()
+                        .collect(Collectors.toMap(Pendiente::codigoBarras, Pendiente::nombre));
+                // findAllByCodigoBarrasIn es de solo lectura (hint readOnly): para actualizar se cargan por id
+                List<Long> ids = guardados.keySet().stream().map(existentes::get).toList();
+                tx.executeWithoutResult(st -> {
+                    for (Producto prod : productoRepository.findAllById(ids)) {
+                        ProductoImagenCola.marcarMetadatos(prod, guardados.get(prod.getCodigoBarras()),
+                                base(nombres.get(prod.getCodigoBarras())));
+                    }
+                });
+            }
+
+            for (Pendiente p : tramo) {
+                if (!existentes.containsKey(p.codigoBarras())) {
+                    reporte.add(new EntradaReporte(p.nombre(), p.codigoBarras(), EstadoEntrada.SIN_PRODUCTO, "No existe un producto con ese código"));
+                } else if (fallidos.containsKey(p)) {
+                    reporte.add(new EntradaReporte(p.nombre(), p.codigoBarras(), EstadoEntrada.ERROR, fallidos.get(p)));
+                } else {
+                    reporte.add(new EntradaReporte(p.nombre(), p.codigoBarras(), EstadoEntrada.GUARDADA, null));
+                }
+            }
+        } catch (RuntimeException e) {
+            // el reporte del tramo se arma al final: si algo falló antes, ninguna entrada quedó informada
+            log.error("[BULK-IMAGENES] Error en tramo", e);
+            for (Pendiente p : tramo) {
+                reporte.add(new EntradaReporte(p.nombre(), p.codigoBarras(), EstadoEntrada.ERROR, e.getMessage()));
+            }
+        } finally {
+            for (Pendiente p : tramo) {
+                try {
+                    Files.deleteIfExists(p.spool());
+                } catch (IOException ignored) { }
+            }
+        }
+    }
+
+    /** ArchivoGuardado, o el mensaje de error (String) si la imagen no sirve o no se pudo escribir. */
+    private Object escribir(Pendiente p) {
+        try {
+            String tipo = productoImagenCola.validar(p.spool());
+            ProductoImagenCola.ArchivoGuardado g = productoImagenCola.escribirEnDisco(p.codigoBarras(), p.spool(), tipo);
+            productoMiniaturaService.invalidar(p.codigoBarras());
+            return g;
+        } catch (IllegalArgumentException | IOException e) {
+            return e.getMessage();
+        }
+    }
+
+    // ----------------- helpers -----------------
+
+    /** Siguiente entrada; null al terminar o si el ZIP está dañado (queda informado en el reporte). */
+    private static ZipEntry siguiente(ZipInputStream zis, List<EntradaReporte> reporte) {
+        try {
+            return zis.getNextEntry();
+        } catch (IOException e) {
+            reporte.add(new EntradaReporte(null, null, EstadoEntrada.ERROR, "ZIP dañado: " + e.getMessage()));
+            return null;
+        }
+    }
+
+    /** Copia la entrada actual; false si supera max bytes (no se sigue leyendo: protege de ZIP bombs). */
+    private static boolean copiarAcotado(InputStream in, Path destino, long max) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        long total = 0;
+        try (OutputStream out = Files.newOutputStream(destino)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                total += n;
+                if (total > max) return false;
+                out.write(buf, 0, n);
+            }
+        }
+        return true;
+    }
+
+    /** Cuenta lo leído del stream y corta con ZipDemasiadoGrandeException al pasar "max" bytes. */
+    private static InputStream acotar(InputStream in, long max) {
+        return new FilterInputStream(in) {
+            private long leidos;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) contar(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) contar(n);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long s = super.skip(n);
+                if (s > 0) contar(s);
+                return s;
+            }
+
+            private void contar(long n) throws IOException {
+                leidos += n;
+                if (leidos > max) throw new ZipDemasiadoGrandeException(max);
+            }
+        };
+    }
+
+    /** "fotos/7801234567890.JPG" -> "7801234567890"; null si no es una extensión de imagen. */
+    private static String codigoDe(String base) {
+        int dot = base.lastIndexOf('.');
+        if (dot <= 0) return null;
+        String ext = base.substring(dot).toLowerCase(Locale.ROOT);
+        return DirectorioImagenes.EXTENSIONES.contains(ext) ? base.substring(0, dot).trim() : null;
+    }
+
+    private static String base(String nombre) {
+        return nombre == null ? null : nombre.substring(nombre.lastIndexOf('/') + 1);
+    }
+}
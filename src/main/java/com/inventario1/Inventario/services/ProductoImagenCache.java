@@ -0,0 +1,152 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.services.index.ProductoCambiadoEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Caché en memoria de las imágenes que no están en disco (BLOB de producto_imagenes); las de disco
+ * se envían con sendfile y no pasan por el heap.
+ * - LRU ponderado por bytes, con tope total app.imagenes.cache.max-bytes (32MB por defecto).
+ * - Admisión: no entra nada mayor a app.imagenes.cache.max-entrada (1MB). Con el caché lleno, una imagen
+ *   entra recién la segunda vez que se pide: un recorrido de una sola pasada (p.ej. generar miniaturas)
+ *   no desplaza a las imágenes calientes.
+ * - También recuerda "sin imagen" (peso mínimo), así el placeholder no cuesta una consulta cada vez.
+ * - Se invalida por código tras el commit de cualquier cambio de producto que no sea solo de stock,
+ *   y al escribir un archivo nuevo. Los byte[] devueltos se comparten: no modificarlos.
+ */
+@Service
+@Slf4j
+public class ProductoImagenCache {
+
+    /**
+     * Imagen cacheada: bytes del BLOB, o archivo del almacén si ya se migró (solo se cachea la ruta).
+     * Sin ninguno de los dos significa "el producto no tiene imagen en BD".
+     */
+    public record Entrada(byte[] bytes, String contentType, Path archivo) {
+        public static final Entrada SIN_IMAGEN = new Entrada(null, null, null);
+
+        public boolean vacia() {
+            return bytes == null && archivo == null;
+        }
+
+        long peso() {
+            return SOBRECARGA + (bytes == null ? 0 : bytes.length);
+        }
+    }
+
+    /** Estimación de lo que ocupa una entrada además de sus bytes (clave, record, nodo del mapa). */
+    private static final long SOBRECARGA = 128;
+    /** Tope de códigos recordados como candidatos a entrar (los más viejos se olvidan). */
+    private static final int MAX_CANDIDATOS = 4096;
+
+    private final long maxBytes;
+    private final long maxEntrada;
+
+    // Todo el estado se protege con el monitor de this (accesos cortos; la carga va fuera del lock)
+    private final LinkedHashMap<String, Entrada> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private final LinkedHashMap<String, Boolean> candidatos = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_CANDIDATOS;
+        }
+    };
+    private long bytes;
+    /** Sube con cada invalidación: una carga que empezó antes no se admite (podría traer la imagen vieja). */
+    private long generacion;
+
+    private long hits, misses, admitidas, rechazadas, expulsiones, bytesExpulsados, invalidaciones;
+
+    public ProductoImagenCache(@Value("${app.imagenes.cache.max-bytes:32MB}") DataSize maxBytes,
+                               @Value("${app.imagenes.cache.max-entrada:1MB}") DataSize maxEntrada) {
+        this.maxBytes = maxBytes.toBytes();
+        this.maxEntrada = Math.min(maxEntrada.toBytes(), this.maxBytes);
+    }
+
+    /** Entrada cacheada o, si no está, la que devuelva cargar (que se admite según la política). */
+    public Entrada obtener(String codigoBarras, Supplier<Entrada> cargar) {
+        long gen;
+        synchronized (this) {
+            Entrada e = lru.get(codigoBarras);
+            if (e != null) {
+                hits++;
+                return e;
+            }
+            misses++;
+            gen = generacion;
+        }
+        Entrada e = cargar.get();
+        admitir(codigoBarras, e, gen);
+        return e;
+    }
+
+    public synchronized void invalidar(String codigoBarras) {
+        if (codigoBarras == null) return;
+        generacion++;
+        candidatos.remove(codigoBarras);
+        Entrada e = lru.remove(codigoBarras);
+        if (e != null) {
+            bytes -= e.peso();
+            invalidaciones++;
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductoCambiado(ProductoCambiadoEvent ev) {
+        if (!ev.soloStock()) invalidar(ev.codigoBarras());
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("entradas", lru.size());
+        out.put("bytes", bytes);
+        out.put("maxBytes", maxBytes);
+        out.put("maxEntrada", maxEntrada);
+        out.put("hits", hits);
+        out.put("misses", misses);
+        out.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        out.put("admitidas", admitidas);
+        out.put("rechazadas", rechazadas);
+        out.put("expulsiones", expulsiones);
+        out.put("bytesExpulsados", bytesExpulsados);
+        out.put("invalidaciones", invalidaciones);
+        return out;
+    }
+
+    // ----------------- admisión / expulsión -----------------
+
+    private synchronized void admitir(String codigoBarras, Entrada e, long gen) {
+        if (e == null || gen != generacion || lru.containsKey(codigoBarras)) return;
+        long peso = e.peso();
+        if (peso > maxEntrada) {
+            rechazadas++;
+            return;
+        }
+        if (bytes + peso > maxBytes && !e.vacia() && candidatos.remove(codigoBarras) == null) {
+            // lleno y es la primera vez que se pide: queda como candidato
+            candidatos.put(codigoBarras, Boolean.TRUE);
+            rechazadas++;
+            return;
+        }
+        Iterator<Map.Entry<String, Entrada>> it = lru.entrySet().iterator();
+        while (bytes + peso > maxBytes && it.hasNext()) {
+            long p = it.next().getValue().peso();
+            it.remove();
+            bytes -= p;
+            expulsiones++;
+            bytesExpulsados += p;
+        }
+        lru.put(codigoBarras, e);
+        bytes += peso;
+        admitidas++;
+    }
+}
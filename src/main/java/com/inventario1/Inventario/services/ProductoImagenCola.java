@@ -0,0 +1,366 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.files.DirectorioImagenes;
+import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.repos.ProductoRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Procesamiento en segundo plano de las imágenes subidas.
+ * - El request solo copia la subida a un temporal (uploads/spool) y responde: con el multipart ya en disco
+ *   es un rename, sin pasar los bytes por el heap.
+ * - Un pool fijo (app.imagenes.cola.workers) valida el archivo, detecta el tipo por sus primeros bytes
+ *   (no por lo que declara el navegador), lo guarda, actualiza los metadatos del producto y regenera las miniaturas.
+ * - La cola tiene tope (app.imagenes.cola.capacidad): si está llena, {@link #encolar} falla con
+ *   {@link ColaLlenaException} antes de copiar nada y el usuario reintenta.
+ * - El estado de cada tarea se consulta por id; se recuerdan las últimas {@link #MAX_HISTORIAL} terminadas.
+ * Las tareas viven en memoria: si la app se reinicia, las pendientes se pierden y sus temporales se borran al arrancar.
+ */
+@Service
+@Slf4j
+public class ProductoImagenCola {
+
+    /**
+     * Dónde queda el original: archivo en uploads/productos o en el almacén por contenido
+     * ({almacen}/ab/cd/{sha256}, referenciado desde producto_imagenes.archivo_sha256).
+     */
+    public enum Destino { DISCO, ALMACEN }
+
+    public enum EstadoTarea { EN_COLA, PROCESANDO, LISTA, ERROR }
+
+    public record Tarea(String id, String codigoBarras, Destino destino, EstadoTarea estado, String mensaje,
+                        LocalDateTime recibida, LocalDateTime terminada) {
+        Tarea con(EstadoTarea nuevo, String msg) {
+            boolean fin = nuevo == EstadoTarea.LISTA || nuevo == EstadoTarea.ERROR;
+            return new Tarea(id, codigoBarras, destino, nuevo, msg, recibida, fin ? LocalDateTime.now() : null);
+        }
+    }
+
+    public static class ColaLlenaException extends RuntimeException {
+        public ColaLlenaException() {
+            super("Cola de imágenes llena");
+        }
+    }
+
+    /** Lo que el worker necesita del multipart (que deja de existir al terminar el request). */
+    private record Subida(String nombreOriginal, Path spool) {}
+
+    /** Original ya escrito en uploads/productos: lo necesario para los metadatos del producto. */
+    record ArchivoGuardado(String nombreArchivo, String tipo, long tamano, String sha256) {}
+
+    private static final int MAX_HISTORIAL = 1000;
+
+    private final ProductoRepository productoRepository;
+    private final ProductoService productoService;
+    private final ProductoImagenService productoImagenService;
+    private final ProductoImagenCache productoImagenCache;
+    private final ProductoMiniaturaService productoMiniaturaService;
+    private final TransactionTemplate tx;
+
+    private final int workers;
+    private final int capacidad;
+    private final long maxBytes;
+    private final ThreadPoolExecutor pool;
+
+    @Value("${app.uploads.spool-dir:uploads/spool}")
+    private String spoolDir;
+
+    private final Map<String, Tarea> tareas = new ConcurrentHashMap<>();
+    private final ArrayDeque<String> terminadas = new ArrayDeque<>(); // protegido por sí mismo
+    private final AtomicLong listas = new AtomicLong(), errores = new AtomicLong(), rechazadas = new AtomicLong();
+
+    public ProductoImagenCola(ProductoRepository productoRepository,
+                              ProductoService productoService,
+                              ProductoImagenService productoImagenService,
+                              ProductoImagenCache productoImagenCache,
+                              ProductoMiniaturaService productoMiniaturaService,
+                              PlatformTransactionManager txManager,
+                              @Value("${app.imagenes.cola.workers:2}") int workers,
+                              @Value("${app.imagenes.cola.capacidad:200}") int capacidad,
+                              @Value("${app.imagenes.cola.max-archivo:10MB}") DataSize maxArchivo) {
+        this.productoRepository = productoRepository;
+        this.productoService = productoService;
+        this.productoImagenService = productoImagenService;
+        this.productoImagenCache = productoImagenCache;
+        this.productoMiniaturaService = productoMiniaturaService;
+        this.tx = new TransactionTemplate(txManager);
+        this.workers = Math.max(1, workers);
+        this.capacidad = Math.max(1, capacidad);
+        this.maxBytes = maxArchivo.toBytes();
+
+        AtomicInteger n = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(this.workers, this.workers, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(this.capacidad), r -> {
+                    Thread t = new Thread(r, "imagenes-cola-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Deja la subida en el spool y la encola. Devuelve la tarea (EN_COLA) para consultar su estado.
+     * @throws ColaLlenaException si no hay lugar en la cola
+     */
+    public Tarea encolar(String codigoBarras, MultipartFile archivo, Destino destino) throws IOException {
+        if (pool.getQueue().remainingCapacity() == 0) {
+            rechazadas.incrementAndGet();
+            throw new ColaLlenaException();
+        }
+        Path dir = Path.of(spoolDir);
+        Files.createDirectories(dir);
+        Path spool = Files.createTempFile(dir, "subida", ".tmp");
+        try {
+            archivo.transferTo(spool);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(spool);
+            throw e;
+        }
+
+        Tarea t = new Tarea(UUID.randomUUID().toString(), codigoBarras, destino, EstadoTarea.EN_COLA, null,
+                LocalDateTime.now(), null);
+        Subida s = new Subida(archivo.getOriginalFilename(), spool);
+        tareas.put(t.id(), t);
+        try {
+            pool.execute(() -> procesar(t.id(), s));
+        } catch (RejectedExecutionException e) {
+            tareas.remove(t.id());
+            Files.deleteIfExists(spool);
+            rechazadas.incrementAndGet();
+            throw new ColaLlenaException();
+        }
+        log.debug("Imagen de {} encolada ({}), tarea {}", codigoBarras, destino, t.id());
+        return t;
+    }
+
+    public Optional<Tarea> tarea(String id) {
+        return Optional.ofNullable(tareas.get(id));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enCola", pool.getQueue().size());
+        out.put("capacidad", capacidad);
+        out.put("workers", workers);
+        out.put("procesando", pool.getActiveCount());
+        out.put("listas", listas.get());
+        out.put("errores", errores.get());
+        out.put("rechazadas", rechazadas.get());
+        return out;
+    }
+
+    @PostConstruct
+    void limpiarSpool() {
+        Path dir = Path.of(spoolDir);
+        if (!Files.isDirectory(dir)) return;
+        int n = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "subida*.tmp")) {
+            for (Path p : ds) {
+                Files.deleteIfExists(p);
+                n++;
+            }
+        } catch (IOException e) {
+            log.warn("No se pudo limpiar {}: {}", dir, e.getMessage());
+        }
+        if (n > 0) log.warn("Se descartaron {} imágenes que quedaron en cola al detenerse la app", n);
+    }
+
+    @PreDestroy
+    void detener() throws InterruptedException {
+        pool.shutdown();
+        if (!pool.awaitTermination(10, TimeUnit.SECONDS)) pool.shutdownNow();
+    }
+
+    // ----------------- worker -----------------
+
+    private void procesar(String id, Subida s) {
+        Tarea t = tareas.computeIfPresent(id, (k, v) -> v.con(EstadoTarea.PROCESANDO, null));
+        if (t == null) return;
+        try {
+            String tipo = validar(s.spool());
+            if (t.destino() == Destino.DISCO) guardarEnDisco(t.codigoBarras(), s, tipo);
+            else guardarEnAlmacen(t.codigoBarras(), s, tipo);
+            productoMiniaturaService.regenerar(t.codigoBarras()); // 64/256/1024 px
+
+            terminar(id, EstadoTarea.LISTA, null);
+            listas.incrementAndGet();
+        } catch (Exception e) {
+            log.warn("No se pudo procesar la imagen de {}: {}", t.codigoBarras(), e.getMessage());
+            terminar(id, EstadoTarea.ERROR, e.getMessage());
+            errores.incrementAndGet();
+        } finally {
+            try {
+                Files.deleteIfExists(s.spool());
+            } catch (IOException ignored) { }
+        }
+    }
+
+    private void guardarEnDisco(String codigoBarras, Subida s, String tipo) throws IOException {
+        ArchivoGuardado g = escribirEnDisco(codigoBarras, s.spool(), tipo);
+        tx.executeWithoutResult(st -> {
+            Producto prod = buscar(codigoBarras);
+            marcarMetadatos(prod, g, s.nombreOriginal());
+            productoRepository.save(prod);
+        });
+    }
+
+    /**
+     * Original al almacén por contenido, en streaming desde el spool; el BLOB no se escribe. Confirmado el cambio,
+     * se borra el original en disco si lo había (se sirve antes que el almacén y taparía a la imagen nueva),
+     * igual que escribirEnDisco descarta los de otra extensión.
+     */
+    private void guardarEnAlmacen(String codigoBarras, Subida s, String tipo) throws IOException {
+        long tamano = Files.size(s.spool());
+        ProductoImagenService.Guardado g;
+        try (InputStream in = Files.newInputStream(s.spool())) {
+            g = productoImagenService.guardarEnAlmacen(in);
+        }
+        tx.executeWithoutResult(st -> {
+            Producto prod = buscar(codigoBarras);
+            marcarMetadatos(prod, tipo, s.nombreOriginal(), tamano, g.sha256());
+            prod = productoRepository.save(prod);
+            productoService.guardarImagen(prod, g.sha256());
+        });
+        productoImagenService.descartarDeDisco(codigoBarras);
+        productoImagenCache.invalidar(codigoBarras);
+    }
+
+    /**
+     * Mueve un archivo ya validado a uploads/productos (ubicación según la disposición, p.ej. ab/{cb}.ext) y avisa
+     * al índice y al caché. Se borran los originales de otra extensión o ubicación para que no tapen al nuevo.
+     */
+    ArchivoGuardado escribirEnDisco(String codigoBarras, Path archivo, String tipo) throws IOException {
+        if (!DirectorioImagenes.codigoValido(codigoBarras)) throw new IllegalArgumentException("Código de barras inválido");
+        String fileName = codigoBarras + extension(tipo);
+        Path destino = productoImagenService.destinoEnDisco(codigoBarras, extension(tipo));
+
+        long tamano = Files.size(archivo);
+        String hash = ProductoImagenService.sha256(archivo);
+        Path tmp = destino.resolveSibling("." + fileName + ".tmp"); // el índice del directorio ignora esta extensión
+        Files.move(archivo, tmp, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        productoImagenService.descartarOtros(codigoBarras, destino);
+        productoImagenService.archivoActualizado(codigoBarras);
+        productoImagenCache.invalidar(codigoBarras);
+        return new ArchivoGuardado(fileName, tipo, tamano, hash);
+    }
+
+    static void marcarMetadatos(Producto p, ArchivoGuardado g, String nombreOriginal) {
+        marcarMetadatos(p, g.tipo(), nombreOriginal, g.tamano(), g.sha256());
+        p.setImagenUrl("/uploads/productos/" + g.nombreArchivo());
+    }
+
+    private Producto buscar(String codigoBarras) {
+        return productoRepository.findByCodigoBarras(codigoBarras)
+                .orElseThrow(() -> new IllegalStateException("Producto no encontrado: " + codigoBarras));
+    }
+
+    private static void marcarMetadatos(Producto p, String tipo, String nombre, long tamano, String hash) {
+        p.setImagenContentType(tipo);
+        p.setImagenNombre(nombre);
+        p.setImagenTamano(tamano);
+        ProductoImagenService.marcarVersion(p, hash);
+    }
+
+    private void terminar(String id, EstadoTarea estado, String mensaje) {
+        tareas.computeIfPresent(id, (k, v) -> v.con(estado, mensaje));
+        synchronized (terminadas) {
+            terminadas.addLast(id);
+            while (terminadas.size() > MAX_HISTORIAL) tareas.remove(terminadas.removeFirst());
+        }
+    }
+
+    // ----------------- validación -----------------
+
+    /** Tope por archivo (app.imagenes.cola.max-archivo). */
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    /** Tamaño, firma y cabecera legible. Devuelve el content-type detectado; IllegalArgumentException si no sirve. */
+    String validar(Path archivo) throws IOException {
+        long tamano = Files.size(archivo);
+        if (tamano == 0) throw new IllegalArgumentException("El archivo está vacío");
+        if (tamano > maxBytes) throw new IllegalArgumentException("La imagen supera " + DataSize.ofBytes(maxBytes).toMegabytes() + " MB");
+        String tipo = detectarTipo(archivo);
+        if (tipo == null) throw new IllegalArgumentException("Formato no soportado (se aceptan JPEG, PNG y WebP)");
+        validarLegible(archivo, tipo);
+        return tipo;
+    }
+
+    /** Tipo según la firma del archivo; null si no es JPEG, PNG ni WebP. */
+    static String detectarTipo(Path p) throws IOException {
+        byte[] h = new byte[12];
+        int n;
+        try (InputStream in = Files.newInputStream(p)) {
+            n = in.readNBytes(h, 0, h.length);
+        }
+        if (n >= 3 && (h[0] & 0xFF) == 0xFF && (h[1] & 0xFF) == 0xD8 && (h[2] & 0xFF) == 0xFF) {
+            return MediaType.IMAGE_JPEG_VALUE;
+        }
+        if (n >= 8 && (h[0] & 0xFF) == 0x89 && h[1] == 'P' && h[2] == 'N' && h[3] == 'G'
+                && h[4] == 0x0D && h[5] == 0x0A && h[6] == 0x1A && h[7] == 0x0A) {
+            return MediaType.IMAGE_PNG_VALUE;
+        }
+        if (n >= 12 && h[0] == 'R' && h[1] == 'I' && h[2] == 'F' && h[3] == 'F'
+                && h[8] == 'W' && h[9] == 'E' && h[10] == 'B' && h[11] == 'P') {
+            return "image/webp";
+        }
+        return null;
+    }
+
+    /**
+     * Lee solo la cabecera (dimensiones) para descartar archivos truncados o dañados, y los que superan
+     * app.imagenes.max-pixeles: un PNG muy comprimible entra en pocos MB y decodificado ocupa GB (las miniaturas
+     * lo decodifican entero). WebP sin plugin se acepta tal cual.
+     */
+    private void validarLegible(Path p, String tipo) throws IOException {
+        if ("image/webp".equals(tipo)) return;
+        try (ImageInputStream in = ImageIO.createImageInputStream(p.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IllegalArgumentException("No se pudo leer la imagen");
+            ImageReader r = readers.next();
+            try {
+                r.setInput(in, true, true);
+                int w = r.getWidth(0), h = r.getHeight(0);
+                if (w <= 0 || h <= 0) throw new IllegalArgumentException("Imagen sin dimensiones");
+                if ((long) w * h > productoImagenService.maxPixeles()) {
+                    throw new IllegalArgumentException("La imagen es demasiado grande (" + w + "x" + h + " px; máximo "
+                            + productoImagenService.maxPixeles() / 1_000_000 + " megapíxeles)");
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("La imagen está dañada", e);
+            } finally {
+                r.dispose();
+            }
+        }
+    }
+
+    private static String extension(String tipo) {
+        return switch (tipo) {
+            case MediaType.IMAGE_PNG_VALUE -> ".png";
+            case "image/webp" -> ".webp";
+            default -> ".jpg";
+        };
+    }
+}
@@ -0,0 +1,84 @@
+package com.inventario1.Inventario.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.util.List;
+
+/**
+ * Migración única: mueve los BLOB de la columna legada productos.imagen a producto_imagenes.
+ * - Trabaja por tramos de id (cada tramo en su propia transacción) para no inflar undo/binlog.
+ * - Es reanudable: cada tramo deja productos.imagen en NULL, así que un reinicio sigue donde quedó.
+ * - Si ya existe una fila en producto_imagenes (subida nueva), se respeta y solo se limpia la legada.
+ * - Si la columna no existe (BD nueva), no hace nada.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ProductoImagenMigration implements ApplicationRunner {
+
+    private static final int TRAMO = 200;
+
+    private final JdbcTemplate jdbc;
+    private final PlatformTransactionManager txManager;
+
+    @Value("${app.migraciones.producto-imagenes.enabled:true}")
+    private boolean enabled;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled || !existeColumnaLegada()) return;
+
+        var tx = new TransactionTemplate(txManager);
+        long desde = 0;
+        int movidas = 0;
+        while (true) {
+            List<Long> ids = jdbc.queryForList(
+                    "SELECT id FROM productos WHERE imagen IS NOT NULL AND id > ? ORDER BY id LIMIT " + TRAMO,
+                    Long.class, desde);
+            if (ids.isEmpty()) break;
+
+            final long lo = desde;
+            final long hi = ids.get(ids.size() - 1);
+            Integer n = tx.execute(status -> {
+                int ins = jdbc.update("""
+                        INSERT INTO producto_imagenes (producto_id, datos, actualizado_en)
+                        SELECT p.id, p.imagen, CURRENT_TIMESTAMP
+                        FROM productos p
+                        WHERE p.id > ? AND p.id <= ? AND p.imagen IS NOT NULL
+                          AND NOT EXISTS (SELECT 1 FROM producto_imagenes pi WHERE pi.producto_id = p.id)
+                        """, lo, hi);
+                jdbc.update("UPDATE productos SET imagen = NULL WHERE id > ? AND id <= ? AND imagen IS NOT NULL", lo, hi);
+                return ins;
+            });
+            movidas += n == null ? 0 : n;
+            desde = hi;
+        }
+        if (movidas > 0) log.info("Migración imágenes: {} BLOB movidos de productos.imagen a producto_imagenes", movidas);
+    }
+
+    private boolean existeColumnaLegada() {
+        Boolean existe = jdbc.execute((Connection con) -> {
+            DatabaseMetaData md = con.getMetaData();
+            for (String tabla : new String[]{"productos", "PRODUCTOS"}) {
+                for (String col : new String[]{"imagen", "IMAGEN"}) {
+                    try (ResultSet rs = md.getColumns(con.getCatalog(), null, tabla, col)) {
+                        if (rs.next()) return true;
+                    }
+                }
+            }
+            return false;
+        });
+        return Boolean.TRUE.equals(existe);
+    }
+}
@@ -0,0 +1,365 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.files.DirectorioImagenes;
+import com.inventario1.Inventario.files.DisposicionArchivos;
+import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.repos.ProductoImagenRepository;
+import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.dto.ProductoImagenBlob;
+import com.inventario1.Inventario.services.index.ProductoCambiadoEvent;
+import com.inventario1.Inventario.services.index.ProductoCodigoIndex;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resuelve la imagen ORIGINAL de un producto por código de barras, en el mismo orden que
+ * /img/productos/{cb}: primero disco (uploads/productos/{cb}.ext), luego BD (producto_imagenes).
+ * Las filas de BD ya migradas no traen el BLOB sino el SHA-256 de su archivo en el almacén por contenido
+ * (uploads/almacen/ab/cd/{sha256}); ver {@link ProductoImagenAlmacenMigration}.
+ * También entrega la versión de la imagen (SHA-256 guardado al subir) para ETag / Last-Modified.
+ * Los originales en disco se ubican con {@link DirectorioImagenes}: índice en memoria, sin sondear el disco por request,
+ * repartidos según la {@link DisposicionArchivos} configurada (por defecto uploads/productos/ab/{cb}.ext).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductoImagenService {
+
+    private final ProductoRepository productoRepository;
+    private final ProductoImagenRepository productoImagenRepository;
+    private final ProductoImagenCache productoImagenCache;
+    private final ProductoCodigoIndex productoCodigoIndex;
+    private final ApplicationEventPublisher publisher;
+    private final DisposicionArchivos disposicion;
+
+    @Value("${app.uploads.productos-dir:uploads/productos}")
+    private String productosDir;
+
+    @Value("${app.uploads.almacen-dir:uploads/almacen}")
+    private String almacenDir;
+
+    /** Tope de ancho x alto: decodificar una imagen cuesta ~4 bytes por pixel (y otro tanto la copia RGB). */
+    @Value("${app.imagenes.max-pixeles:40000000}")
+    private long maxPixeles;
+
+    private byte[] placeholder;
+    private DirectorioImagenes directorioImagenes;
+
+    /**
+     * Imagen original. Desde disco trae bytes y path; desde un BLOB solo bytes; desde el almacén
+     * solo path (bytes null: se envía en streaming o se lee con {@link #leer()}).
+     */
+    public record Original(byte[] bytes, String contentType, Path path) {
+        public byte[] leer() throws IOException {
+            return bytes != null ? bytes : Files.readAllBytes(path);
+        }
+
+        public String sha256() throws IOException {
+            return bytes != null ? ProductoImagenService.sha256(bytes) : ProductoImagenService.sha256(path);
+        }
+    }
+
+    /** Mismo Cache-Control en /img/productos/{cb} y /productos/{cb}/imagen; al vencer se revalida con ETag. */
+    public static final CacheControl CACHE_CONTROL = CacheControl.maxAge(1, TimeUnit.HOURS).cachePublic();
+
+    /** Versión de la imagen vigente: hash del archivo subido y fecha de subida. */
+    public record Version(String hash, LocalDateTime actualizadaEn) {
+        /** ETag fuerte; cada miniatura es otra representación, así que lleva el tamaño. */
+        public String etag(Integer tamano) {
+            return "\"" + hash + (tamano != null ? "-" + tamano : "") + "\"";
+        }
+
+        /** Epoch ms para If-Modified-Since; -1 si no se conoce. */
+        public long lastModified() {
+            return actualizadaEn == null ? -1 : actualizadaEn.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+    }
+
+    /**
+     * true si el cliente ya tiene esta versión (If-None-Match / If-Modified-Since).
+     * Solo evalúa: las cabeceras las pone la respuesta que se devuelva (200, 206 o {@link #noModificado}).
+     */
+    public static boolean sinCambios(HttpServletRequest request, Version v, Integer tamano) {
+        return new ServletWebRequest(request).checkNotModified(v.etag(tamano), v.lastModified());
+    }
+
+    public static <T> ResponseEntity<T> noModificado(Version v, Integer tamano) {
+        ResponseEntity.HeadersBuilder<?> rb = ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .cacheControl(CACHE_CONTROL)
+                .eTag(v.etag(tamano));
+        if (v.lastModified() > 0) rb.lastModified(v.lastModified());
+        return rb.build();
+    }
+
+    public Path directorio() {
+        return Path.of(productosDir);
+    }
+
+    public Optional<Original> cargarOriginal(String codigoBarras) {
+        Original disco = cargarDeDisco(codigoBarras);
+        if (disco != null) return Optional.of(disco);
+        return cargarDeBd(codigoBarras);
+    }
+
+    public Original cargarDeDisco(String codigoBarras) {
+        Optional<Path> path = ubicarEnDisco(codigoBarras);
+        if (path.isEmpty()) return null;
+        try {
+            return new Original(Files.readAllBytes(path.get()), probeOrDefault(path.get()), path.get());
+        } catch (IOException e) {
+            log.warn("cargarDeDisco - No se pudo leer {}: {}", path.get(), e.getMessage());
+            directorioImagenes.refrescar(codigoBarras); // p.ej. se borró antes de que llegara el aviso del watcher
+            return null;
+        }
+    }
+
+    /** Archivo original en disco, sin leerlo (para servirlo en streaming). Resuelto desde el índice del directorio. */
+    public Optional<Path> ubicarEnDisco(String codigoBarras) {
+        return directorioImagenes.buscar(codigoBarras);
+    }
+
+    /** Quien escribe o borra un original en disco avisa aquí (el watcher también lo verá, pero más tarde). */
+    public void archivoActualizado(String codigoBarras) {
+        directorioImagenes.refrescar(codigoBarras);
+    }
+
+    /** Dónde escribir el original nuevo de un código (crea los subdirectorios de la disposición). */
+    public Path destinoEnDisco(String codigoBarras, String ext) throws IOException {
+        Path destino = directorioImagenes.ubicacion(codigoBarras, ext);
+        Files.createDirectories(destino.getParent());
+        return destino;
+    }
+
+    /** Borra los originales del código que no sean el recién escrito (otra extensión o la ubicación plana vieja). */
+    public void descartarOtros(String codigoBarras, Path conservar) throws IOException {
+        Path abs = conservar.toAbsolutePath().normalize();
+        for (Path p : directorioImagenes.candidatos(codigoBarras)) {
+            if (!p.equals(abs)) Files.deleteIfExists(p);
+        }
+    }
+
+    /**
+     * Borra todos los originales del código en uploads/productos y actualiza el índice: la imagen vigente pasó
+     * al almacén por contenido, y un original viejo en disco se serviría antes que ella.
+     */
+    public void descartarDeDisco(String codigoBarras) throws IOException {
+        // el del índice puede estar en otra profundidad (p.ej. ab/cd/ de una disposición anterior)
+        Optional<Path> indexado = ubicarEnDisco(codigoBarras);
+        if (indexado.isPresent()) Files.deleteIfExists(indexado.get());
+        for (Path p : directorioImagenes.candidatos(codigoBarras)) Files.deleteIfExists(p);
+        archivoActualizado(codigoBarras);
+    }
+
+    /** app.imagenes.max-pixeles: lo que se acepta al subir y lo más grande que se decodifica entero. */
+    public long maxPixeles() {
+        return maxPixeles;
+    }
+
+    public DisposicionArchivos disposicion() {
+        return disposicion;
+    }
+
+    /** Reubica los originales según la disposición actual (herramienta de una sola vez; ver AdminImagenesController). */
+    public DirectorioImagenes.Reordenamiento reordenar() throws IOException {
+        return directorioImagenes.reordenar();
+    }
+
+    /**
+     * Imagen de producto_imagenes, a través de {@link ProductoImagenCache} (bytes compartidos: no modificarlos).
+     * Si la fila ya se migró al almacén, el Original trae solo la ruta del archivo.
+     */
+    public Optional<Original> cargarDeBd(String codigoBarras) {
+        ProductoImagenCache.Entrada e = productoImagenCache.obtener(codigoBarras, () ->
+                productoImagenRepository.findBlobByCodigoBarras(codigoBarras)
+                        .map(this::entrada)
+                        .orElse(ProductoImagenCache.Entrada.SIN_IMAGEN));
+        return e.vacia() ? Optional.empty() : Optional.of(new Original(e.bytes(), e.contentType(), e.archivo()));
+    }
+
+    private ProductoImagenCache.Entrada entrada(ProductoImagenBlob b) {
+        String ctype = (b.contentType() != null && !b.contentType().isBlank()) ? b.contentType() : MediaType.IMAGE_JPEG_VALUE;
+        if (b.datos() != null && b.datos().length > 0) return new ProductoImagenCache.Entrada(b.datos(), ctype, null);
+        if (b.archivoSha256() != null) {
+            Path p = rutaAlmacen(b.archivoSha256());
+            if (Files.isRegularFile(p)) return new ProductoImagenCache.Entrada(null, ctype, p);
+            log.warn("cargarDeBd - Falta en el almacén el archivo {}", p);
+        }
+        return ProductoImagenCache.Entrada.SIN_IMAGEN;
+    }
+
+    // ----------------- almacén por contenido -----------------
+
+    public Path almacen() {
+        return Path.of(almacenDir);
+    }
+
+    /** {almacen}/ab/cd/{sha256}: dos niveles para no juntar decenas de miles de archivos en un directorio. */
+    public Path rutaAlmacen(String sha256) {
+        if (sha256 == null || !sha256.matches("[0-9a-f]{64}")) throw new IllegalArgumentException("SHA-256 inválido: " + sha256);
+        return almacen().resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    /**
+     * Copia el stream al almacén y devuelve su SHA-256. Se escribe a un temporal mientras se calcula el hash;
+     * si ya existía un archivo con ese contenido se descarta el temporal (deduplicación).
+     * @return hash y si el archivo es nuevo
+     */
+    public Guardado guardarEnAlmacen(InputStream in) throws IOException {
+        Path tmpDir = almacen().resolve("tmp");
+        Files.createDirectories(tmpDir);
+        Path tmp = Files.createTempFile(tmpDir, "alm", ".tmp");
+        try {
+            String hash = copiarConHash(in, tmp);
+            Path destino = rutaAlmacen(hash);
+            if (Files.exists(destino)) return new Guardado(hash, false);
+            Files.createDirectories(destino.getParent());
+            try {
+                Files.move(tmp, destino, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                return new Guardado(hash, false); // otro hilo guardó el mismo contenido
+            }
+            return new Guardado(hash, true);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public record Guardado(String sha256, boolean nuevo) {}
+
+    /** Placeholder "sin imagen" (static/img/no-image.png), leído una sola vez al arrancar. */
+    public Optional<byte[]> placeholder() {
+        return Optional.ofNullable(placeholder);
+    }
+
+    @PostConstruct
+    void iniciar() {
+        try {
+            placeholder = new ClassPathResource("static/img/no-image.png").getContentAsByteArray();
+        } catch (IOException e) {
+            log.error("No se pudo cargar el placeholder static/img/no-image.png: {}", e.getMessage());
+        }
+        directorioImagenes = new DirectorioImagenes(directorio(), disposicion);
+        directorioImagenes.iniciar();
+    }
+
+    @PreDestroy
+    void detener() {
+        if (directorioImagenes != null) directorioImagenes.close();
+    }
+
+    // ----------------- versión (ETag) -----------------
+
+    /** Versión desde el índice en memoria: no toca BD ni lee la imagen. Vacío si aún no tiene hash. */
+    public Optional<Version> version(String codigoBarras) {
+        return productoCodigoIndex.buscar(codigoBarras)
+                .filter(s -> s.imagenHash() != null)
+                .map(s -> new Version(s.imagenHash(), s.imagenActualizadaEn()));
+    }
+
+    /**
+     * Imágenes subidas antes de guardar el hash: se calcula una vez desde el original vigente
+     * (el de disco se lee en streaming) y queda guardado. null si no hay original.
+     */
+    public Version registrarVersion(String codigoBarras) {
+        String hash;
+        try {
+            Optional<Path> disco = ubicarEnDisco(codigoBarras);
+            if (disco.isPresent()) {
+                hash = sha256(disco.get());
+            } else {
+                Optional<Original> bd = cargarDeBd(codigoBarras);
+                if (bd.isEmpty()) return null;
+                hash = bd.get().sha256();
+            }
+        } catch (IOException e) {
+            log.warn("registrarVersion - No se pudo leer la imagen de {}: {}", codigoBarras, e.getMessage());
+            return null;
+        }
+        return registrarVersion(codigoBarras, hash);
+    }
+
+    /** Guarda el hash ya calculado de una imagen que no lo tenía. */
+    public Version registrarVersion(String codigoBarras, String hash) {
+        Version v = new Version(hash, LocalDateTime.now());
+        if (productoRepository.registrarHashImagen(codigoBarras, v.hash(), v.actualizadaEn()) > 0) {
+            // soloStock = true: no cambia nada indexado por texto, solo hay que refrescar el snapshot
+            publisher.publishEvent(new ProductoCambiadoEvent(null, codigoBarras, true));
+        }
+        return v;
+    }
+
+    /** Marca en el producto la versión de la imagen recién subida (la persiste quien guarde el producto). */
+    public static void marcarVersion(Producto p, String hash) {
+        p.setImagenHash(hash);
+        p.setImagenActualizadaEn(LocalDateTime.now());
+    }
+
+    public static String sha256(byte[] datos) {
+        return HexFormat.of().formatHex(nuevoDigest().digest(datos));
+    }
+
+    /** SHA-256 de un archivo, leído en streaming. */
+    public static String sha256(Path path) throws IOException {
+        MessageDigest md = nuevoDigest();
+        try (InputStream din = new DigestInputStream(Files.newInputStream(path), md)) {
+            din.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    /** Copia la subida a destino calculando su SHA-256 en la misma pasada. */
+    public static String copiarConHash(InputStream in, Path destino) throws IOException {
+        MessageDigest md = nuevoDigest();
+        try (InputStream din = new DigestInputStream(in, md)) {
+            Files.copy(din, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    private static MessageDigest nuevoDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    public static String probeOrDefault(Path p) {
+        try {
+            String ctype = Files.probeContentType(p);
+            if (ctype != null) return ctype;
+        } catch (IOException ignored) { }
+        String name = p.getFileName().toString().toLowerCase();
+        if (name.endsWith(".png"))  return MediaType.IMAGE_PNG_VALUE;
+        if (name.endsWith(".webp")) return "image/webp";
+        return MediaType.IMAGE_JPEG_VALUE; // default
+    }
+}
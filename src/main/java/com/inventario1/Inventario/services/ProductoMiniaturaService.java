@@ -0,0 +1,270 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.files.DirectorioImagenes;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Miniaturas (derivados) de las imágenes de producto: 64, 256 y 1024 px por el lado mayor, en JPEG.
+ * - Se guardan junto al original: {productos-dir}/miniaturas/{tamaño}/{codigo}.jpg, repartidas en subdirectorios
+ *   con la misma disposición que los originales (p.ej. miniaturas/256/ab/{codigo}.jpg)
+ * - Cada tamaño tiene su {@link DirectorioImagenes}: saber si un derivado ya existe es una consulta en memoria,
+ *   sin tocar disco en cada request de las grillas (size=64).
+ * - Se generan al subir una imagen (regenerar) y, para imágenes antiguas, la primera vez que se piden.
+ * - Nunca se agranda: si el original es más chico que el tamaño pedido, el derivado queda del tamaño original.
+ * - El original se decodifica ya reducido (subsampling del lector a ~1024-2048 px), nunca a tamaño completo.
+ * - Si el original no se puede decodificar (p.ej. webp sin plugin ImageIO) o supera app.imagenes.max-pixeles,
+ *   no hay derivado y se sirve el original.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductoMiniaturaService {
+
+    public static final int[] TAMANOS = {64, 256, 1024};
+    private static final float CALIDAD_JPEG = 0.85f;
+
+    private final ProductoImagenService productoImagenService;
+
+    /** Índice en memoria de cada directorio de miniaturas, por tamaño. */
+    private final Map<Integer, DirectorioImagenes> indices = new HashMap<>();
+    /** Evita que dos requests generen el mismo derivado a la vez. */
+    private final ConcurrentHashMap<String, Object> enCurso = new ConcurrentHashMap<>();
+    /** Códigos cuyo original no se pudo decodificar: no se reintenta hasta una nueva subida. */
+    private final Set<String> sinDerivado = ConcurrentHashMap.newKeySet();
+
+    /** Tamaño estándar más chico que cubre el pedido (size=40 -> 64; >1024 -> 1024). */
+    public static int ajustarTamano(int pedido) {
+        for (int t : TAMANOS) if (pedido <= t) return t;
+        return TAMANOS[TAMANOS.length - 1];
+    }
+
+    @PostConstruct
+    void iniciar() {
+        for (int t : TAMANOS) {
+            DirectorioImagenes d = new DirectorioImagenes(directorio(t), productoImagenService.disposicion());
+            d.iniciar();
+            indices.put(t, d);
+        }
+    }
+
+    @PreDestroy
+    void detener() {
+        indices.values().forEach(DirectorioImagenes::close);
+    }
+
+    /** Derivado ya generado o, si no existe, lo genera desde el original. Vacío si no hay original o no se pudo. */
+    public Optional<Path> obtener(String codigoBarras, int tamano) {
+        if (!DirectorioImagenes.codigoValido(codigoBarras)) return Optional.empty();
+        DirectorioImagenes indice = indices.get(ajustarTamano(tamano));
+        Optional<Path> hecho = indice.buscar(codigoBarras);
+        if (hecho.isPresent()) return hecho;
+        if (sinDerivado.contains(codigoBarras)) return Optional.empty();
+
+        Object lock = enCurso.computeIfAbsent(codigoBarras, k -> new Object());
+        try {
+            synchronized (lock) {
+                hecho = indice.buscar(codigoBarras);
+                if (hecho.isPresent()) return hecho;
+                Optional<ProductoImagenService.Original> original = productoImagenService.cargarOriginal(codigoBarras);
+                if (original.isEmpty()) return Optional.empty();
+                generarTodos(codigoBarras, original.get());
+                return indice.buscar(codigoBarras);
+            }
+        } finally {
+            enCurso.remove(codigoBarras, lock);
+        }
+    }
+
+    /** Tras subir una imagen: borra los derivados viejos y genera los nuevos desde el original vigente. */
+    public void regenerar(String codigoBarras) {
+        Object lock = enCurso.computeIfAbsent(codigoBarras, k -> new Object());
+        try {
+            synchronized (lock) {
+                invalidar(codigoBarras);
+                productoImagenService.cargarOriginal(codigoBarras)
+                        .ifPresent(o -> generarTodos(codigoBarras, o));
+            }
+        } finally {
+            enCurso.remove(codigoBarras, lock);
+        }
+    }
+
+    public void invalidar(String codigoBarras) {
+        sinDerivado.remove(codigoBarras);
+        if (!DirectorioImagenes.codigoValido(codigoBarras)) return;
+        for (int t : TAMANOS) {
+            try {
+                Files.deleteIfExists(ruta(codigoBarras, t));
+            } catch (IOException e) {
+                log.warn("No se pudo borrar miniatura {}px de {}: {}", t, codigoBarras, e.getMessage());
+            }
+            indices.get(t).refrescar(codigoBarras);
+        }
+    }
+
+    public Path ruta(String codigoBarras, int tamano) {
+        return indices.get(ajustarTamano(tamano)).ubicacion(codigoBarras, ".jpg");
+    }
+
+    /**
+     * Reubica las miniaturas según la disposición actual. Las que queden en la ubicación vieja no se
+     * encontrarían: se volverían a generar, así que esto solo ahorra ese trabajo.
+     */
+    public DirectorioImagenes.Reordenamiento reordenar() throws IOException {
+        int movidos = 0, yaUbicados = 0, descartados = 0;
+        for (int t : TAMANOS) {
+            DirectorioImagenes.Reordenamiento r = indices.get(t).reordenar();
+            movidos += r.movidos();
+            yaUbicados += r.yaUbicados();
+            descartados += r.descartados();
+        }
+        return new DirectorioImagenes.Reordenamiento(movidos, yaUbicados, descartados);
+    }
+
+    private Path directorio(int tamano) {
+        return productoImagenService.directorio().resolve("miniaturas").resolve(String.valueOf(tamano));
+    }
+
+    // ----------------- generación -----------------
+
+    private void generarTodos(String codigoBarras, ProductoImagenService.Original original) {
+        BufferedImage src = decodificar(codigoBarras, original);
+        if (src == null) {
+            log.info("Miniaturas: no se pudo decodificar la imagen de {}, se servirá el original", codigoBarras);
+            sinDerivado.add(codigoBarras);
+            return;
+        }
+        // de mayor a menor: cada derivado parte del anterior (menos trabajo y mejor calidad)
+        BufferedImage actual = aRgb(src);
+        for (int i = TAMANOS.length - 1; i >= 0; i--) {
+            actual = reducir(actual, TAMANOS[i]);
+            try {
+                escribirJpeg(actual, ruta(codigoBarras, TAMANOS[i]));
+            } catch (IOException e) {
+                log.warn("No se pudo escribir miniatura {}px de {}: {}", TAMANOS[i], codigoBarras, e.getMessage());
+            }
+            indices.get(TAMANOS[i]).refrescar(codigoBarras); // sin esperar al watcher
+        }
+    }
+
+    /**
+     * Decodifica el original ya reducido: lee primero las dimensiones (cabecera) y pide al lector solo uno de
+     * cada N pixeles (subsampling), de modo que el lado mayor quede entre 1024 y 2048 px. Así una imagen grande
+     * no se carga entera en memoria (esto corre en el hilo del request para las imágenes antiguas).
+     * null si el formato no se puede leer o supera app.imagenes.max-pixeles.
+     */
+    private BufferedImage decodificar(String codigoBarras, ProductoImagenService.Original original) {
+        try (ImageInputStream in = original.path() != null
+                ? ImageIO.createImageInputStream(original.path().toFile())
+                : ImageIO.createImageInputStream(new ByteArrayInputStream(original.leer()))) {
+            if (in == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int w = reader.getWidth(0), h = reader.getHeight(0);
+                if ((long) w * h > productoImagenService.maxPixeles()) {
+                    log.warn("Miniaturas: la imagen de {} es demasiado grande ({}x{} px)", codigoBarras, w, h);
+                    return null;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int paso = Math.max(1, Math.max(w, h) / TAMANOS[TAMANOS.length - 1]);
+                if (paso > 1) param.setSourceSubsampling(paso, paso, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Aplana transparencias sobre blanco (JPEG no tiene alfa). */
+    private static BufferedImage aRgb(BufferedImage src) {
+        if (src.getType() == BufferedImage.TYPE_INT_RGB) return src;
+        BufferedImage rgb = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, rgb.getWidth(), rgb.getHeight());
+            g.drawImage(src, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return rgb;
+    }
+
+    /** Reduce hasta que el lado mayor sea <= max, a mitades sucesivas (bilineal) para evitar aliasing. */
+    private static BufferedImage reducir(BufferedImage img, int max) {
+        int w = img.getWidth(), h = img.getHeight();
+        if (Math.max(w, h) <= max) return img;
+        double escala = (double) max / Math.max(w, h);
+        int tw = Math.max(1, (int) Math.round(w * escala));
+        int th = Math.max(1, (int) Math.round(h * escala));
+
+        BufferedImage actual = img;
+        while (true) {
+            int nw = Math.max(tw, actual.getWidth() / 2);
+            int nh = Math.max(th, actual.getHeight() / 2);
+            BufferedImage sig = new BufferedImage(nw, nh, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = sig.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(actual, 0, 0, nw, nh, null);
+            } finally {
+                g.dispose();
+            }
+            actual = sig;
+            if (nw == tw && nh == th) return actual;
+        }
+    }
+
+    /** Escribe a un temporal y lo mueve, así nunca se sirve un JPEG a medio escribir. */
+    private static void escribirJpeg(BufferedImage img, Path destino) throws IOException {
+        Files.createDirectories(destino.getParent());
+        Path tmp = Files.createTempFile(destino.getParent(), "mini", ".tmp");
+        try {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+            if (!writers.hasNext()) throw new IOException("Sin writer JPEG");
+            ImageWriter writer = writers.next();
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(tmp.toFile())) {
+                writer.setOutput(out);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(CALIDAD_JPEG);
+                writer.write(null, new IIOImage(img, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
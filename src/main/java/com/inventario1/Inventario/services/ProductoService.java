@@ -1,12 +1,17 @@
 package com.inventario1.Inventario.services;
 
 import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.models.ProductoImagen;
+import com.inventario1.Inventario.repos.ProductoImagenRepository;
 import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.index.ProductoCambiadoEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import jakarta.persistence.PersistenceException;
@@ -18,7 +23,9 @@ import java.util.Optional;
 public class ProductoService {
 
     private final ProductoRepository repo;
+    private final ProductoImagenRepository imagenRepo;
     private final PlatformTransactionManager txManager;
+    private final ApplicationEventPublisher publisher;
 
     public enum DeleteResult { BORRADO, INACTIVADO, NO_EXISTE }
 
@@ -29,7 +36,7 @@ public class ProductoService {
      * - Si falla por FK → INACTIVADO (marca activo=false en una tx aparte)
      */
     public DeleteResult eliminarOInactivarPorCodigo(String codigoBarras) {
-        Optional<Producto> opt = repo.findByCodigoBarras(codigoBarras);
+        Optional<Producto> opt = repo.buscarPorCodigo(codigoBarras);
         if (opt.isEmpty()) {
             log.info("Eliminar: producto no existe (cb={})", codigoBarras);
             return DeleteResult.NO_EXISTE;
@@ -54,6 +61,7 @@ public class ProductoService {
             // 2) Fallback: marcar INACTIVO en otra transacción limpia
             tx.executeWithoutResult(status -> {
                 int n = repo.marcarInactivo(p.getId());
+                publisher.publishEvent(new ProductoCambiadoEvent(p.getId(), p.getCodigoBarras()));
                 log.info("Producto marcado INACTIVO id={}, cb={}, filas={}", p.getId(), p.getCodigoBarras(), n);
             });
             return DeleteResult.INACTIVADO;
@@ -66,7 +74,27 @@ public class ProductoService {
      */
     public boolean reactivarPorCodigo(String codigoBarras) {
         int n = repo.reactivarPorCodigo(codigoBarras);
+        // update JPQL masivo: no dispara el entity listener, se avisa a mano
+        publisher.publishEvent(new ProductoCambiadoEvent(null, codigoBarras));
         log.info("Reactivar cb={} -> filas={}", codigoBarras, n);
         return n > 0;
     }
+
+    /**
+     * Apunta la imagen del producto a un archivo ya guardado en el almacén por contenido
+     * ({@link ProductoImagenService#guardarEnAlmacen}). Las subidas nuevas nunca escriben el BLOB:
+     * datos queda en NULL y solo lo conservan las filas antiguas aún no migradas.
+     * El producto debe estar persistido (la imagen comparte su id); los metadatos
+     * (content-type, nombre, tamaño) los fija quien llama sobre el propio Producto.
+     * El evento invalida el caché de imágenes tras el commit.
+     */
+    @Transactional
+    public void guardarImagen(Producto p, String archivoSha256) {
+        ProductoImagen img = imagenRepo.findById(p.getId())
+                .orElseGet(() -> ProductoImagen.builder().producto(p).build());
+        img.setDatos(null); // si quedaba un BLOB antiguo, lo reemplaza la copia del almacén
+        img.setArchivoSha256(archivoSha256);
+        imagenRepo.save(img);
+        publisher.publishEvent(new ProductoCambiadoEvent(p.getId(), p.getCodigoBarras()));
+    }
 }
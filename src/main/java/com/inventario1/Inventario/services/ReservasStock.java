@@ -0,0 +1,325 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.services.dto.ProductoSnapshot;
+import com.inventario1.Inventario.services.index.ProductoCambiadoEvent;
+import com.inventario1.Inventario.services.index.ProductoCodigoIndex;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reservas de stock en memoria para las salidas en curso (carrito de /salidas): entre seleccionar y confirmar,
+ * las unidades quedan apartadas y otro carrito no las puede tomar.
+ * - Tabla por producto (código -> unidades reservadas) y por reserva (id del carrito -> sus líneas).
+ *   Disponible = stock_actual (ProductoCodigoIndex) - reservado, sin locks de BD.
+ * - Cada producto tiene una generación que sube con cada cambio de stock confirmado; quien calcula el disponible
+ *   la lee antes y después (seqlock) y reintenta si cambió: nunca combina un stock viejo con reservas nuevas.
+ * - Vencimiento: una reserva vence a los app.reservas.ttl (10m) de su último cambio. Las vence una rueda de
+ *   tiempo (timer wheel) de {@link #RANURAS} ranuras que avanza cada app.reservas.tick (1s): programar o
+ *   renovar es O(1) y cada tick solo revisa su ranura.
+ * - SalidasService libera la reserva en el afterCommit de la salida: primero invalida el stock del índice y
+ *   sube la generación, así las unidades pasan de "reservadas" a "descontadas" sin ventana en que cuenten
+ *   dos veces ni ninguna. Si la salida falla, la reserva sigue en pie.
+ * Es por instancia: con varias instancias cada una ve solo sus carritos (el UPDATE de stock con
+ * "stock_actual - n >= 0" sigue siendo la última defensa contra el stock negativo).
+ */
+@Component
+@Slf4j
+public class ReservasStock {
+
+    static final int RANURAS = 512;
+
+    /** Unidades reservadas de un producto entre todas las reservas. */
+    private static final class Contador {
+        int reservado;          // protegido por el monitor del contador
+        volatile long generacion;
+    }
+
+    /** Reserva de un carrito. Todo lo mutable se protege con su monitor. */
+    private static final class Reserva {
+        final String id;
+        final Map<String, Integer> lineas = new HashMap<>();
+        long venceTick;
+        int ranura = -1;
+        boolean cerrada;
+
+        Reserva(String id) {
+            this.id = id;
+        }
+    }
+
+    private final ProductoCodigoIndex productoCodigoIndex;
+    private final long ttlNanos;
+    private final long tickNanos;
+    private final long inicio = System.nanoTime();
+
+    private final ConcurrentHashMap<String, Contador> porProducto = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Reserva> porReserva = new ConcurrentHashMap<>();
+    private final List<Set<Reserva>> rueda = new ArrayList<>(RANURAS);
+    private final Thread barrendero;
+    private volatile boolean detenido;
+
+    public ReservasStock(ProductoCodigoIndex productoCodigoIndex,
+                         @Value("${app.reservas.ttl:10m}") Duration ttl,
+                         @Value("${app.reservas.tick:1s}") Duration tick) {
+        this.productoCodigoIndex = productoCodigoIndex;
+        this.ttlNanos = ttl.toNanos();
+        this.tickNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(10), tick.toNanos());
+        for (int i = 0; i < RANURAS; i++) rueda.add(ConcurrentHashMap.newKeySet());
+        barrendero = new Thread(this::barrer, "reservas-stock");
+        barrendero.setDaemon(true);
+        barrendero.start();
+    }
+
+    @PreDestroy
+    void detener() {
+        detenido = true;
+        barrendero.interrupt();
+    }
+
+    // ----------------- consulta -----------------
+
+    /** stock_actual - unidades reservadas por todos; null si el producto no existe. */
+    public Integer disponible(String codigo) {
+        return disponiblePara(null, codigo);
+    }
+
+    /** Disponible para una reserva: sus propias unidades no le restan. null si el producto no existe. */
+    public Integer disponiblePara(String reservaId, String codigo) {
+        Contador c = porProducto.get(codigo);
+        while (true) {
+            long gen = c == null ? 0 : c.generacion;
+            Integer stock = stockDe(codigo);
+            if (stock == null) return null;
+            int ajenas = reservadoPorOtros(reservaId, codigo);
+            if (c == null || c.generacion == gen) return stock - ajenas;
+        }
+    }
+
+    /** Unidades del producto reservadas por reservas distintas de reservaId (todas si es null). */
+    public int reservadoPorOtros(String reservaId, String codigo) {
+        Contador c = porProducto.get(codigo);
+        if (c == null) return 0;
+        int total;
+        synchronized (c) {
+            total = c.reservado;
+        }
+        Reserva r = reservaId == null ? null : porReserva.get(reservaId);
+        if (r == null) return total;
+        synchronized (r) {
+            return total - r.lineas.getOrDefault(codigo, 0);
+        }
+    }
+
+    // ----------------- cambios -----------------
+
+    /**
+     * Deja reservadas exactamente "cantidad" unidades del producto para la reserva (0 la quita) y renueva su
+     * vencimiento. IllegalStateException si no hay disponibles para el aumento. Un código que no existe no se
+     * reserva (el carrito lo informa como faltante).
+     */
+    public void reservar(String reservaId, String codigo, int cantidad) {
+        while (true) {
+            Reserva r = porReserva.computeIfAbsent(reservaId, Reserva::new);
+            synchronized (r) {
+                if (r.cerrada) continue; // la acaba de vencer el barrendero: se crea otra
+                int antes = r.lineas.getOrDefault(codigo, 0);
+                int delta = Math.max(0, cantidad) - antes;
+                boolean apartado;
+                try {
+                    apartado = delta <= 0 || apartar(codigo, delta);
+                } catch (IllegalStateException e) {
+                    if (r.lineas.isEmpty()) cerrar(r); // una reserva recién creada no queda vacía en el mapa
+                    throw e;
+                }
+                if (!apartado) {
+                    if (r.lineas.isEmpty()) cerrar(r);
+                    return;
+                }
+                if (delta < 0) devolver(codigo, -delta);
+                if (cantidad > 0) r.lineas.put(codigo, cantidad);
+                else r.lineas.remove(codigo);
+                if (r.lineas.isEmpty()) cerrar(r);
+                else programar(r);
+                return;
+            }
+        }
+    }
+
+    /** Renueva el vencimiento de la reserva (el carrito se está usando). */
+    public void renovar(String reservaId) {
+        Reserva r = reservaId == null ? null : porReserva.get(reservaId);
+        if (r == null) return;
+        synchronized (r) {
+            if (!r.cerrada) programar(r);
+        }
+    }
+
+    /** Libera todas las unidades de la reserva. */
+    public void liberar(String reservaId) {
+        Reserva r = reservaId == null ? null : porReserva.get(reservaId);
+        if (r == null) return;
+        synchronized (r) {
+            if (r.cerrada) return;
+            r.lineas.forEach(this::devolver);
+            r.lineas.clear();
+            cerrar(r);
+        }
+    }
+
+    /**
+     * Libera la reserva cuando confirme la transacción en curso (si no hay transacción, en el acto).
+     * Antes de devolver las unidades invalida el stock de sus productos en el índice y sube su generación:
+     * el descuento ya está en BD y nadie ve las unidades libres con el stock viejo.
+     */
+    public void liberarAlConfirmar(String reservaId) {
+        if (reservaId == null) return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            confirmar(reservaId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                confirmar(reservaId);
+            }
+        });
+    }
+
+    /** Cualquier cambio de stock confirmado invalida el disponible calculado con el stock anterior. */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductoCambiado(ProductoCambiadoEvent ev) {
+        stockCambiado(ev.codigoBarras());
+    }
+
+    // ----------------- internos -----------------
+
+    private void confirmar(String reservaId) {
+        Reserva r = porReserva.get(reservaId);
+        if (r == null) return;
+        synchronized (r) {
+            if (r.cerrada) return;
+            r.lineas.forEach((codigo, cant) -> {
+                stockCambiado(codigo);
+                devolver(codigo, cant);
+            });
+            r.lineas.clear();
+            cerrar(r);
+        }
+    }
+
+    private void stockCambiado(String codigo) {
+        if (codigo == null) return;
+        productoCodigoIndex.invalidar(codigo);
+        Contador c = porProducto.get(codigo);
+        if (c != null) {
+            synchronized (c) {
+                c.generacion++;
+            }
+        }
+    }
+
+    /** Suma delta a lo reservado si alcanza el disponible; false si el producto no existe. */
+    private boolean apartar(String codigo, int delta) {
+        Contador c = porProducto.computeIfAbsent(codigo, k -> new Contador());
+        while (true) {
+            long gen = c.generacion;
+            Integer stock = stockDe(codigo); // fuera del lock: puede ir a BD
+            if (stock == null) return false;
+            synchronized (c) {
+                if (c.generacion != gen) continue; // el stock cambió mientras se leía
+                int disponible = stock - c.reservado;
+                if (disponible < delta) {
+                    throw new IllegalStateException("Stock insuficiente para " + codigo + ": quedan "
+                            + Math.max(0, disponible) + " disponibles (hay unidades reservadas en otras salidas).");
+                }
+                c.reservado += delta;
+                return true;
+            }
+        }
+    }
+
+    private void devolver(String codigo, int cantidad) {
+        Contador c = porProducto.get(codigo);
+        if (c == null) return;
+        synchronized (c) {
+            c.reservado = Math.max(0, c.reservado - cantidad);
+        }
+    }
+
+    private Integer stockDe(String codigo) {
+        return productoCodigoIndex.buscar(codigo)
+                .map(ProductoSnapshot::stockActual)
+                .map(s -> s == null ? 0 : s)
+                .orElse(null);
+    }
+
+    // ----------------- rueda de tiempo -----------------
+
+    private long tickActual() {
+        return (System.nanoTime() - inicio) / tickNanos;
+    }
+
+    /** (Re)programa el vencimiento a ttl desde ahora; con el monitor de r tomado. */
+    private void programar(Reserva r) {
+        long vence = tickActual() + Math.max(1, (ttlNanos + tickNanos - 1) / tickNanos);
+        int ranura = (int) (vence & (RANURAS - 1));
+        r.venceTick = vence;
+        if (ranura != r.ranura) {
+            if (r.ranura >= 0) rueda.get(r.ranura).remove(r);
+            rueda.get(ranura).add(r);
+            r.ranura = ranura;
+        }
+    }
+
+    /** Saca la reserva de la rueda y del mapa; con el monitor de r tomado. */
+    private void cerrar(Reserva r) {
+        r.cerrada = true;
+        if (r.ranura >= 0) rueda.get(r.ranura).remove(r);
+        r.ranura = -1;
+        porReserva.remove(r.id, r);
+    }
+
+    private void barrer() {
+        long siguiente = tickActual();
+        while (!detenido) {
+            try {
+                long espera = (siguiente + 1) * tickNanos - (System.nanoTime() - inicio);
+                if (espera > 0) TimeUnit.NANOSECONDS.sleep(espera);
+                long hasta = tickActual();
+                // si se atrasó, recorre todos los ticks pendientes (a lo sumo una vuelta completa)
+                for (long t = Math.max(siguiente, hasta - RANURAS + 1); t <= hasta; t++) {
+                    vencer(t);
+                }
+                siguiente = hasta + 1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Reservas de stock: error al vencer reservas", e);
+            }
+        }
+    }
+
+    private void vencer(long tick) {
+        Set<Reserva> ranura = rueda.get((int) (tick & (RANURAS - 1)));
+        for (Reserva r : ranura.toArray(new Reserva[0])) {
+            synchronized (r) {
+                if (r.cerrada || r.venceTick > tick) continue; // vence en una vuelta posterior
+                log.debug("Reserva {} vencida: se liberan {}", r.id, r.lineas);
+                r.lineas.forEach(this::devolver);
+                r.lineas.clear();
+                cerrar(r);
+            }
+        }
+    }
+}
@@ -9,7 +9,6 @@ import com.inventario1.Inventario.models.RegistrarSalidaResponse;
 import com.inventario1.Inventario.repos.MovimientoInventarioRepository;
 import com.inventario1.Inventario.repos.ProductoRepository;
 import jakarta.persistence.EntityNotFoundException;
-import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -20,20 +19,44 @@ import java.util.stream.Collectors;
 @Service
 public class SalidasService {
 
+    private static final String AMBITO_IDEMPOTENCIA = "salidas";
+
     private final MovimientoInventarioRepository movimientoRepo;
     private final ProductoRepository productoRepo;
+    private final IdempotenciaService idempotencia;
+    private final ReservasStock reservas;
+    private final StockEnLote stockEnLote;
 
     public SalidasService(MovimientoInventarioRepository movimientoRepo,
-                          ProductoRepository productoRepo) {
+                          ProductoRepository productoRepo,
+                          IdempotenciaService idempotencia,
+                          ReservasStock reservas,
+                          StockEnLote stockEnLote) {
         this.movimientoRepo = movimientoRepo;
         this.productoRepo = productoRepo;
+        this.idempotencia = idempotencia;
+        this.reservas = reservas;
+        this.stockEnLote = stockEnLote;
+    }
+
+    /**
+     * registrarSalida con Idempotency-Key: si la clave ya registró esta misma salida, devuelve la respuesta
+     * original sin volver a escribir. La transacción la abre IdempotenciaService (la llamada interna no pasa
+     * por el proxy), así la clave y el movimiento se confirman juntos.
+     */
+    public RegistrarSalidaResponse registrarSalida(RegistrarSalidaRequest req, String claveIdempotencia) {
+        return idempotencia.ejecutar(AMBITO_IDEMPOTENCIA, claveIdempotencia, huella(req), () -> registrarSalida(req));
     }
 
     /**
      * Registra una SALIDA con múltiples ítems.
      * - Valida cantidades > 0 y existencia de productos por código de barras.
+     * - Respeta las unidades reservadas por otras salidas en curso (ReservasStock); las de req.reserva son suyas.
+     * - Bloquea los productos (FOR UPDATE, en orden de id), valida el stock bajo el bloqueo y lo descuenta con el
+     *   mismo UPDATE atómico que MovimientosService (stock_actual = stock_actual - n), en un solo batch
+     *   (StockEnLote): el stock lo mantiene solo la aplicación, no hay triggers en BD.
      * - Construye cabecera + líneas (relación a Producto).
-     * - Los TRIGGERS en BD descuentan stock y validan "stock insuficiente".
+     * - Si queda registrada, la reserva se libera al confirmar la transacción; si no, sigue en pie.
      */
     @Transactional
     public RegistrarSalidaResponse registrarSalida(RegistrarSalidaRequest req) {
@@ -61,8 +84,8 @@ public class SalidasService {
                         Integer::sum
                 ));
 
-        // Cargar productos en bloque por código de barras
-        List<Producto> productos = productoRepo.findAllByCodigoBarrasIn(cantidadesPorCodigo.keySet());
+        // Cargar y bloquear los productos en bloque por código de barras (hasta el commit nadie más los toca)
+        List<Producto> productos = productoRepo.lockAllByCodigoBarrasIn(cantidadesPorCodigo.keySet());
         if (productos.size() != cantidadesPorCodigo.size()) {
             Set<String> encontrados = productos.stream()
                     .map(Producto::getCodigoBarras)
@@ -75,6 +98,21 @@ public class SalidasService {
         Map<String, Producto> porCodigo = productos.stream()
                 .collect(Collectors.toMap(Producto::getCodigoBarras, p -> p));
 
+        // Stock bloqueado en BD menos lo que otras salidas tienen reservado
+        cantidadesPorCodigo.forEach((codigo, cant) -> {
+            Producto p = porCodigo.get(codigo);
+            int disponible = (p.getStockActual() == null ? 0 : p.getStockActual())
+                    - reservas.reservadoPorOtros(req.reserva, codigo);
+            if (cant > disponible) {
+                res.errores.add("Stock insuficiente para " + codigo + ": disponibles " + Math.max(0, disponible)
+                        + " (descontadas las unidades reservadas por otras salidas en curso).");
+            }
+        });
+        if (!res.errores.isEmpty()) {
+            res.ok = false;
+            return res;
+        }
+
         // Cabecera del movimiento (efectivamente final; no se reasigna)
         final MovimientoInventario mov = new MovimientoInventario();
         mov.setTipo(TipoMovimiento.SALIDA);
@@ -82,7 +120,10 @@ public class SalidasService {
         mov.setComentario(buildComentario(req.motivo, req.referencia, req.usuario));
         mov.setLineas(new ArrayList<>());
 
-        // Líneas: referencia al Producto; el stock lo ajustan TRIGGERS
+        // Descuento en BD, en el orden de id del bloqueo y en un batch. Ya se validó bajo el lock: un 0 es un error
+        stockEnLote.sumar(productos, p -> -cantidadesPorCodigo.get(p.getCodigoBarras()));
+
+        // Líneas: referencia al Producto bloqueado (no se modifica: su stock ya lo escribió el UPDATE)
         cantidadesPorCodigo.forEach((codigo, cant) -> {
             MovimientoLinea ml = new MovimientoLinea();
             ml.setMovimiento(mov);
@@ -91,23 +132,30 @@ public class SalidasService {
             mov.getLineas().add(ml);
         });
 
-        try {
-            movimientoRepo.save(mov); // cascade: persiste cabecera y líneas
-            res.ok = true;
-            res.movimientoId = mov.getId();             // IDENTITY: queda seteado en la misma instancia
-            res.registrados = mov.getLineas().size();
-            return res;
-        } catch (DataIntegrityViolationException ex) {
-            // Si un trigger lanza SIGNAL '45000' (p.ej. "Stock insuficiente")
-            String msg = ex.getMostSpecificCause() != null ? ex.getMostSpecificCause().getMessage() : ex.getMessage();
-            res.ok = false;
-            res.errores.add(msg != null ? msg : "No se pudo registrar la salida.");
-            return res;
-        }
+        // cascade: cabecera y líneas, en batch. Un error aquí revierte también el descuento
+        movimientoRepo.saveAndFlush(mov);
+        reservas.liberarAlConfirmar(req.reserva);
+        res.ok = true;
+        res.movimientoId = mov.getId();
+        res.registrados = mov.getLineas().size();
+        return res;
     }
 
     // ---------- Helpers ----------
 
+    /** Contenido de la solicitud, sin importar el orden de los ítems. */
+    private static String huella(RegistrarSalidaRequest req) {
+        if (req == null) return IdempotenciaService.huella(List.of());
+        List<String> partes = new ArrayList<>();
+        if (req.items != null) {
+            req.items.stream().map(i -> i.codigo + "=" + i.cantidad).sorted().forEach(partes::add);
+        }
+        partes.add(req.motivo);
+        partes.add(req.referencia);
+        partes.add(req.usuario);
+        return IdempotenciaService.huella(partes);
+    }
+
     private String buildComentario(String motivo, String referencia, String usuario) {
         List<String> partes = new ArrayList<>();
         if (motivo != null && !motivo.isBlank()) partes.add("Motivo: " + motivo);
@@ -0,0 +1,52 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.repos.ProductoRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * {@link ProductoRepository#sumarStock} para muchos productos a la vez: el mismo UPDATE atómico
+ * (stock_actual = stock_actual + delta, sin dejarlo negativo) en un solo batch JDBC, en vez de una ida y vuelta
+ * por producto. Lo usan las salidas e inventarios de varias líneas, que ya bloquearon las filas y validaron el
+ * stock: una fila sin actualizar es un error y revierte la transacción.
+ * No toca el contexto de persistencia: las entidades bloqueadas quedan con el stock leído (no se modifican, así
+ * que el flush no las vuelve a escribir).
+ */
+@Component
+public class StockEnLote {
+
+    private final JdbcTemplate jdbc;
+
+    public StockEnLote(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /** Suma a cada producto su delta (en el orden dado: el del bloqueo). Los delta 0 se saltan. */
+    public void sumar(List<Producto> productos, ToIntFunction<Producto> delta) {
+        Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+        List<Producto> tocados = new ArrayList<>(productos.size());
+        List<Object[]> args = new ArrayList<>(productos.size());
+        for (Producto p : productos) {
+            int d = delta.applyAsInt(p);
+            if (d == 0) continue;
+            tocados.add(p);
+            args.add(new Object[]{d, ahora, p.getId(), d});
+        }
+        if (args.isEmpty()) return;
+
+        int[] filas = jdbc.batchUpdate("UPDATE productos SET stock_actual = stock_actual + ?, "
+                + "version = COALESCE(version, 0) + 1, actualizado_en = ? WHERE id = ? AND stock_actual + ? >= 0", args);
+        for (int i = 0; i < filas.length; i++) {
+            if (filas[i] == 0) {
+                throw new IllegalStateException("Stock insuficiente para " + tocados.get(i).getCodigoBarras());
+            }
+        }
+    }
+}
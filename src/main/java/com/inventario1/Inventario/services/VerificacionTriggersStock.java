@@ -0,0 +1,45 @@
+package com.inventario1.Inventario.services;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * El stock lo mantiene solo la aplicación: cada movimiento aplica su UPDATE atómico
+ * (ProductoRepository.sumarStock, o el escritor agrupado de MovimientosService) junto con sus líneas.
+ * Si la BD conserva triggers sobre movimiento_lineas / movimientos_inventario (el esquema antiguo ajustaba
+ * stock_actual así), cada movimiento se contaría dos veces: al arrancar se buscan y, si hay, la app no inicia
+ * y dice qué borrar.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+class VerificacionTriggersStock {
+
+    private final JdbcTemplate jdbc;
+
+    @PostConstruct
+    void verificar() {
+        List<String> triggers;
+        try {
+            triggers = jdbc.queryForList("""
+                    SELECT TRIGGER_NAME FROM information_schema.TRIGGERS
+                    WHERE TRIGGER_SCHEMA = DATABASE()
+                      AND LOWER(EVENT_OBJECT_TABLE) IN ('movimiento_lineas', 'movimientos_inventario')
+                    """, String.class);
+        } catch (DataAccessException e) {
+            log.debug("No se pudieron listar los triggers de movimientos: {}", e.getMessage());
+            return;
+        }
+        if (triggers.isEmpty()) return;
+        String drops = triggers.stream().map(t -> "DROP TRIGGER `" + t + "`;").collect(Collectors.joining(" "));
+        throw new IllegalStateException("La BD tiene triggers sobre los movimientos (" + String.join(", ", triggers)
+                + "): el stock ya lo ajusta la aplicación y se descontaría dos veces. Bórrelos antes de arrancar: " + drops);
+    }
+}
@@ -2,6 +2,8 @@ package com.inventario1.Inventario.services.dto;
 
 import com.inventario1.Inventario.models.Producto;
 import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.MovimientosService;
+import com.inventario1.Inventario.util.CodigoBarras;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -14,14 +16,18 @@ import java.util.stream.Collectors;
  * - Normaliza campos básicos
  * - Soporta dryRun (simulación) y upsert (crear o actualizar)
  * - Procesa en bloques (chunkSize)
+ * - El stock no se escribe en la entidad: va al libro de movimientos con MovimientosService.fijarStock
+ *   (ENTRADA de apertura en los nuevos, la diferencia en los existentes), así la conciliación cuadra.
  */
 @Service
 public class BulkProductoService {
 
     private final ProductoRepository productoRepository;
+    private final MovimientosService movimientosService;
 
-    public BulkProductoService(ProductoRepository productoRepository) {
+    public BulkProductoService(ProductoRepository productoRepository, MovimientosService movimientosService) {
         this.productoRepository = productoRepository;
+        this.movimientosService = movimientosService;
     }
 
     /** Validaciones de negocio e idempotencia básica en memoria (duplicados en el lote) */
@@ -53,7 +59,7 @@ public class BulkProductoService {
         if (p.getNombre() != null) p.setNombre(p.getNombre().trim());
         if (p.getMarca()  != null) p.setMarca(p.getMarca().trim());
         if (p.getCodigoBarras() != null) {
-            p.setCodigoBarras(p.getCodigoBarras().replaceAll("\\D", "").trim());
+            p.setCodigoBarras(CodigoBarras.normalizar(p.getCodigoBarras()));
         }
         // Agrega más reglas si necesitas (capitalización, límites, defaults, etc.)
     }
@@ -79,6 +85,11 @@ public class BulkProductoService {
                 // Simulación: no guarda, solo valida/contabiliza potenciales acciones
                 for (int k = 0; k < slice.size(); k++) {
                     Producto it = slice.get(k);
+                    if (CodigoBarras.gtinInvalido(it.getCodigoBarras())) {
+                        result.incSkipped();
+                        result.addError(i + k, it.getCodigoBarras(), "Dígito verificador inválido.");
+                        continue;
+                    }
                     boolean yaExiste = it.getCodigoBarras() != null && existentes.contains(it.getCodigoBarras());
                     if (yaExiste && !upsert) {
                         result.incSkipped();
@@ -97,7 +108,17 @@ public class BulkProductoService {
                 Producto it = slice.get(k);
                 try {
                     String codigo = it.getCodigoBarras();
+                    if (CodigoBarras.gtinInvalido(codigo)) {
+                        result.incSkipped();
+                        result.addError(i + k, codigo, "Dígito verificador inválido (saltado).");
+                        continue;
+                    }
                     boolean yaExiste = codigo != null && existentes.contains(codigo);
+                    if (it.getStockActual() != null && it.getStockActual() < 0) {
+                        result.incSkipped();
+                        result.addError(i + k, codigo, "Stock negativo (saltado).");
+                        continue;
+                    }
 
                     if (yaExiste && !upsert) {
                         result.incSkipped();
@@ -120,7 +141,7 @@ public class BulkProductoService {
                     entity.setVolumenNominalMl(it.getVolumenNominalMl());
                     entity.setGraduacionAlcoholica(it.getGraduacionAlcoholica());
                     entity.setFechaVencimiento(it.getFechaVencimiento());
-                    entity.setStockActual(it.getStockActual());
+                    if (!yaExiste) entity.setStockActual(0); // el stock inicial entra con su movimiento (abajo)
                     entity.setStockMinimo(it.getStockMinimo());
                     entity.setCodigoBarras(codigo);
                     // después (compatible con getters getXxx()):
@@ -128,7 +149,13 @@ public class BulkProductoService {
                     entity.setRetornable(it.getRetornable() != null ? it.getRetornable() : false);
                     entity.setActivo(    it.getActivo()     != null ? it.getActivo()     : true);
 
-                    productoRepository.save(entity);
+                    entity = productoRepository.saveAndFlush(entity);
+                    if (it.getStockActual() != null) {
+                        movimientosService.fijarStock(entity, it.getStockActual(),
+                                yaExiste ? "Carga masiva de productos (stock " + it.getStockActual() + ")"
+                                        : "Carga masiva de productos (stock inicial)",
+                                "BULK/PRODUCTOS:" + codigo);
+                    }
 
                     if (yaExiste) result.incUpdated(); else result.incInserted();
 
@@ -0,0 +1,15 @@
+package com.inventario1.Inventario.services.dto;
+
+import com.inventario1.Inventario.models.Rol;
+
+/**
+ * Fila del directorio de empleados (/empleados). Proyección sin la foto (MEDIUMBLOB)
+ * ni los campos de seguridad de Usuario.
+ */
+public record EmpleadoListItem(
+        String rut,
+        String username,
+        String nombre,
+        String email,
+        Rol rol
+) {}
@@ -0,0 +1,7 @@
+package com.inventario1.Inventario.services.dto;
+
+/**
+ * Imagen de producto_imagenes y su content-type (desde productos), leídos en una sola consulta.
+ * datos es null si la imagen ya se migró al almacén en disco (archivoSha256).
+ */
+public record ProductoImagenBlob(byte[] datos, String contentType, String archivoSha256) {}
@@ -0,0 +1,23 @@
+package com.inventario1.Inventario.services.dto;
+
+import com.inventario1.Inventario.models.Categoria;
+import com.inventario1.Inventario.models.UnidadBase;
+
+/**
+ * Fila de listado de productos (buscar, salidas, alertas): solo las columnas que muestran las vistas.
+ * Se obtiene por proyección (select new ...), así Hibernate no gestiona la entidad
+ * ni guarda snapshot para dirty-checking.
+ */
+public record ProductoListItem(
+        Long id,
+        String codigoBarras,
+        String nombre,
+        String marca,
+        Categoria categoria,
+        UnidadBase unidadBase,
+        Integer stockActual,
+        Integer stockMinimo,
+        Boolean perecible,
+        Boolean retornable,
+        String imagenUrl
+) {}
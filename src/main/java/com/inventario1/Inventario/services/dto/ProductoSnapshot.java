@@ -0,0 +1,43 @@
+package com.inventario1.Inventario.services.dto;
+
+import com.inventario1.Inventario.models.Categoria;
+import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.models.UnidadBase;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Copia inmutable y liviana de un Producto (sin imagen ni estado JPA).
+ * Es lo que guarda el índice en memoria por código de barras.
+ */
+public record ProductoSnapshot(
+        Long id,
+        String codigoBarras,
+        String nombre,
+        String marca,
+        Categoria categoria,
+        UnidadBase unidadBase,
+        Integer volumenNominalMl,
+        Double graduacionAlcoholica,
+        LocalDate fechaVencimiento,
+        Boolean perecible,
+        Boolean retornable,
+        Integer stockActual,
+        Integer stockMinimo,
+        Boolean activo,
+        Integer precio,
+        String imagenUrl,
+        String imagenHash,
+        LocalDateTime imagenActualizadaEn
+) {
+    public static ProductoSnapshot from(Producto p) {
+        return new ProductoSnapshot(
+                p.getId(), p.getCodigoBarras(), p.getNombre(), p.getMarca(),
+                p.getCategoria(), p.getUnidadBase(), p.getVolumenNominalMl(), p.getGraduacionAlcoholica(),
+                p.getFechaVencimiento(), p.getPerecible(), p.getRetornable(),
+                p.getStockActual(), p.getStockMinimo(), p.getActivo(), p.getPrecio(), p.getImagenUrl(),
+                p.getImagenHash(), p.getImagenActualizadaEn()
+        );
+    }
+}
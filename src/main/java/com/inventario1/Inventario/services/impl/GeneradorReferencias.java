@@ -0,0 +1,78 @@
+package com.inventario1.Inventario.services.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Referencias únicas de movimientos sin consultar la BD (estilo Snowflake): {base}:{id}, con id de 13 caracteres
+ * en base32 de Crockford que codifica 41 bits de ms desde 2024-01-01, 10 bits de nodo y 12 de secuencia.
+ * - Ordenadas por tiempo: dentro de una misma base, el orden alfabético es el de creación.
+ * - Monótonas: si el reloj retrocede se sigue desde el último ms emitido, y si en un ms se agotan las 4096
+ *   secuencias se pasa al siguiente, sin esperar.
+ * - Nodo: app.movimientos.nodo (0..1023). Sin configurar se deriva del host y el pid; con varias instancias
+ *   conviene fijarlo. El índice único de referencia queda solo como última defensa.
+ */
+@Component
+@Slf4j
+class GeneradorReferencias {
+
+    static final int LARGO_ID = 13;
+    private static final long EPOCH_MS = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+    private static final int BITS_NODO = 10;
+    private static final int BITS_SECUENCIA = 12;
+    private static final char[] CROCKFORD = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    /** referencia tiene largo 128 en movimientos_inventario. */
+    private static final int MAX_REFERENCIA = 128;
+
+    private final long nodo;
+    /** Último valor emitido: (ms << BITS_SECUENCIA) | secuencia. Sumar 1 desborda la secuencia hacia el ms. */
+    private final AtomicLong ultimo = new AtomicLong();
+
+    GeneradorReferencias(@Value("${app.movimientos.nodo:-1}") int nodo) {
+        this.nodo = nodo >= 0 ? nodo & ((1 << BITS_NODO) - 1) : nodoPorDefecto();
+        log.info("Referencias de movimientos: nodo {}{}", this.nodo, nodo >= 0 ? "" : " (derivado del host/pid)");
+    }
+
+    /** "{base}:{id}"; la base se recorta si hace falta para respetar el largo de la columna. */
+    String referencia(String base) {
+        String id = siguiente();
+        int max = MAX_REFERENCIA - LARGO_ID - 1;
+        String b = base.length() > max ? base.substring(0, max) : base;
+        return b + ":" + id;
+    }
+
+    /** Id de 13 caracteres, único por nodo y creciente. */
+    String siguiente() {
+        long ahora = System.currentTimeMillis() - EPOCH_MS;
+        long v = ultimo.updateAndGet(prev -> Math.max(ahora << BITS_SECUENCIA, prev + 1));
+        long ms = v >>> BITS_SECUENCIA;
+        long secuencia = v & ((1L << BITS_SECUENCIA) - 1);
+        return base32((ms << (BITS_NODO + BITS_SECUENCIA)) | (nodo << BITS_SECUENCIA) | secuencia);
+    }
+
+    /** 64 bits en 13 caracteres, de mayor a menor peso (orden alfabético = orden numérico). */
+    static String base32(long v) {
+        char[] out = new char[LARGO_ID];
+        for (int i = LARGO_ID - 1; i >= 0; i--) {
+            out[i] = CROCKFORD[(int) (v & 31)];
+            v >>>= 5;
+        }
+        return new String(out);
+    }
+
+    private static long nodoPorDefecto() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "localhost";
+        }
+        long h = 31L * host.hashCode() + ProcessHandle.current().pid();
+        return Math.floorMod(h ^ (h >>> 16), 1L << BITS_NODO);
+    }
+}
@@ -0,0 +1,257 @@
+package com.inventario1.Inventario.services.impl;
+
+import com.inventario1.Inventario.models.GeneradoresId;
+import com.inventario1.Inventario.models.TipoMovimiento;
+import com.inventario1.Inventario.services.IdGeneradores;
+import com.inventario1.Inventario.services.index.ProductoCambiadoEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Escritura agrupada ("group commit") de los movimientos de un solo producto que llegan desde los escáneres.
+ * - Con app.movimientos.agrupar.habilitado=true cada mutación entra a una cola acotada
+ *   (app.movimientos.agrupar.capacidad) y un hilo escritor la vacía cada app.movimientos.agrupar.intervalo-ms,
+ *   o al juntar app.movimientos.agrupar.max-lote, en UNA transacción: SELECT ... FOR UPDATE de los productos del
+ *   lote, cálculo del stock en memoria y UPDATE / INSERT en batch JDBC.
+ * - Cada llamador recibe su CompletableFuture: el stock resultante, o IllegalStateException si su SALIDA dejaría
+ *   el stock negativo (solo esa mutación se rechaza; el resto del lote se escribe).
+ * - Si el lote falla entero (p.ej. un error de BD), se reintenta de a una, cada una en su transacción.
+ * - Con el modo desactivado, o la cola llena, la mutación se escribe en el hilo del llamador (uniéndose a su transacción).
+ *   Desactivado, los llamadores ni siquiera pasan por aquí (MovimientosService.agrupaMovimientos).
+ * - El future de una mutación encolada vence a los app.movimientos.agrupar.espera-max-ms: quien espera no se queda
+ *   colgado si el escritor se atrasa, y lo que venció estando en cola se descarta sin escribir.
+ * Las escrituras van por JDBC, sin entidades: el evento de cambio de producto se publica aquí, y los ids salen
+ * del mismo generador por tabla que usa Hibernate (ver GeneradoresId).
+ */
+@Component
+@Slf4j
+class MovimientosGrupoWriter {
+
+    /** Movimiento pendiente de escribir y el future de quien lo pidió. */
+    record Mutacion(long productoId, String codigoBarras, TipoMovimiento tipo, int cantidad,
+                    String comentario, String referencia, CompletableFuture<Integer> resultado) {
+        int delta() {
+            return switch (tipo) {
+                case ENTRADA -> cantidad;
+                case SALIDA -> -cantidad;
+                default -> 0;
+            };
+        }
+    }
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final ApplicationEventPublisher publisher;
+    private final GeneradorReferencias generadorReferencias;
+    private final IdGeneradores idGeneradores;
+
+    private final boolean habilitado;
+    private final long intervaloNanos;
+    private final int maxLote;
+    private final long esperaMaxMs;
+    private final BlockingQueue<Mutacion> cola;
+    private final Thread hilo;
+    private volatile boolean detenido;
+
+    MovimientosGrupoWriter(JdbcTemplate jdbc,
+                           PlatformTransactionManager txManager,
+                           ApplicationEventPublisher publisher,
+                           GeneradorReferencias generadorReferencias,
+                           IdGeneradores idGeneradores,
+                           @Value("${app.movimientos.agrupar.habilitado:false}") boolean habilitado,
+                           @Value("${app.movimientos.agrupar.intervalo-ms:5}") long intervaloMs,
+                           @Value("${app.movimientos.agrupar.max-lote:200}") int maxLote,
+                           @Value("${app.movimientos.agrupar.capacidad:2000}") int capacidad,
+                           @Value("${app.movimientos.agrupar.espera-max-ms:5000}") long esperaMaxMs) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+        this.publisher = publisher;
+        this.generadorReferencias = generadorReferencias;
+        this.idGeneradores = idGeneradores;
+        this.habilitado = habilitado;
+        this.intervaloNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, intervaloMs));
+        this.maxLote = Math.max(1, maxLote);
+        this.esperaMaxMs = Math.max(1, esperaMaxMs);
+        this.cola = new ArrayBlockingQueue<>(Math.max(1, capacidad));
+        if (habilitado) {
+            hilo = new Thread(this::vaciar, "movimientos-grupo");
+            hilo.setDaemon(true);
+            hilo.start();
+            log.info("Movimientos agrupados: lotes de hasta {} cada {} ms (cola {})", this.maxLote, intervaloMs, capacidad);
+        } else {
+            hilo = null;
+        }
+    }
+
+    boolean habilitado() {
+        return habilitado;
+    }
+
+    /** Encola la mutación (o la escribe en el acto si no corresponde agrupar) y devuelve su future. */
+    CompletableFuture<Integer> enviar(Mutacion m) {
+        if (!habilitado || detenido || !cola.offer(m)) {
+            escribirSola(m);
+            return m.resultado();
+        }
+        return m.resultado().orTimeout(esperaMaxMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Termina de escribir lo que quedó en la cola antes de cerrar. */
+    @PreDestroy
+    void detener() throws InterruptedException {
+        detenido = true;
+        if (hilo != null) hilo.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    // ----------------- hilo escritor -----------------
+
+    private void vaciar() {
+        List<Mutacion> lote = new ArrayList<>(maxLote);
+        while (true) {
+            try {
+                Mutacion primera = cola.poll(100, TimeUnit.MILLISECONDS);
+                if (primera == null) {
+                    if (detenido && cola.isEmpty()) return;
+                    continue;
+                }
+                lote.add(primera);
+                // ventana corta desde la primera: junta lo que llegue mientras tanto
+                long hasta = System.nanoTime() + intervaloNanos;
+                while (lote.size() < maxLote) {
+                    long resta = hasta - System.nanoTime();
+                    Mutacion m = resta > 0 ? cola.poll(resta, TimeUnit.NANOSECONDS) : null;
+                    if (m == null) break;
+                    lote.add(m);
+                }
+                cola.drainTo(lote, maxLote - lote.size());
+                lote.removeIf(m -> m.resultado().isDone()); // vencidas: quien las pidió ya recibió el error
+                if (!lote.isEmpty()) escribirLote(lote);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                detenido = true;
+            } catch (RuntimeException e) {
+                log.error("Movimientos agrupados: error inesperado en el escritor", e);
+                lote.forEach(m -> m.resultado().completeExceptionally(e));
+            } finally {
+                lote.clear();
+            }
+        }
+    }
+
+    private void escribirLote(List<Mutacion> lote) {
+        Map<Mutacion, Object> salida;
+        try {
+            salida = ejecutar(lote);
+        } catch (RuntimeException e) {
+            log.warn("Movimientos agrupados: lote de {} falló ({}); se reintenta de a uno", lote.size(), e.getMessage());
+            lote.forEach(this::escribirSola);
+            return;
+        }
+        completar(salida);
+    }
+
+    private void escribirSola(Mutacion m) {
+        try {
+            completar(ejecutar(List.of(m)));
+        } catch (RuntimeException e) {
+            m.resultado().completeExceptionally(e);
+        }
+    }
+
+    /** Cada mutación con su stock resultante (Integer) o el motivo del rechazo (RuntimeException). */
+    private static void completar(Map<Mutacion, Object> salida) {
+        salida.forEach((m, r) -> {
+            if (r instanceof Integer stock) m.resultado().complete(stock);
+            else m.resultado().completeExceptionally((RuntimeException) r);
+        });
+    }
+
+    /**
+     * Aparta los ids antes de abrir la transacción (la reserva usa su propia conexión: así no se piden dos a la
+     * vez) y escribe el lote. Si hay rechazos sobran ids: quedan huecos, como con cualquier generador por bloques.
+     */
+    private Map<Mutacion, Object> ejecutar(List<Mutacion> lote) {
+        long idCabecera = idGeneradores.reservar(GeneradoresId.MOVIMIENTOS, lote.size());
+        long idLinea = idGeneradores.reservar(GeneradoresId.LINEAS, lote.size());
+        return tx.execute(st -> aplicar(lote, idCabecera, idLinea));
+    }
+
+    // ----------------- escritura del lote (dentro de la transacción) -----------------
+
+    private Map<Mutacion, Object> aplicar(List<Mutacion> lote, long idCabecera, long idLinea) {
+        // 1) bloquea los productos del lote, en orden de id (mismo orden en todos los lotes: sin deadlocks)
+        List<Long> ids = lote.stream().map(Mutacion::productoId).distinct().sorted().toList();
+        Map<Long, Integer> stock = new HashMap<>();
+        jdbc.query("SELECT id, stock_actual FROM productos WHERE id IN (" + marcadores(ids.size()) + ") ORDER BY id FOR UPDATE",
+                rs -> {
+                    stock.put(rs.getLong(1), rs.getInt(2));
+                }, ids.toArray());
+
+        // 2) resultado de cada mutación, en orden de llegada
+        Map<Mutacion, Object> salida = new LinkedHashMap<>();
+        List<Mutacion> aceptadas = new ArrayList<>(lote.size());
+        Map<Long, String> tocados = new LinkedHashMap<>();
+        for (Mutacion m : lote) {
+            Integer actual = stock.get(m.productoId());
+            if (actual == null) {
+                salida.put(m, new IllegalArgumentException("No existe producto con código: " + m.codigoBarras()));
+            } else if (actual + m.delta() < 0) {
+                salida.put(m, new IllegalStateException("Stock insuficiente para " + m.codigoBarras()));
+            } else {
+                stock.put(m.productoId(), actual + m.delta());
+                salida.put(m, actual + m.delta());
+                aceptadas.add(m);
+                tocados.put(m.productoId(), m.codigoBarras());
+            }
+        }
+        if (aceptadas.isEmpty()) return salida;
+
+        Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+        // 3) stock final de cada producto (un UPDATE por producto, no por mutación)
+        jdbc.batchUpdate("UPDATE productos SET stock_actual = ?, version = COALESCE(version, 0) + 1, actualizado_en = ? WHERE id = ?",
+                tocados.keySet().stream().map(id -> new Object[]{stock.get(id), ahora, id}).toList());
+
+        // 4) cabeceras y líneas
+        List<String> refs = aceptadas.stream().map(m -> generadorReferencias.referencia(
+                MovimientosServiceImpl.baseReferencia(m.tipo(), m.codigoBarras(), m.referencia()))).toList();
+        List<Object[]> cabeceras = new ArrayList<>(aceptadas.size());
+        for (int i = 0; i < aceptadas.size(); i++) {
+            Mutacion m = aceptadas.get(i);
+            String comentario = (m.comentario() == null || m.comentario().isBlank()) ? "Ajuste de stock" : m.comentario().trim();
+            cabeceras.add(new Object[]{idCabecera + i, refs.get(i), ahora, m.tipo().name(), comentario, ahora, ahora});
+        }
+        jdbc.batchUpdate("INSERT INTO movimientos_inventario (id, referencia, fecha, tipo, comentario, creado_en, actualizado_en) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?)", cabeceras);
+
+        List<Object[]> lineas = new ArrayList<>(aceptadas.size());
+        for (int i = 0; i < aceptadas.size(); i++) {
+            Mutacion m = aceptadas.get(i);
+            lineas.add(new Object[]{idLinea + i, idCabecera + i, m.productoId(), m.cantidad(), ahora, ahora});
+        }
+        jdbc.batchUpdate("INSERT INTO movimiento_lineas (id, movimiento_id, producto_id, cantidad, created_at, updated_at) "
+                + "VALUES (?, ?, ?, ?, ?, ?)", lineas);
+
+        // 5) sin entidades de por medio: el aviso a los índices va a mano (se entrega tras el commit)
+        tocados.forEach((id, cb) -> publisher.publishEvent(new ProductoCambiadoEvent(id, cb, true)));
+        return salida;
+    }
+
+    private static String marcadores(int n) {
+        return Collections.nCopies(n, "?").stream().collect(Collectors.joining(", "));
+    }
+}
@@ -13,6 +13,8 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @RequiredArgsConstructor
@@ -21,42 +23,33 @@ class MovimientosServiceImpl implements MovimientosService {
     final MovimientoInventarioRepository movimientoInventarioRepository;
     final MovimientoLineaRepository movimientoLineaRepository;
     final ProductoRepository productoRepository;
-
-    private String ensureUniqueRef(String base) {
-        String ref = base;
-        int i = 1;
-        while (movimientoInventarioRepository.existsByReferencia(ref)) {
-            ref = base + "-" + i++;
-            if (i > 50) {
-                ref = base + "-" + System.currentTimeMillis();
-                break;
-            }
-        }
-        return ref;
-    }
+    final MovimientosGrupoWriter grupoWriter;
+    final GeneradorReferencias generadorReferencias;
 
     @Transactional
     @Override
-    public void registrarMovimiento(Producto producto,
-                                    TipoMovimiento tipo,
-                                    int cantidad,
-                                    String comentario,
-                                    String referencia) {
-        if (producto == null || cantidad <= 0) return;
+    public int registrarMovimiento(Producto producto,
+                                   TipoMovimiento tipo,
+                                   int cantidad,
+                                   String comentario,
+                                   String referencia) {
+        if (producto == null || producto.getId() == null) throw new IllegalArgumentException("Producto no persistido");
+        if (cantidad <= 0) throw new IllegalArgumentException("La cantidad debe ser mayor a 0");
 
-        int actual = producto.getStockActual() == null ? 0 : producto.getStockActual();
-        int nuevo = switch (tipo) {
-            case ENTRADA -> actual + cantidad;
-            case SALIDA  -> Math.max(0, actual - cantidad);
-            default      -> actual;
+        int delta = switch (tipo) {
+            case ENTRADA -> cantidad;
+            case SALIDA  -> -cantidad;
+            default      -> 0;
         };
-        producto.setStockActual(nuevo);
-        productoRepository.save(producto);
+        // UPDATE ... SET stock_actual = stock_actual + delta WHERE ... >= 0: sin carrera entre escáneres concurrentes
+        int nuevo = productoRepository.sumarStockActual(producto.getId(), delta).orElseThrow(() ->
+                productoRepository.findStockActualById(producto.getId()).isPresent()
+                        ? new IllegalStateException("Stock insuficiente para " + producto.getCodigoBarras())
+                        : new IllegalArgumentException("No existe producto con código: " + producto.getCodigoBarras()));
+        producto.setStockActual(nuevo); // la entidad quedó desasociada (clearAutomatically): solo informativo
 
-        String base = (referencia == null || referencia.isBlank())
-                ? "UI:" + tipo + ":" + producto.getCodigoBarras() + ":" + System.currentTimeMillis()
-                : referencia;
-        String refUnica = ensureUniqueRef(base);
+        // única por construcción (sin consultar la BD); el índice único de referencia es solo la última defensa
+        String refUnica = generadorReferencias.referencia(baseReferencia(tipo, producto.getCodigoBarras(), referencia));
 
         MovimientoInventario cab = new MovimientoInventario();
         cab.setTipo(tipo);
@@ -70,5 +63,54 @@ class MovimientosServiceImpl implements MovimientosService {
         linea.setProducto(producto);
         linea.setCantidad(cantidad);
         movimientoLineaRepository.save(linea);
+        return nuevo;
+    }
+
+    @Transactional
+    @Override
+    public int fijarStock(Producto producto,
+                          int stockNuevo,
+                          String comentario,
+                          String referencia) {
+        if (producto == null || producto.getId() == null) throw new IllegalArgumentException("Producto no persistido");
+        if (stockNuevo < 0) throw new IllegalArgumentException("El stock no puede ser negativo");
+
+        // fila bloqueada: la diferencia se calcula contra un stock que nadie más está moviendo
+        Producto actual = productoRepository.lockAllByCodigoBarrasIn(List.of(producto.getCodigoBarras())).stream()
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No existe producto con código: " + producto.getCodigoBarras()));
+        int diferencia = stockNuevo - (actual.getStockActual() == null ? 0 : actual.getStockActual());
+        if (diferencia != 0) {
+            registrarMovimiento(actual, diferencia > 0 ? TipoMovimiento.ENTRADA : TipoMovimiento.SALIDA,
+                    Math.abs(diferencia), comentario, referencia);
+        }
+        producto.setStockActual(stockNuevo); // informativo, como en registrarMovimiento
+        return diferencia;
+    }
+
+    /** Parte legible de la referencia: la que pasa el llamador (p.ej. UI/STOCK_RAPIDO:cb) o UI:tipo:cb. */
+    static String baseReferencia(TipoMovimiento tipo, String codigoBarras, String referencia) {
+        return (referencia == null || referencia.isBlank()) ? "UI:" + tipo + ":" + codigoBarras : referencia;
+    }
+
+    @Override
+    public CompletableFuture<Integer> registrarMovimientoAsync(Producto producto,
+                                                               TipoMovimiento tipo,
+                                                               int cantidad,
+                                                               String comentario,
+                                                               String referencia) {
+        if (producto == null || producto.getId() == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Producto no persistido"));
+        }
+        if (cantidad <= 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("La cantidad debe ser mayor a 0"));
+        }
+        return grupoWriter.enviar(new MovimientosGrupoWriter.Mutacion(producto.getId(), producto.getCodigoBarras(),
+                tipo, cantidad, comentario, referencia, new CompletableFuture<>()));
+    }
+
+    @Override
+    public boolean agrupaMovimientos() {
+        return grupoWriter.habilitado();
     }
 }
@@ -0,0 +1,21 @@
+package com.inventario1.Inventario.services.index;
+
+import java.text.Normalizer;
+
+/** Normalización común de los índices de texto: minúsculas y sin tildes ("Néctar" -> "nectar"). */
+final class Normalizador {
+
+    private Normalizador() {}
+
+    static String normalizar(String s) {
+        if (s == null || s.isEmpty()) return "";
+        String nfd = Normalizer.normalize(s, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(nfd.length());
+        for (int i = 0; i < nfd.length(); i++) {
+            char c = nfd.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            sb.append(Character.toLowerCase(c));
+        }
+        return sb.toString().trim();
+    }
+}
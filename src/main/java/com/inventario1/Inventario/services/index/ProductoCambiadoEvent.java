@@ -0,0 +1,14 @@
+package com.inventario1.Inventario.services.index;
+
+/**
+ * Aviso de que un producto cambió (alta, edición, stock, activo/inactivo o borrado).
+ * Lo consumen los índices en memoria para invalidar su entrada tras el commit.
+ * soloStock = true cuando solo cambió stock_actual (líneas de movimiento): los índices
+ * de texto pueden ignorarlo.
+ */
+public record ProductoCambiadoEvent(Long productoId, String codigoBarras, boolean soloStock) {
+
+    public ProductoCambiadoEvent(Long productoId, String codigoBarras) {
+        this(productoId, codigoBarras, false);
+    }
+}
@@ -0,0 +1,36 @@
+package com.inventario1.Inventario.services.index;
+
+import com.inventario1.Inventario.models.MovimientoLinea;
+import com.inventario1.Inventario.models.Producto;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.context.ApplicationEventPublisher;
+
+/**
+ * Entity listener de Producto y MovimientoLinea: publica ProductoCambiadoEvent.
+ * - Producto: cualquier persist/update/remove hecho vía JPA.
+ * - MovimientoLinea: cada línea acompaña un UPDATE atómico de stock_actual (ProductoRepository.sumarStock),
+ *   que no pasa por JPA; la línea es la que avisa que el producto cambió.
+ * Los updates JPQL masivos (@Modifying) no pasan por aquí: quien los llama publica el evento.
+ */
+public class ProductoCambiosListener {
+
+    private final ApplicationEventPublisher publisher;
+
+    public ProductoCambiosListener(ApplicationEventPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onCambio(Object entity) {
+        if (entity instanceof Producto p) {
+            publisher.publishEvent(new ProductoCambiadoEvent(p.getId(), p.getCodigoBarras()));
+        } else if (entity instanceof MovimientoLinea ml && ml.getProducto() != null) {
+            Producto p = ml.getProducto();
+            publisher.publishEvent(new ProductoCambiadoEvent(p.getId(), p.getCodigoBarras(), true));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.inventario1.Inventario.services.index;
+
+import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.dto.ProductoSnapshot;
+import com.inventario1.Inventario.util.CodigoBarras;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Índice en memoria codigo_barras -> ProductoSnapshot para las APIs del escáner.
+ * - Se carga completo al arrancar (una sola consulta de proyección).
+ * - Cada ProductoCambiadoEvent invalida la entrada tras el commit; la siguiente lectura
+ *   la recarga desde BD (un miss), así nunca se sirve un dato no confirmado.
+ * - Cada invalidación sube la versión del código (por franjas, {@link #FRANJAS}). Quien carga desde BD anota la
+ *   versión antes de leer y solo deja la fila si sigue igual: una lectura hecha antes de un commit no vuelve a
+ *   entrar después de que ese commit la invalidó.
+ * - Contadores de hits/misses en {@link #stats()}.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductoCodigoIndex {
+
+    static final int FRANJAS = 4096;
+
+    private final ProductoRepository productoRepository;
+
+    private final Map<String, ProductoSnapshot> porCodigo = new ConcurrentHashMap<>();
+    /** Versión por franja de códigos; sube en cada invalidación (dentro del compute de la clave). */
+    private final AtomicLongArray versiones = new AtomicLongArray(FRANJAS);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidaciones = new LongAdder();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargar() {
+        long t0 = System.nanoTime();
+        long[] antes = new long[FRANJAS];
+        for (int i = 0; i < FRANJAS; i++) antes[i] = versiones.get(i);
+        for (ProductoSnapshot s : productoRepository.findAllSnapshots()) {
+            guardar(s, antes[franja(s.codigoBarras())]);
+        }
+        log.info("Índice de códigos cargado: {} productos en {} ms",
+                porCodigo.size(), (System.nanoTime() - t0) / 1_000_000);
+    }
+
+    /**
+     * Busca por código exacto y, si no aparece, por su forma normalizada (CodigoBarras:
+     * espacios, ".0", notación científica). Si no está en memoria consulta BD y lo deja indexado.
+     */
+    public Optional<ProductoSnapshot> buscar(String codigoBarras) {
+        if (codigoBarras == null || codigoBarras.isBlank()) return Optional.empty();
+        String norm = CodigoBarras.normalizar(codigoBarras);
+        if (norm != null && norm.equals(codigoBarras)) norm = null;   // ya venía normalizado
+
+        ProductoSnapshot s = porCodigo.get(codigoBarras);
+        if (s == null && norm != null) s = porCodigo.get(norm);
+        if (s != null) {
+            hits.increment();
+            return Optional.of(s);
+        }
+        misses.increment();
+        long v = versiones.get(franja(codigoBarras));
+        String normal = norm;
+        long vNorm = normal == null ? 0 : versiones.get(franja(normal));
+        Optional<ProductoSnapshot> db = productoRepository.findSnapshotByCodigoBarras(codigoBarras);
+        if (db.isEmpty() && normal != null) db = productoRepository.findSnapshotByCodigoBarras(normal);
+        db.ifPresent(x -> {
+            // la collation puede devolver otro código (mayúsculas, espacios): ese no se deja indexado
+            if (x.codigoBarras().equals(codigoBarras)) guardar(x, v);
+            else if (x.codigoBarras().equals(normal)) guardar(x, vNorm);
+        });
+        return db;
+    }
+
+    public boolean existe(String codigoBarras) {
+        return buscar(codigoBarras).isPresent();
+    }
+
+    public void invalidar(String codigoBarras) {
+        if (codigoBarras == null) return;
+        porCodigo.compute(codigoBarras, (k, viejo) -> {
+            versiones.incrementAndGet(franja(k));
+            return null;
+        });
+        invalidaciones.increment();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductoCambiado(ProductoCambiadoEvent ev) {
+        invalidar(ev.codigoBarras());
+    }
+
+    /** Deja la fila si la versión de su código no cambió desde "version" (leída antes de ir a BD). */
+    private void guardar(ProductoSnapshot s, long version) {
+        porCodigo.compute(s.codigoBarras(), (k, viejo) ->
+                versiones.get(franja(k)) == version ? s : viejo);
+    }
+
+    private static int franja(String codigo) {
+        int h = codigo.hashCode();
+        return (h ^ (h >>> 16)) & (FRANJAS - 1);
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.sum(), m = misses.sum();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("entradas", porCodigo.size());
+        out.put("hits", h);
+        out.put("misses", m);
+        out.put("hitRatio", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        out.put("invalidaciones", invalidaciones.sum());
+        return out;
+    }
+}
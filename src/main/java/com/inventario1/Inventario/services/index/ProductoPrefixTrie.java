@@ -0,0 +1,276 @@
+package com.inventario1.Inventario.services.index;
+
+import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.dto.ProductoSnapshot;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Trie de prefijos para autocompletar en los escáneres (/productos/api/suggest).
+ * Claves por producto ACTIVO: el código de barras, el nombre normalizado y cada sufijo del
+ * nombre que empieza en una palabra ("cerveza escudo lata" -> "escudo lata", "lata").
+ * Las claves se truncan a {@link #MAX_CLAVE} caracteres para acotar el tamaño.
+ * - Hijos en arreglos ordenados (char[] + Nodo[]), sin HashMap por nodo.
+ * - La consulta baja por el prefijo y recorre en orden lexicográfico hasta juntar k resultados:
+ *   como no quedan nodos sin entradas (se podan al quitar), visita del orden de k * MAX_CLAVE
+ *   nodos y solo asigna el arreglo de salida.
+ * - Cambios: ProductoCambiadoEvent deja el código pendiente (con un número de secuencia); la siguiente
+ *   consulta recarga todos los pendientes en una sola query y reemplaza sus claves. Como en
+ *   {@link ProductoTrigramIndex}: si la query falla los códigos vuelven a pendientes, y cada código recuerda la
+ *   secuencia aplicada, así una recarga más vieja que llega tarde no pisa a una más nueva.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductoPrefixTrie {
+
+    static final int MAX_CLAVE = 40;
+    public static final int MAX_K = 20;
+
+    private final ProductoRepository productoRepository;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Nodo raiz = new Nodo();
+    private final Map<String, Entrada> porCodigo = new HashMap<>();
+    private final Map<String, Long> aplicado = new HashMap<>();              // código -> secuencia ya aplicada
+    private final Map<String, Long> pendientes = new ConcurrentHashMap<>(); // código -> secuencia del cambio
+    private final AtomicLong secuencia = new AtomicLong();
+
+    /** Sugerencia devuelta al cliente. */
+    public record Sugerencia(String codigoBarras, String nombre) {}
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargar() {
+        long t0 = System.nanoTime();
+        long desde = secuencia.get();
+        List<ProductoSnapshot> todos = productoRepository.findAllSnapshots();
+        lock.writeLock().lock();
+        try {
+            // un código que ya se recargó con un cambio posterior a la lectura completa conserva sus claves
+            for (ProductoSnapshot s : todos) {
+                if (aplicado.getOrDefault(s.codigoBarras(), 0L) <= desde) agregar(s);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Trie de sugerencias cargado: {} productos en {} ms",
+                porCodigo.size(), (System.nanoTime() - t0) / 1_000_000);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductoCambiado(ProductoCambiadoEvent ev) {
+        if (!ev.soloStock() && ev.codigoBarras() != null) pendientes.put(ev.codigoBarras(), secuencia.incrementAndGet());
+    }
+
+    /** Hasta k productos (distintos) cuyo código o nombre empiece por prefix. */
+    public List<Sugerencia> sugerir(String prefix, int k) {
+        aplicarPendientes();
+        String np = Normalizador.normalizar(prefix);
+        if (np.isEmpty() || k <= 0) return List.of();
+        if (np.length() > MAX_CLAVE) np = np.substring(0, MAX_CLAVE);
+        k = Math.min(k, MAX_K);
+
+        lock.readLock().lock();
+        try {
+            Nodo n = raiz;
+            for (int i = 0; i < np.length() && n != null; i++) n = n.hijo(np.charAt(i));
+            if (n == null) return List.of();
+
+            Entrada[] out = new Entrada[k];
+            int c = recolectar(n, out, 0);
+            List<Sugerencia> res = new ArrayList<>(c);
+            for (int i = 0; i < c; i++) res.add(new Sugerencia(out[i].codigo, out[i].nombre));
+            return res;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ----------------- recorrido -----------------
+
+    /** DFS en orden lexicográfico; corta apenas out está lleno. Devuelve cuántos hay en out. */
+    private static int recolectar(Nodo n, Entrada[] out, int c) {
+        for (int i = 0; i < n.nEntradas && c < out.length; i++) {
+            Entrada e = n.entradas[i];
+            if (!contiene(out, c, e)) out[c++] = e;
+        }
+        for (int i = 0; i < n.n && c < out.length; i++) c = recolectar(n.hijos[i], out, c);
+        return c;
+    }
+
+    private static boolean contiene(Entrada[] out, int c, Entrada e) {
+        for (int i = 0; i < c; i++) if (out[i] == e) return true;
+        return false;
+    }
+
+    // ----------------- mantenimiento -----------------
+
+    private void aplicarPendientes() {
+        if (pendientes.isEmpty()) return;
+        Map<String, Long> tomados = new HashMap<>();
+        for (Map.Entry<String, Long> e : pendientes.entrySet()) {
+            // solo si nadie la cambió entretanto (un cambio nuevo queda pendiente para la próxima)
+            if (pendientes.remove(e.getKey(), e.getValue())) tomados.put(e.getKey(), e.getValue());
+        }
+        if (tomados.isEmpty()) return;
+
+        Map<String, ProductoSnapshot> frescos = new HashMap<>();
+        try {
+            for (ProductoSnapshot s : productoRepository.findSnapshotsByCodigoBarrasIn(new ArrayList<>(tomados.keySet()))) {
+                frescos.put(s.codigoBarras(), s);
+            }
+        } catch (RuntimeException e) {
+            tomados.forEach((cb, seq) -> pendientes.merge(cb, seq, Math::max));
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            tomados.forEach((cb, seq) -> {
+                if (aplicado.getOrDefault(cb, 0L) >= seq) return; // otro hilo aplicó una recarga posterior
+                aplicado.put(cb, seq);
+                ProductoSnapshot s = frescos.get(cb);
+                if (s != null) agregar(s);
+                else quitar(cb);
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Requiere write lock. Reemplaza las claves si el código ya estaba; solo indexa activos. */
+    private void agregar(ProductoSnapshot s) {
+        if (s.codigoBarras() == null) return;
+        quitar(s.codigoBarras());
+        if (!Boolean.TRUE.equals(s.activo())) return;
+        Entrada e = new Entrada(s.codigoBarras(), s.nombre() == null ? "" : s.nombre(), claves(s));
+        porCodigo.put(e.codigo, e);
+        for (String clave : e.claves) nodoPara(clave).agregarEntrada(e);
+    }
+
+    /** Requiere write lock. Poda los nodos que quedan sin entradas ni hijos. */
+    private void quitar(String codigoBarras) {
+        Entrada e = porCodigo.remove(codigoBarras);
+        if (e == null) return;
+        for (String clave : e.claves) {
+            Nodo[] camino = new Nodo[clave.length() + 1];
+            camino[0] = raiz;
+            int d = 0;
+            while (d < clave.length() && camino[d] != null) {
+                camino[d + 1] = camino[d].hijo(clave.charAt(d));
+                d++;
+            }
+            if (camino[clave.length()] == null) continue;
+            camino[clave.length()].quitarEntrada(e);
+            for (int i = clave.length(); i > 0 && camino[i].vacio(); i--) {
+                camino[i - 1].quitarHijo(clave.charAt(i - 1));
+            }
+        }
+    }
+
+    private Nodo nodoPara(String clave) {
+        Nodo n = raiz;
+        for (int i = 0; i < clave.length(); i++) n = n.hijoOCrear(clave.charAt(i));
+        return n;
+    }
+
+    private static String[] claves(ProductoSnapshot s) {
+        Set<String> out = new LinkedHashSet<>();
+        out.add(truncar(Normalizador.normalizar(s.codigoBarras())));
+        String nom = Normalizador.normalizar(s.nombre());
+        if (!nom.isEmpty()) {
+            out.add(truncar(nom));
+            for (int i = 1; i < nom.length(); i++) {
+                if (nom.charAt(i - 1) == ' ' && nom.charAt(i) != ' ') out.add(truncar(nom.substring(i)));
+            }
+        }
+        out.remove("");
+        return out.toArray(new String[0]);
+    }
+
+    private static String truncar(String s) {
+        return s.length() > MAX_CLAVE ? s.substring(0, MAX_CLAVE) : s;
+    }
+
+    private static final class Entrada {
+        final String codigo;
+        final String nombre;
+        final String[] claves;
+
+        Entrada(String codigo, String nombre, String[] claves) {
+            this.codigo = codigo;
+            this.nombre = nombre;
+            this.claves = claves;
+        }
+    }
+
+    private static final class Nodo {
+        private static final char[] SIN_LETRAS = new char[0];
+        private static final Nodo[] SIN_HIJOS = new Nodo[0];
+
+        char[] letras = SIN_LETRAS;
+        Nodo[] hijos = SIN_HIJOS;
+        int n;
+        Entrada[] entradas;
+        int nEntradas;
+
+        Nodo hijo(char c) {
+            int i = Arrays.binarySearch(letras, 0, n, c);
+            return i >= 0 ? hijos[i] : null;
+        }
+
+        Nodo hijoOCrear(char c) {
+            int i = Arrays.binarySearch(letras, 0, n, c);
+            if (i >= 0) return hijos[i];
+            i = -i - 1;
+            if (n == letras.length) {
+                int cap = Math.max(2, n * 2);
+                letras = Arrays.copyOf(letras, cap);
+                hijos = Arrays.copyOf(hijos, cap);
+            }
+            System.arraycopy(letras, i, letras, i + 1, n - i);
+            System.arraycopy(hijos, i, hijos, i + 1, n - i);
+            Nodo h = new Nodo();
+            letras[i] = c;
+            hijos[i] = h;
+            n++;
+            return h;
+        }
+
+        boolean vacio() {
+            return n == 0 && nEntradas == 0;
+        }
+
+        void quitarHijo(char c) {
+            int i = Arrays.binarySearch(letras, 0, n, c);
+            if (i < 0) return;
+            System.arraycopy(letras, i + 1, letras, i, n - i - 1);
+            System.arraycopy(hijos, i + 1, hijos, i, n - i - 1);
+            hijos[--n] = null;
+        }
+
+        void agregarEntrada(Entrada e) {
+            if (entradas == null) entradas = new Entrada[1];
+            else if (nEntradas == entradas.length) entradas = Arrays.copyOf(entradas, nEntradas * 2);
+            entradas[nEntradas++] = e;
+        }
+
+        void quitarEntrada(Entrada e) {
+            for (int i = 0; i < nEntradas; i++) {
+                if (entradas[i] == e) {
+                    System.arraycopy(entradas, i + 1, entradas, i, nEntradas - i - 1);
+                    entradas[--nEntradas] = null;
+                    return;
+                }
+            }
+        }
+    }
+}
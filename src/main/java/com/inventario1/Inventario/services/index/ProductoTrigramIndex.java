@@ -0,0 +1,278 @@
+package com.inventario1.Inventario.services.index;
+
+import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.dto.ProductoSnapshot;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Índice invertido de trigramas sobre nombre, marca y código de barras (normalizados).
+ * Reemplaza los "like '%q%'" de /buscar y /salidas/nueva:
+ * - Consultas de 3+ caracteres: intersección de las listas de trigramas (de la más corta a la
+ *   más larga) y verificación exacta de la subcadena sobre los candidatos.
+ * - Consultas de 1–2 caracteres: recorrido en memoria (no hay trigramas que usar).
+ * - Orden por relevancia: código exacto, prefijo de código, prefijo de nombre, inicio de palabra,
+ *   contiene en nombre, en marca, en código. Empates por nombre e id. Solo se ordena la página pedida:
+ *   un heap acotado a (page + 1) * size mantiene los mejores mientras se cuentan todas las coincidencias.
+ * Cambios: ProductoCambiadoEvent deja el código como pendiente (con un número de secuencia) y la siguiente
+ * búsqueda recarga todos los pendientes en una sola consulta.
+ * - Si la consulta falla, los códigos vuelven a pendientes.
+ * - Cada código recuerda la secuencia con que se aplicó: una recarga más vieja que llega tarde (otro hilo ya
+ *   aplicó una posterior) no pisa al doc nuevo.
+ * - Los ordinales que quedan libres se reutilizan, así docs no acumula huecos con cada edición.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProductoTrigramIndex {
+
+    private final ProductoRepository productoRepository;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Doc> docs = new ArrayList<>();                  // ordinal -> doc (null si está libre)
+    private final Deque<Integer> libres = new ArrayDeque<>();            // ordinales libres para reutilizar
+    private final Map<String, Integer> ordinalPorCodigo = new HashMap<>();
+    private final Map<Long, Posting> postings = new HashMap<>();         // trigrama -> ordinales ordenados
+    private final Map<String, Long> aplicado = new HashMap<>();          // código -> secuencia ya aplicada
+    private final Map<String, Long> pendientes = new ConcurrentHashMap<>(); // código -> secuencia del cambio
+    private final AtomicLong secuencia = new AtomicLong();
+
+    private static final Comparator<Hit> ORDEN = Comparator.comparingInt(Hit::puntaje)
+            .thenComparing(h -> h.doc().nombre())
+            .thenComparingLong(h -> h.doc().id());
+
+    public record Resultado(List<Long> ids, long total) {}
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargar() {
+        long t0 = System.nanoTime();
+        long desde = secuencia.get();
+        List<ProductoSnapshot> todos = productoRepository.findAllSnapshots();
+        lock.writeLock().lock();
+        try {
+            // un código que ya se recargó con un cambio posterior a la lectura completa conserva su doc
+            for (ProductoSnapshot s : todos) {
+                if (aplicado.getOrDefault(s.codigoBarras(), 0L) <= desde) agregar(s);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Índice de trigramas cargado: {} productos, {} trigramas en {} ms",
+                todos.size(), postings.size(), (System.nanoTime() - t0) / 1_000_000);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductoCambiado(ProductoCambiadoEvent ev) {
+        if (!ev.soloStock() && ev.codigoBarras() != null) pendientes.put(ev.codigoBarras(), secuencia.incrementAndGet());
+    }
+
+    /**
+     * Busca productos activos (o inactivos) que contengan q en nombre, marca o código.
+     * @return ids de la página pedida, en orden de relevancia, y el total de coincidencias
+     */
+    public Resultado buscar(String q, boolean activos, int page, int size) {
+        aplicarPendientes();
+        String nq = Normalizador.normalizar(q);
+        if (nq.isEmpty() || size <= 0) return new Resultado(List.of(), 0);
+
+        long desde = (long) Math.max(page, 0) * size;
+        int k = (int) Math.min(desde + size, Integer.MAX_VALUE - 8);
+
+        lock.readLock().lock();
+        try {
+            // max-heap de los k mejores: la raíz es el peor de los que se quedan
+            PriorityQueue<Hit> top = new PriorityQueue<>(Math.min(k, 1024), ORDEN.reversed());
+            long total = 0;
+            if (nq.length() < 3) {
+                for (Doc d : docs) {
+                    if (d != null && d.activo() == activos && considerar(top, k, d, nq)) total++;
+                }
+            } else {
+                for (int ord : candidatos(nq)) {
+                    Doc d = docs.get(ord);
+                    if (d != null && d.activo() == activos && considerar(top, k, d, nq)) total++;
+                }
+            }
+            if (top.size() <= desde) return new Resultado(List.of(), total);
+
+            Hit[] orden = top.toArray(new Hit[0]);
+            Arrays.sort(orden, ORDEN);
+            List<Long> ids = new ArrayList<>(orden.length - (int) desde);
+            for (int i = (int) desde; i < orden.length; i++) ids.add(orden[i].doc().id());
+            return new Resultado(ids, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Cuenta el doc si contiene nq y lo deja en el heap si está entre los k mejores. */
+    private static boolean considerar(PriorityQueue<Hit> top, int k, Doc d, String nq) {
+        int s = puntaje(d, nq);
+        if (s < 0) return false;
+        if (k <= 0) return true;
+        Hit h = new Hit(d, s);
+        if (top.size() < k) {
+            top.add(h);
+        } else if (ORDEN.compare(h, top.peek()) < 0) {
+            top.poll();
+            top.add(h);
+        }
+        return true;
+    }
+
+    // ----------------- mantenimiento -----------------
+
+    private void aplicarPendientes() {
+        if (pendientes.isEmpty()) return;
+        Map<String, Long> tomados = new HashMap<>();
+        for (Map.Entry<String, Long> e : pendientes.entrySet()) {
+            // solo si nadie la cambió entretanto (un cambio nuevo queda pendiente para la próxima)
+            if (pendientes.remove(e.getKey(), e.getValue())) tomados.put(e.getKey(), e.getValue());
+        }
+        if (tomados.isEmpty()) return;
+
+        Map<String, ProductoSnapshot> frescos = new HashMap<>();
+        try {
+            for (ProductoSnapshot s : productoRepository.findSnapshotsByCodigoBarrasIn(new ArrayList<>(tomados.keySet()))) {
+                frescos.put(s.codigoBarras(), s);
+            }
+        } catch (RuntimeException e) {
+            tomados.forEach((cb, seq) -> pendientes.merge(cb, seq, Math::max));
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            tomados.forEach((cb, seq) -> {
+                if (aplicado.getOrDefault(cb, 0L) >= seq) return; // otro hilo aplicó una recarga posterior
+                aplicado.put(cb, seq);
+                ProductoSnapshot s = frescos.get(cb);
+                if (s != null) agregar(s);
+                else quitar(cb);
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Requiere write lock. Reemplaza el doc si el código ya estaba indexado. */
+    private void agregar(ProductoSnapshot s) {
+        quitar(s.codigoBarras());
+        Doc d = new Doc(s.id(), Normalizador.normalizar(s.codigoBarras()),
+                Normalizador.normalizar(s.nombre()), Normalizador.normalizar(s.marca()),
+                Boolean.TRUE.equals(s.activo()));
+        Integer libre = libres.pollFirst();
+        int ord;
+        if (libre != null) {
+            ord = libre;
+            docs.set(ord, d);
+        } else {
+            ord = docs.size();
+            docs.add(d);
+        }
+        ordinalPorCodigo.put(s.codigoBarras(), ord);
+        for (long t : trigramas(d)) postings.computeIfAbsent(t, k -> new Posting()).add(ord);
+    }
+
+    /** Requiere write lock. */
+    private void quitar(String codigoBarras) {
+        Integer ord = ordinalPorCodigo.remove(codigoBarras);
+        if (ord == null) return;
+        Doc d = docs.set(ord, null);
+        if (d == null) return;
+        for (long t : trigramas(d)) {
+            Posting p = postings.get(t);
+            if (p != null && p.remove(ord) && p.size == 0) postings.remove(t);
+        }
+        libres.addFirst(ord);
+    }
+
+    // ----------------- consulta -----------------
+
+    private int[] candidatos(String nq) {
+        Set<Long> claves = new HashSet<>();
+        agregarTrigramas(nq, claves);
+        List<Posting> listas = new ArrayList<>(claves.size());
+        for (long t : claves) {
+            Posting p = postings.get(t);
+            if (p == null) return new int[0];
+            listas.add(p);
+        }
+        listas.sort(Comparator.comparingInt(p -> p.size));
+
+        int[] acc = Arrays.copyOf(listas.get(0).ords, listas.get(0).size);
+        int n = acc.length;
+        for (int i = 1; i < listas.size() && n > 0; i++) {
+            Posting p = listas.get(i);
+            int m = 0;
+            for (int k = 0; k < n; k++) {
+                if (Arrays.binarySearch(p.ords, 0, p.size, acc[k]) >= 0) acc[m++] = acc[k];
+            }
+            n = m;
+        }
+        return n == acc.length ? acc : Arrays.copyOf(acc, n);
+    }
+
+    /** Menor es mejor; -1 si no contiene q. */
+    private static int puntaje(Doc d, String nq) {
+        if (d.codigo().equals(nq)) return 0;
+        if (d.codigo().startsWith(nq)) return 1;
+        if (d.nombre().startsWith(nq)) return 2;
+        int i = d.nombre().indexOf(nq);
+        if (i > 0 && d.nombre().charAt(i - 1) == ' ') return 3;
+        if (i >= 0) return 4;
+        if (d.marca().contains(nq)) return 5;
+        if (d.codigo().contains(nq)) return 6;
+        return -1;
+    }
+
+    private static Set<Long> trigramas(Doc d) {
+        Set<Long> out = new HashSet<>();
+        agregarTrigramas(d.nombre(), out);
+        agregarTrigramas(d.marca(), out);
+        agregarTrigramas(d.codigo(), out);
+        return out;
+    }
+
+    private static void agregarTrigramas(String s, Set<Long> out) {
+        for (int i = 0; i + 3 <= s.length(); i++) {
+            out.add(((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2));
+        }
+    }
+
+    private record Doc(long id, String codigo, String nombre, String marca, boolean activo) {}
+
+    private record Hit(Doc doc, int puntaje) {}
+
+    /** Lista ordenada de ordinales (int[] creciente, sin boxing). */
+    private static final class Posting {
+        int[] ords = new int[4];
+        int size;
+
+        void add(int v) {
+            int i = Arrays.binarySearch(ords, 0, size, v);
+            if (i >= 0) return;
+            i = -i - 1;
+            if (size == ords.length) ords = Arrays.copyOf(ords, size * 2);
+            System.arraycopy(ords, i, ords, i + 1, size - i);
+            ords[i] = v;
+            size++;
+        }
+
+        boolean remove(int v) {
+            int i = Arrays.binarySearch(ords, 0, size, v);
+            if (i < 0) return false;
+            System.arraycopy(ords, i + 1, ords, i, size - i - 1);
+            size--;
+            return true;
+        }
+    }
+}
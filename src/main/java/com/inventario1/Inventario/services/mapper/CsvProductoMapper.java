@@ -4,6 +4,7 @@ package com.inventario1.Inventario.services.mapper;
 import com.inventario1.Inventario.models.Categoria;
 import com.inventario1.Inventario.models.UnidadBase;
 import com.inventario1.Inventario.services.dto.FilaProducto;
+import com.inventario1.Inventario.util.CodigoBarras;
 import com.inventario1.Inventario.util.csv.FlexibleCsvReader;
 
 import java.math.BigDecimal;
@@ -19,7 +20,7 @@ public final class CsvProductoMapper {
     public static FilaProducto fromRow(FlexibleCsvReader.CsvRow row) {
         List<String> errs = new ArrayList<>();
 
-        String cb     = val(row, "codigo_barras");
+        String cb     = CodigoBarras.normalizar(val(row, "codigo_barras"));
         String nombre = val(row, "nombre");
         String marca  = val(row, "marca");
         String precio = val(row, "precio");
@@ -33,7 +34,9 @@ public final class CsvProductoMapper {
         String min    = val(row, "stock_minimo");
         String act    = val(row, "activo");
 
-        if (isBlank(cb)) errs.add("codigo_barras vacío");
+        if (isBlank(cb)) errs.add(isBlank(val(row, "codigo_barras")) ? "codigo_barras vacío"
+                : "codigo_barras inválido (sin dígitos o más de " + CodigoBarras.MAX + ")");
+        else if (CodigoBarras.gtinInvalido(cb)) errs.add("codigo_barras con dígito verificador inválido: " + cb);
         if (isBlank(nombre)) errs.add("nombre vacío");
         if (isBlank(marca)) errs.add("marca vacío");
 
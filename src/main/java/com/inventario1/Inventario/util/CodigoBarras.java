@@ -0,0 +1,174 @@
+package com.inventario1.Inventario.util;
+
+/**
+ * Normalización y validación de códigos de barras, compartida por importadores y búsquedas.
+ * - Acepta lo que suele llegar desde Excel/CSV: "7801234567890", " 7801234567890.0 ",
+ *   "7,80123456789E+12", "780 1234 567890" -> "7801234567890".
+ * - Trabaja sobre un char[] reutilizable (por hilo), sin regex ni Strings intermedios;
+ *   si la entrada ya son solo dígitos se devuelve la misma instancia.
+ * - Dígito verificador GTIN para EAN-8, UPC-A (12), EAN-13 y GTIN-14: los importadores rechazan las filas
+ *   con un GTIN mal formado ({@link #gtinInvalido}).
+ */
+public final class CodigoBarras {
+    private CodigoBarras() {}
+
+    /**
+     * Largo máximo aceptado tras normalizar: el de la columna productos.codigo_barras (Producto.codigoBarras,
+     * length = 32). Un código más largo no se normaliza (null) en vez de fallar recién al insertar.
+     */
+    public static final int MAX = 32;
+
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[MAX]);
+
+    /** Código normalizado (solo dígitos) o null si no queda ninguno. */
+    public static String normalizar(String raw) {
+        if (raw == null) return null;
+        if (soloDigitos(raw)) return raw.length() <= MAX ? raw : null;
+        char[] buf = BUFFER.get();
+        int n = normalizar(raw, buf);
+        return n <= 0 ? null : new String(buf, 0, n);
+    }
+
+    /**
+     * Escribe en out los dígitos normalizados de raw.
+     * @return cantidad de dígitos escritos; 0 si no hay ninguno, -1 si no caben en out
+     */
+    public static int normalizar(CharSequence raw, char[] out) {
+        if (raw == null) return 0;
+        int ini = 0, fin = raw.length();
+        while (ini < fin && raw.charAt(ini) <= ' ') ini++;
+        while (fin > ini && raw.charAt(fin - 1) <= ' ') fin--;
+        if (ini == fin) return 0;
+
+        int e = posExponente(raw, ini, fin);
+        if (e >= 0) {
+            int n = expandirCientifico(raw, ini, e, fin, out);
+            if (n != 0) return n;
+            // no era notación científica válida: se trata como texto
+        }
+
+        // ".0", ",00"... al final: se descarta la parte decimal (número exportado por Excel)
+        fin = sinDecimalesCero(raw, ini, fin);
+
+        int n = 0;
+        for (int i = ini; i < fin; i++) {
+            char c = raw.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (n == out.length) return -1;
+                out[n++] = c;
+            }
+        }
+        return n;
+    }
+
+    /** true si es un GTIN (8, 12, 13 o 14 dígitos) con dígito verificador correcto. */
+    public static boolean digitoControlValido(CharSequence codigo) {
+        if (codigo == null) return false;
+        int len = codigo.length();
+        if (len != 8 && len != 12 && len != 13 && len != 14) return false;
+        if (!soloDigitos(codigo)) return false;
+        return codigo.charAt(len - 1) == digitoControl(codigo, len - 1);
+    }
+
+    /**
+     * true si tiene largo de GTIN (8, 12, 13 o 14 dígitos) pero el dígito verificador no cuadra: un código mal
+     * digitado o truncado. Los códigos internos de otro largo no se validan.
+     */
+    public static boolean gtinInvalido(CharSequence codigo) {
+        if (codigo == null) return false;
+        int len = codigo.length();
+        if (len != 8 && len != 12 && len != 13 && len != 14) return false;
+        return soloDigitos(codigo) && codigo.charAt(len - 1) != digitoControl(codigo, len - 1);
+    }
+
+    /** Dígito verificador GTIN (módulo 10, pesos 3/1 desde la derecha) de los primeros len dígitos. */
+    public static char digitoControl(CharSequence cuerpo, int len) {
+        int suma = 0;
+        boolean tres = true;
+        for (int i = len - 1; i >= 0; i--) {
+            int d = cuerpo.charAt(i) - '0';
+            suma += tres ? d * 3 : d;
+            tres = !tres;
+        }
+        return (char) ('0' + (10 - suma % 10) % 10);
+    }
+
+    public static boolean soloDigitos(CharSequence s) {
+        int len = s.length();
+        if (len == 0) return false;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    // ----------------- helpers -----------------
+
+    private static int posExponente(CharSequence s, int ini, int fin) {
+        for (int i = ini + 1; i < fin; i++) {
+            char c = s.charAt(i);
+            if (c == 'e' || c == 'E') return i;
+        }
+        return -1;
+    }
+
+    /**
+     * "7,80123456789E+12" -> 7801234567890 (misma truncación que el (long) Double.parseDouble anterior,
+     * pero exacta: se corre la coma sobre los dígitos de la mantisa).
+     * @return dígitos escritos, 0 si la forma no es [dígitos][.,dígitos]E[+-]dígitos, -1 si no caben
+     */
+    private static int expandirCientifico(CharSequence s, int ini, int e, int fin, char[] out) {
+        // exponente
+        int i = e + 1;
+        boolean neg = false;
+        if (i < fin && (s.charAt(i) == '+' || s.charAt(i) == '-')) neg = s.charAt(i++) == '-';
+        if (i == fin) return 0;
+        int exp = 0;
+        for (; i < fin; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return 0;
+            exp = exp * 10 + (c - '0');
+            if (exp > MAX) return -1;
+        }
+        if (neg) exp = -exp;
+
+        // mantisa: dígitos enteros + decimales, se guarda cuántos son enteros
+        int n = 0, enteros = -1;
+        for (i = ini; i < e; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (n == out.length) return -1;
+                out[n++] = c;
+            } else if ((c == '.' || c == ',') && enteros < 0) {
+                enteros = n;
+            } else {
+                return 0;
+            }
+        }
+        if (n == 0) return 0;
+        if (enteros < 0) enteros = n;
+
+        int largo = enteros + exp;               // dígitos de la parte entera del resultado
+        if (largo <= 0) {                        // menor que 1: como el (long) anterior, queda "0"
+            out[0] = '0';
+            return 1;
+        }
+        if (largo > out.length) return -1;
+        for (int k = n; k < largo; k++) out[k] = '0';
+
+        // como número no lleva ceros a la izquierda ("0.78E2" -> "78")
+        int z = 0;
+        while (z < largo - 1 && out[z] == '0') z++;
+        if (z > 0) System.arraycopy(out, z, out, 0, largo - z);
+        return largo - z;
+    }
+
+    /** Si termina en separador decimal seguido solo de ceros, devuelve el fin sin esa parte. */
+    private static int sinDecimalesCero(CharSequence s, int ini, int fin) {
+        int i = fin - 1;
+        while (i > ini && s.charAt(i) == '0') i--;
+        if (i > ini && i < fin - 1 && (s.charAt(i) == '.' || s.charAt(i) == ',')) return i;
+        return fin;
+    }
+}
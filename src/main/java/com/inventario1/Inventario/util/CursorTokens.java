@@ -0,0 +1,68 @@
+package com.inventario1.Inventario.util;
+
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tokens opacos de paginación keyset: codifican un KeysetScrollPosition (dirección + claves)
+ * en Base64 URL-safe, para que la vista solo pase "cursor=..." sin exponer columnas ni offsets.
+ * Formato interno: D␟clave=Tvalor␟... con D = F/B y T = S (String) o L (Long).
+ */
+public final class CursorTokens {
+    private CursorTokens() {}
+
+    private static final char SEP = '\u001F';
+
+    public static String encode(ScrollPosition pos) {
+        if (!(pos instanceof KeysetScrollPosition k) || k.isInitial()) return null;
+        StringBuilder sb = new StringBuilder(k.scrollsForward() ? "F" : "B");
+        for (Map.Entry<String, Object> e : k.getKeys().entrySet()) {
+            Object v = e.getValue();
+            sb.append(SEP).append(e.getKey()).append('=')
+                    .append(v instanceof Number ? 'L' : 'S')
+                    .append(v instanceof Number n ? Long.toString(n.longValue()) : String.valueOf(v));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Token de la página siguiente a la ventana obtenida con {@code pedido}, o null si no hay. */
+    public static String siguiente(Window<?> w, KeysetScrollPosition pedido) {
+        if (w.isEmpty()) return null;
+        boolean hay = pedido.scrollsForward() ? w.hasNext() : true;
+        return hay ? encode(((KeysetScrollPosition) w.positionAt(w.size() - 1)).forward()) : null;
+    }
+
+    /** Token de la página anterior a la ventana obtenida con {@code pedido}, o null si es la primera. */
+    public static String anterior(Window<?> w, KeysetScrollPosition pedido) {
+        if (w.isEmpty()) return null;
+        boolean hay = pedido.scrollsForward() ? !pedido.isInitial() : w.hasNext();
+        return hay ? encode(((KeysetScrollPosition) w.positionAt(0)).backward()) : null;
+    }
+
+    /** Token nulo, vacío o inválido -> primera página. */
+    public static KeysetScrollPosition decode(String token) {
+        if (token == null || token.isBlank()) return ScrollPosition.keyset();
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] partes = raw.split(String.valueOf(SEP));
+            Map<String, Object> keys = new LinkedHashMap<>();
+            for (int i = 1; i < partes.length; i++) {
+                int eq = partes[i].indexOf('=');
+                String nombre = partes[i].substring(0, eq);
+                char tipo = partes[i].charAt(eq + 1);
+                String valor = partes[i].substring(eq + 2);
+                keys.put(nombre, tipo == 'L' ? (Object) Long.valueOf(valor) : valor);
+            }
+            if (keys.isEmpty()) return ScrollPosition.keyset();
+            return "B".equals(partes[0]) ? ScrollPosition.backward(keys) : ScrollPosition.forward(keys);
+        } catch (RuntimeException e) {
+            return ScrollPosition.keyset();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.inventario1.Inventario.web;
+
+import com.inventario1.Inventario.files.DirectorioImagenes;
+import com.inventario1.Inventario.files.FileStorageService;
+import com.inventario1.Inventario.services.ProductoImagenAlmacenMigration;
+import com.inventario1.Inventario.services.ProductoImagenService;
+import com.inventario1.Inventario.services.ProductoMiniaturaService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tareas de administración sobre imágenes de producto (solo SUPERVISOR, ver SecurityConfig).
+ */
+@RestController
+@RequestMapping("/admin/imagenes")
+@RequiredArgsConstructor
+public class AdminImagenesController {
+
+    private final ProductoImagenAlmacenMigration almacenMigration;
+    private final ProductoImagenService productoImagenService;
+    private final ProductoMiniaturaService productoMiniaturaService;
+    private final FileStorageService fileStorageService;
+
+    /** Lanza la migración BLOB -> almacén en disco; 202 si arrancó, 409 si ya había una en curso. */
+    @PostMapping("/migrar-almacen")
+    public ResponseEntity<ProductoImagenAlmacenMigration.Estado> migrarAlmacen() {
+        boolean inicio = almacenMigration.iniciar();
+        return ResponseEntity.status(inicio ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT)
+                .body(almacenMigration.estado());
+    }
+
+    @GetMapping("/migrar-almacen")
+    public ProductoImagenAlmacenMigration.Estado estadoMigracion() {
+        return almacenMigration.estado();
+    }
+
+    /**
+     * Reubica los archivos de uploads/productos (originales y miniaturas) y uploads/products según la
+     * disposición configurada (app.uploads.disposicion). Pensado para correr una vez tras el cambio; repetirlo no mueve nada.
+     */
+    @PostMapping("/reordenar")
+    public Map<String, DirectorioImagenes.Reordenamiento> reordenar() throws IOException {
+        Map<String, DirectorioImagenes.Reordenamiento> out = new LinkedHashMap<>();
+        out.put("originales", productoImagenService.reordenar());
+        out.put("miniaturas", productoMiniaturaService.reordenar());
+        out.put("products", fileStorageService.reordenar());
+        return out;
+    }
+}
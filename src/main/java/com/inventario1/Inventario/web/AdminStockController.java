@@ -0,0 +1,36 @@
+package com.inventario1.Inventario.web;
+
+import com.inventario1.Inventario.services.ConciliacionStockService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Tareas de administración sobre el stock (solo SUPERVISOR, ver SecurityConfig).
+ */
+@RestController
+@RequestMapping("/admin/stock")
+@RequiredArgsConstructor
+public class AdminStockController {
+
+    private final ConciliacionStockService conciliacion;
+
+    /**
+     * Lanza la conciliación stock_actual vs. libro de movimientos; 202 si arrancó, 409 si ya había una en curso.
+     * reparar=true corrige los descuadres (los de apertura, solo reconstruyendo); reconstruir=true ignora los
+     * checkpoints y recorre todo el libro de cada producto.
+     */
+    @PostMapping("/conciliar")
+    public ResponseEntity<ConciliacionStockService.Estado> conciliar(@RequestParam(defaultValue = "false") boolean reparar,
+                                                                     @RequestParam(defaultValue = "false") boolean reconstruir) {
+        boolean inicio = conciliacion.iniciar(reparar, reconstruir);
+        return ResponseEntity.status(inicio ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT)
+                .body(conciliacion.estado());
+    }
+
+    @GetMapping("/conciliar")
+    public ConciliacionStockService.Estado estadoConciliacion() {
+        return conciliacion.estado();
+    }
+}
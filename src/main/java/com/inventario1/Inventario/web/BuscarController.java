@@ -1,10 +1,15 @@
 package com.inventario1.Inventario.web;
 
-import com.inventario1.Inventario.models.Producto;
 import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.InventarioService;
+import com.inventario1.Inventario.services.dto.ProductoListItem;
+import com.inventario1.Inventario.util.CursorTokens;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Window;
 import org.springframework.data.web.PageableDefault;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -16,30 +21,57 @@ import org.springframework.web.bind.annotation.RequestParam;
 class BuscarController {
 
     final ProductoRepository productoRepository;
+    final InventarioService inventarioService;
 
     @GetMapping("/buscar")
     String buscarActivos(@RequestParam(value = "q", required = false) String q,
+                         @RequestParam(value = "cursor", required = false) String cursor,
+                         @RequestParam(value = "total", required = false) Long total,
+                         @RequestParam(value = "contar", defaultValue = "true") boolean contar,
                          @PageableDefault(size = 5, sort = "codigoBarras") Pageable pageable,
                          Model model) {
-        Page<Producto> page = (q == null || q.isBlank())
-                ? productoRepository.findByActivoTrue(pageable)
-                : productoRepository.search(q.trim(), pageable);
-
         model.addAttribute("q", q);
-        model.addAttribute("page", page);
+        if (q == null || q.isBlank()) {
+            listarKeyset(true, cursor, total, contar, pageable.getPageSize(), model);
+        } else {
+            Page<ProductoListItem> page = inventarioService.buscarIndexado(q.trim(), true, pageable);
+            model.addAttribute("page", page);
+            model.addAttribute("items", page.getContent());
+        }
         return "buscar";
     }
 
     @GetMapping("/buscar-inactivo")
     String buscarInactivos(@RequestParam(value = "q", required = false) String q,
+                           @RequestParam(value = "cursor", required = false) String cursor,
+                           @RequestParam(value = "total", required = false) Long total,
+                           @RequestParam(value = "contar", defaultValue = "true") boolean contar,
                            @PageableDefault(size = 5, sort = "codigoBarras") Pageable pageable,
                            Model model) {
-        Page<Producto> page = (q == null || q.isBlank())
-                ? productoRepository.findByActivoFalse(pageable)
-                : productoRepository.searchInactivos(q.trim(), pageable);
-
         model.addAttribute("q", q);
-        model.addAttribute("page", page);
+        if (q == null || q.isBlank()) {
+            listarKeyset(false, cursor, total, contar, pageable.getPageSize(), model);
+        } else {
+            Page<ProductoListItem> page = inventarioService.buscarIndexado(q.trim(), false, pageable);
+            model.addAttribute("page", page);
+            model.addAttribute("items", page.getContent());
+        }
         return "buscarproductoinativo";
     }
+
+    /**
+     * Listado sin búsqueda por keyset (codigo_barras): sin OFFSET, el costo no crece con la página.
+     * El COUNT solo se hace en la primera página (y se omite con contar=false); luego viaja en los links.
+     */
+    private void listarKeyset(boolean activo, String cursor, Long total, boolean contar, int size, Model model) {
+        KeysetScrollPosition pos = CursorTokens.decode(cursor);
+        Window<ProductoListItem> ventana = productoRepository.findListItemsByActivoOrderByCodigoBarrasAsc(activo, pos, Limit.of(size));
+        if (total == null && contar && pos.isInitial()) total = productoRepository.countByActivo(activo);
+
+        model.addAttribute("items", ventana.getContent());
+        model.addAttribute("siguiente", CursorTokens.siguiente(ventana, pos));
+        model.addAttribute("anterior", CursorTokens.anterior(ventana, pos));
+        model.addAttribute("total", total);
+        model.addAttribute("size", size);
+    }
 }
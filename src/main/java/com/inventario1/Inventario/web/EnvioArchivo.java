@@ -0,0 +1,111 @@
+package com.inventario1.Inventario.web;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Envío de archivos de disco sin cargarlos en el heap.
+ * - En Tomcat usa sendfile: el conector copia archivo -> socket (FileChannel.transferTo) al terminar el request.
+ * - Range de un solo tramo se resuelve aquí (206 + Content-Range, 416 si no se puede satisfacer), respetando If-Range.
+ * - Si no hay sendfile (otro contenedor, compresión activa, HEAD) o se piden varios tramos, se devuelve un
+ *   FileSystemResource: Spring lo copia en streaming y arma el 206 por su cuenta.
+ */
+final class EnvioArchivo {
+    private EnvioArchivo() {}
+
+    // Atributos de request que entiende el conector de Tomcat (los mismos que usa su DefaultServlet)
+    private static final String SENDFILE_SOPORTADO = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_ARCHIVO = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_INICIO = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FIN = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * @param cabeceras validadores y Cache-Control ya armados por quien llama (ETag se usa para If-Range)
+     */
+    static ResponseEntity<Resource> archivo(Path path, MediaType tipo, HttpHeaders cabeceras,
+                                            HttpServletRequest request) throws IOException {
+        long largo = Files.size(path);
+        long inicio = 0, fin = largo - 1;
+        boolean parcial = false;
+
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && aplicaRango(request.getHeader(HttpHeaders.IF_RANGE), cabeceras)) {
+            List<HttpRange> rangos;
+            try {
+                rangos = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                rangos = List.of(); // Range mal formado: se ignora y va el archivo completo
+            }
+            if (rangos.size() > 1) return recurso(path, tipo, cabeceras); // multipart/byteranges: Spring
+            if (rangos.size() == 1) {
+                try {
+                    inicio = rangos.get(0).getRangeStart(largo);
+                    fin = rangos.get(0).getRangeEnd(largo);
+                } catch (IllegalArgumentException e) {
+                    inicio = largo; // fuera del archivo
+                }
+                if (inicio >= largo || inicio > fin) {
+                    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                            .header(HttpHeaders.CONTENT_RANGE, "bytes */" + largo)
+                            .build();
+                }
+                parcial = true;
+            }
+        }
+
+        if (largo == 0 || !sendfileDisponible(request)) return recurso(path, tipo, cabeceras);
+
+        request.setAttribute(SENDFILE_ARCHIVO, path.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_INICIO, inicio);
+        request.setAttribute(SENDFILE_FIN, fin + 1); // exclusivo
+
+        ResponseEntity.BodyBuilder rb = ResponseEntity.status(parcial ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                .headers(cabeceras)
+                .contentType(tipo)
+                .contentLength(fin - inicio + 1)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (parcial) rb.header(HttpHeaders.CONTENT_RANGE, "bytes " + inicio + "-" + fin + "/" + largo);
+        return rb.build(); // sin cuerpo: lo escribe Tomcat
+    }
+
+    /** Sin sendfile: Resource en streaming; Spring aplica el Range (si hay) con el mismo resultado. */
+    private static ResponseEntity<Resource> recurso(Path path, MediaType tipo, HttpHeaders cabeceras) {
+        return ResponseEntity.ok()
+                .headers(cabeceras)
+                .contentType(tipo)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .body(new FileSystemResource(path));
+    }
+
+    private static boolean sendfileDisponible(HttpServletRequest request) {
+        return "GET".equals(request.getMethod())
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SOPORTADO));
+    }
+
+    /** If-Range: el rango solo vale si el cliente tiene la misma versión (ETag fuerte o fecha exacta). */
+    private static boolean aplicaRango(String ifRange, HttpHeaders cabeceras) {
+        if (ifRange == null || ifRange.isBlank()) return true;
+        String etag = cabeceras.getETag();
+        if (ifRange.startsWith("\"")) return etag != null && !etag.startsWith("W/") && etag.equals(ifRange.trim());
+        long lm = cabeceras.getLastModified();
+        if (lm < 0) return false;
+        HttpHeaders fecha = new HttpHeaders();
+        fecha.set(HttpHeaders.IF_MODIFIED_SINCE, ifRange.trim());
+        try {
+            return fecha.getIfModifiedSince() / 1000 == lm / 1000; // HTTP-date tiene resolución de segundos
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
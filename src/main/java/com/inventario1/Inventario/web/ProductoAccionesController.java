@@ -1,26 +1,24 @@
 package com.inventario1.Inventario.web;
 
-import com.inventario1.Inventario.models.Producto;
 import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.ProductoImagenBulkService;
+import com.inventario1.Inventario.services.ProductoImagenCola;
 import com.inventario1.Inventario.services.ProductoService;
 import com.inventario1.Inventario.services.ProductoService.DeleteResult;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -32,10 +30,8 @@ public class ProductoAccionesController {
 
     private final ProductoRepository productoRepository;
     private final ProductoService productoService;
-
-    /** Directorio donde se guardan las imágenes (puedes sobreescribir en application.properties) */
-    @Value("${app.uploads.productos-dir:uploads/productos}")
-    private String productosDir;
+    private final ProductoImagenCola productoImagenCola;
+    private final ProductoImagenBulkService productoImagenBulkService;
 
     /* =========================================================
        ELIMINAR (AJAX) -> devuelve JSON al modal
@@ -96,9 +92,9 @@ public class ProductoAccionesController {
     /* =========================================================
        IMAGEN (redirige a /buscar)
        Acepta param "imagen" (coincide con tu form th:field="*{imagen}") o "file".
+       Solo recibe el archivo: validación, guardado y miniaturas van en ProductoImagenCola.
        ========================================================= */
     @PostMapping("/{codigoBarras}/imagen")
-    @Transactional
     public String actualizarImagen(@PathVariable String codigoBarras,
                                    @RequestParam(value = "imagen", required = false) MultipartFile imagenParam,
                                    @RequestParam(value = "file", required = false) MultipartFile fileParam,
@@ -111,8 +107,9 @@ public class ProductoAccionesController {
                 file != null ? file.getContentType() : null,
                 file != null ? file.getSize() : null);
 
-        Producto prod = productoRepository.findByCodigoBarras(codigoBarras)
-                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Producto no encontrado"));
+        if (!productoRepository.existsByCodigoBarras(codigoBarras)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Producto no encontrado");
+        }
 
         if (file == null || file.isEmpty()) {
             ra.addFlashAttribute("warn", "No se adjuntó ningún archivo.");
@@ -120,56 +117,74 @@ public class ProductoAccionesController {
         }
 
         try {
-            // Crear directorio si no existe
-            Path baseDir = Path.of(productosDir);
-            Files.createDirectories(baseDir);
-
-            String ext = detectExtension(file);
-            if (ext == null) ext = ".png";
-
-            String fileName = codigoBarras + ext;
-            Path destino = baseDir.resolve(fileName);
-
-            log.info("Guardando imagen en {}", destino.toAbsolutePath());
-            Files.copy(file.getInputStream(), destino, StandardCopyOption.REPLACE_EXISTING);
-
-            // Metadatos en la entidad (ajusta a tus campos reales)
-            prod.setImagenContentType(file.getContentType());
-            prod.setImagenNombre(file.getOriginalFilename());
-            prod.setImagenTamano(file.getSize());
-            prod.setImagenUrl("/uploads/productos/" + fileName); // asegúrate de servir /uploads/**
-
-            productoRepository.save(prod);
-
-            ra.addFlashAttribute("ok", "Imagen actualizada correctamente.");
+            productoImagenCola.encolar(codigoBarras, file, ProductoImagenCola.Destino.DISCO);
+            ra.addFlashAttribute("ok", "Imagen recibida; estará disponible en unos segundos.");
+        } catch (ProductoImagenCola.ColaLlenaException e) {
+            ra.addFlashAttribute("warn", "Hay demasiadas imágenes en proceso. Intente nuevamente en un momento.");
         } catch (IOException e) {
-            log.error("Error guardando imagen de {}: {}", codigoBarras, e.getMessage(), e);
+            log.error("Error recibiendo imagen de {}: {}", codigoBarras, e.getMessage(), e);
             ra.addFlashAttribute("error", "No se pudo guardar la imagen.");
         }
 
         return "redirect:/buscar";
     }
 
+    /* =========================================================
+       IMÁGENES EN LOTE (ZIP de proveedor) -> JSON con el resultado por entrada
+       ========================================================= */
+    @PostMapping(value = "/imagenes/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> importarImagenesZip(@RequestParam("file") MultipartFile file) {
+        if (file == null || file.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Archivo vacío o no enviado."));
+        }
+        log.info("Carga masiva de imágenes - nombreOriginal={}, size={}", file.getOriginalFilename(), file.getSize());
+        try (InputStream in = file.getInputStream()) {
+            return ResponseEntity.ok(productoImagenBulkService.importar(in));
+        } catch (IOException e) {
+            return errorZip(e);
+        }
+    }
+
+    /**
+     * ZIP como cuerpo del request (application/zip), leído en streaming y sin pasar por multipart: es la forma de
+     * subir ZIP grandes (hasta app.imagenes.bulk.max-zip) sin subir el límite global de multipart.
+     * Ej.: curl --data-binary @fotos.zip -H "Content-Type: application/zip" .../productos/imagenes/bulk
+     */
+    @PostMapping(value = "/imagenes/bulk", consumes = {"application/zip", MediaType.APPLICATION_OCTET_STREAM_VALUE},
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<?> importarImagenesZipCuerpo(HttpServletRequest request) {
+        long largo = request.getContentLengthLong();
+        if (largo == 0) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Archivo vacío o no enviado."));
+        }
+        if (largo > productoImagenBulkService.maxZip()) {
+            return errorZip(new ProductoImagenBulkService.ZipDemasiadoGrandeException(productoImagenBulkService.maxZip()));
+        }
+        log.info("Carga masiva de imágenes (cuerpo) - size={}", largo);
+        try (InputStream in = request.getInputStream()) {
+            return ResponseEntity.ok(productoImagenBulkService.importar(in));
+        } catch (IOException e) {
+            return errorZip(e);
+        }
+    }
+
     /* ----------------------- Helpers ----------------------- */
 
+    private ResponseEntity<?> errorZip(IOException e) {
+        if (e instanceof ProductoImagenBulkService.ZipDemasiadoGrandeException) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(Map.of("error", e.getMessage()));
+        }
+        log.error("Error en carga masiva de imágenes: {}", e.getMessage(), e);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "No se pudo procesar: " + e.getMessage()));
+    }
+
     private MultipartFile resolveFile(MultipartFile imagen, MultipartFile file) {
         if (imagen != null && !imagen.isEmpty()) return imagen;
         if (file != null && !file.isEmpty()) return file;
         return null;
     }
-
-    private String detectExtension(MultipartFile file) {
-        String ctype = file.getContentType();
-        if (ctype != null) {
-            if ("image/png".equalsIgnoreCase(ctype))  return ".png";
-            if ("image/jpeg".equalsIgnoreCase(ctype)) return ".jpg";
-            if ("image/webp".equalsIgnoreCase(ctype)) return ".webp";
-        }
-        String original = file.getOriginalFilename();
-        if (original != null && original.contains(".")) {
-            String ext = original.substring(original.lastIndexOf('.')).toLowerCase();
-            if (ext.matches("\\.(png|jpg|jpeg|webp)")) return ext.equals(".jpeg") ? ".jpg" : ext;
-        }
-        return null;
-    }
 }
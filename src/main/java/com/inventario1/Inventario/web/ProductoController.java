@@ -1,16 +1,22 @@
 package com.inventario1.Inventario.web;
 
 import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.models.RegistrarSalidaResponse;
 import com.inventario1.Inventario.models.TipoMovimiento;
 import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.IdempotenciaService;
 import com.inventario1.Inventario.services.MovimientosService;
+import com.inventario1.Inventario.services.ProductoImagenCola;
+import com.inventario1.Inventario.services.ProductoImagenService;
+import com.inventario1.Inventario.services.dto.ProductoSnapshot;
+import com.inventario1.Inventario.services.index.ProductoCodigoIndex;
+import com.inventario1.Inventario.web.dto.ProductoCrearForm;
 import com.inventario1.Inventario.web.dto.ProductoEditarForm;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
-import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -25,8 +31,10 @@ import org.springframework.web.util.UriUtils;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @Controller
@@ -34,13 +42,20 @@ import java.util.concurrent.TimeUnit;
 @RequestMapping("/productos")
 public class ProductoController {
 
+    /** Ámbito de las Idempotency-Key de /actualizar-stock y /ajustar-stock (no choca con las de /salidas). */
+    private static final String AMBITO_IDEMPOTENCIA = "productos-escaneo";
+
     private final ProductoRepository productoRepository;
+    private final ProductoImagenService productoImagenService;
+    private final ProductoImagenCola productoImagenCola;
+    private final ProductoCodigoIndex productoCodigoIndex;
     private final MovimientosService movimientosService;
+    private final IdempotenciaService idempotencia;
 
     // ====== VISTA: detalle por CÓDIGO DE BARRAS ======
     @GetMapping("/{codigoBarras:\\d+}")
     public String verPorCodigo(@PathVariable String codigoBarras, Model model) {
-        Producto p = productoRepository.findByCodigoBarras(codigoBarras)
+        Producto p = productoRepository.buscarPorCodigo(codigoBarras)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Producto no encontrado"));
         model.addAttribute("producto", p);
         return "detalles_productos";
@@ -56,33 +71,60 @@ public class ProductoController {
     }
 
     // ====== IMAGEN del producto ======
+    // 304 si el cliente ya tiene la versión vigente (If-None-Match / If-Modified-Since): se compara con el hash
+    // del índice en memoria, sin cargar el producto ni la imagen. La entidad solo se lee para responder 200.
     @GetMapping("/{codigoBarras}/imagen")
-    public ResponseEntity<Resource> imagen(@PathVariable String codigoBarras) {
-        Producto p = productoRepository.findByCodigoBarras(codigoBarras)
+    public ResponseEntity<Resource> imagen(@PathVariable String codigoBarras, HttpServletRequest request) {
+        ProductoImagenService.Version version = productoImagenService.version(codigoBarras.trim()).orElse(null);
+        if (version != null && ProductoImagenService.sinCambios(request, version, null)) {
+            return ProductoImagenService.noModificado(version, null);
+        }
+
+        Producto p = productoRepository.buscarPorCodigo(codigoBarras)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Producto no encontrado"));
+        if (p.getImagenHash() != null) {
+            version = new ProductoImagenService.Version(p.getImagenHash(), p.getImagenActualizadaEn());
+        }
 
-        byte[] bytes = p.getImagen();
-        if (bytes == null || bytes.length == 0) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Imagen no disponible");
+        codigoBarras = p.getCodigoBarras();
+        ProductoImagenService.Original o = productoImagenService.cargarDeBd(codigoBarras)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Imagen no disponible"));
+        if (version == null) {
+            version = o.bytes() != null
+                    ? productoImagenService.registrarVersion(codigoBarras, ProductoImagenService.sha256(o.bytes()))
+                    : productoImagenService.registrarVersion(codigoBarras);
+            if (version == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Imagen no disponible");
         }
 
         String contentType = p.getImagenContentType() != null ? p.getImagenContentType() : MediaType.IMAGE_JPEG_VALUE;
         String filename = p.getImagenNombre() != null ? p.getImagenNombre() : (p.getCodigoBarras() + ".img");
 
+        HttpHeaders cabeceras = new HttpHeaders();
+        cabeceras.setCacheControl(ProductoImagenService.CACHE_CONTROL);
+        cabeceras.setETag(version.etag(null));
+        cabeceras.set(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
+        if (version.lastModified() > 0) cabeceras.setLastModified(version.lastModified());
+
+        if (o.bytes() == null) {
+            // migrada al almacén: el archivo va en streaming
+            try {
+                return EnvioArchivo.archivo(o.path(), MediaType.parseMediaType(contentType), cabeceras, request);
+            } catch (IOException e) {
+                log.warn("imagen - No se pudo leer {}: {}", o.path(), e.getMessage());
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Imagen no disponible");
+            }
+        }
         return ResponseEntity.ok()
+                .headers(cabeceras)
                 .contentType(MediaType.parseMediaType(contentType))
-                .cacheControl(CacheControl.maxAge(30, TimeUnit.DAYS).cachePublic())
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"")
-                .body(new ByteArrayResource(bytes));
+                .body(new ByteArrayResource(o.bytes()));
     }
 
     // ====== FORM: crear (GET) ======
     @GetMapping("/agregar")
     public String crearForm(Model model) {
         if (!model.containsAttribute("form")) {
-            Producto p = new Producto();
-            p.setActivo(true);
-            model.addAttribute("form", p);
+            model.addAttribute("form", new ProductoCrearForm());
         }
         return "agregar_producto";
     }
@@ -103,7 +145,8 @@ public class ProductoController {
 
         int cant = (cantidad == null ? 0 : Math.max(Integer.MIN_VALUE, cantidad)); // permitir negativos a futuro
 
-        Producto existente = productoRepository.findByCodigoBarras(cb).orElse(null);
+        Producto existente = productoRepository.buscarPorCodigo(cb).orElse(null);
+        if (existente != null) cb = existente.getCodigoBarras(); // forma guardada (el escáner puede traer ".0", etc.)
 
         MultipartFile archivo = (archivoImagen != null && !archivoImagen.isEmpty())
                 ? archivoImagen
@@ -124,41 +167,27 @@ public class ProductoController {
             // NUEVO: precio
             existente.setPrecio(form.getPrecio());
 
-            if (archivo != null) {
-                try {
-                    existente.setImagen(archivo.getBytes());
-                    existente.setImagenContentType(archivo.getContentType());
-                    existente.setImagenNombre(archivo.getOriginalFilename());
-                    existente.setImagenTamano(archivo.getSize());
-                } catch (IOException e) {
-                    ra.addFlashAttribute("error", "No se pudo procesar la imagen: " + e.getMessage());
-                    return "redirect:/productos/agregar";
-                }
-            }
-
-            int antes = existente.getStockActual() == null ? 0 : existente.getStockActual();
-            int despues = antes + Math.max(0, cant);
-            existente.setStockActual(despues);
-            productoRepository.save(existente);
+            // el stock no se toca aquí: lo suma el movimiento, con un UPDATE atómico en BD
+            existente = productoRepository.save(existente);
+            String avisoImagen = encolarImagen(cb, archivo);
 
             if (cant > 0) {
                 try {
-                    movimientosService.registrarMovimiento(
+                    int despues = movimientosService.registrarMovimiento(
                             existente,
                             TipoMovimiento.ENTRADA,
                             cant,
                             "Ingreso desde 'Agregar producto' (producto existente)",
                             "UI/AGREGAR_EXISTENTE:" + cb
                     );
+                    ra.addFlashAttribute("ok", "Producto actualizado y stock incrementado (+" + cant + "). Stock actual: " + despues + avisoImagen);
                 } catch (Exception ex) {
-                    log.warn("Stock ok, pero no se pudo registrar movimiento. Causa: {}", ex.getMessage());
+                    log.warn("Producto actualizado, pero no se pudo registrar la entrada de stock. Causa: {}", ex.getMessage());
+                    ra.addFlashAttribute("error", "Producto actualizado, pero el stock no se modificó: " + ex.getMessage() + avisoImagen);
                 }
+            } else {
+                ra.addFlashAttribute("ok", "Producto actualizado (sin cambios de stock)." + avisoImagen);
             }
-
-            ra.addFlashAttribute("ok",
-                    cant > 0
-                            ? ("Producto actualizado y stock incrementado (+" + cant + "). Stock actual: " + despues)
-                            : "Producto actualizado (sin cambios de stock).");
             return "redirect:/productos/" + cb;
         }
 
@@ -179,21 +208,11 @@ public class ProductoController {
         // NUEVO: precio
         nuevo.setPrecio(form.getPrecio());
 
-        if (archivo != null) {
-            try {
-                nuevo.setImagen(archivo.getBytes());
-                nuevo.setImagenContentType(archivo.getContentType());
-                nuevo.setImagenNombre(archivo.getOriginalFilename());
-                nuevo.setImagenTamano(archivo.getSize());
-            } catch (IOException e) {
-                ra.addFlashAttribute("error", "No se pudo procesar la imagen: " + e.getMessage());
-                return "redirect:/productos/agregar";
-            }
-        }
-
+        // se crea en 0: el stock inicial entra con su movimiento
         int stockInicial = Math.max(0, cant);
-        nuevo.setStockActual(stockInicial);
-        productoRepository.save(nuevo);
+        nuevo.setStockActual(0);
+        nuevo = productoRepository.save(nuevo);
+        String avisoImagen = encolarImagen(cb, archivo);
 
         if (stockInicial > 0) {
             try {
@@ -206,21 +225,37 @@ public class ProductoController {
                 );
             } catch (Exception ex) {
                 log.warn("Producto creado, pero no se pudo registrar movimiento inicial. Causa: {}", ex.getMessage());
+                ra.addFlashAttribute("error", "Producto creado, pero sin el stock inicial: " + ex.getMessage() + avisoImagen);
+                return "redirect:/productos/" + cb;
             }
         }
 
         ra.addFlashAttribute("ok",
                 stockInicial > 0
-                        ? ("Producto creado con stock inicial +" + stockInicial)
-                        : "Producto creado.");
+                        ? ("Producto creado con stock inicial +" + stockInicial + "." + avisoImagen)
+                        : "Producto creado." + avisoImagen);
         return "redirect:/productos/" + cb;
     }
 
+    /** Deja la imagen del formulario en la cola (va al almacén por contenido); devuelve el aviso para el mensaje flash. */
+    private String encolarImagen(String cb, MultipartFile archivo) {
+        if (archivo == null) return "";
+        try {
+            productoImagenCola.encolar(cb, archivo, ProductoImagenCola.Destino.ALMACEN);
+            return " La imagen se está procesando.";
+        } catch (ProductoImagenCola.ColaLlenaException e) {
+            return " La imagen no se guardó porque hay demasiadas en proceso; vuelva a subirla en un momento.";
+        } catch (IOException e) {
+            log.warn("No se pudo recibir la imagen de {}: {}", cb, e.getMessage());
+            return " No se pudo recibir la imagen: " + e.getMessage();
+        }
+    }
+
     // ====== FORM de edición (GET) ======
     // La vista espera 'form' (ProductoEditarForm) y opcionalmente 'producto' para el título/fecha
     @GetMapping({"/{codigoBarras}/editar", "/editar/{codigoBarras}"})
     public String editarForm(@PathVariable String codigoBarras, Model model) {
-        Producto p = productoRepository.findByCodigoBarras(codigoBarras)
+        Producto p = productoRepository.buscarPorCodigo(codigoBarras)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Producto no encontrado"));
         model.addAttribute("producto", p);
         model.addAttribute("form", toForm(p));
@@ -234,6 +269,8 @@ public class ProductoController {
     @PostMapping("/actualizar-stock")
     public String actualizarStock(@RequestParam("codigoBarras") String codigoBarras,
                                   @RequestParam("cantidad") Integer cantidad,
+                                  @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                  @RequestParam(value = "idempotencyKey", required = false) String idempotencyKeyForm,
                                   RedirectAttributes ra) {
 
         String cb = codigoBarras == null ? "" : codigoBarras.trim();
@@ -246,30 +283,33 @@ public class ProductoController {
             return "redirect:/productos/" + cb;
         }
 
-        Producto p = productoRepository.findByCodigoBarras(cb).orElse(null);
+        Producto p = productoRepository.buscarPorCodigo(cb).orElse(null);
         if (p == null) {
             ra.addFlashAttribute("error", "No existe un producto con el código: " + cb);
             return "redirect:/productos/buscar?q=" + UriUtils.encode(cb, StandardCharsets.UTF_8);
         }
+        cb = p.getCodigoBarras();
 
-        int antes = p.getStockActual() == null ? 0 : p.getStockActual();
-        int despues = antes + cantidad;
-        p.setStockActual(despues);
-        productoRepository.save(p);
-
+        // stock + movimiento en una transacción (agrupada con otros escaneos si está habilitado); suma en BD
+        Escaneo esc;
         try {
-            movimientosService.registrarMovimiento(
+            esc = registrarEscaneo(
                     p,
                     TipoMovimiento.ENTRADA,
                     cantidad,
                     "Actualización rápida de stock desde formulario",
-                    "UI/STOCK_RAPIDO:" + cb
+                    "UI/STOCK_RAPIDO:" + cb,
+                    idempotencyKey != null ? idempotencyKey : idempotencyKeyForm
             );
         } catch (Exception ex) {
-            log.warn("No se pudo registrar el movimiento de stock (se actualizó igual). Causa: {}", ex.getMessage());
+            log.warn("No se pudo actualizar el stock de {}. Causa: {}", cb, ex.getMessage());
+            ra.addFlashAttribute("error", "No se pudo actualizar el stock: " + ex.getMessage());
+            return "redirect:/productos/" + cb;
         }
 
-        ra.addFlashAttribute("ok", "Stock actualizado (+" + cantidad + "). Stock actual: " + despues);
+        ra.addFlashAttribute("ok", esc.repetido()
+                ? "Este escaneo ya estaba registrado (+" + cantidad + "). Stock actual: " + esc.stock()
+                : "Stock actualizado (+" + cantidad + "). Stock actual: " + esc.stock());
         return "redirect:/productos/" + cb;
     }
 
@@ -278,6 +318,8 @@ public class ProductoController {
     public String ajustarStock(@RequestParam("codigoBarras") String codigoBarras,
                                @RequestParam("cantidad") Integer cantidad,
                                @RequestParam(value = "motivo", required = false) String motivo,
+                               @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                               @RequestParam(value = "idempotencyKey", required = false) String idempotencyKeyForm,
                                RedirectAttributes ra) {
 
         String cb = codigoBarras == null ? "" : codigoBarras.trim();
@@ -290,54 +332,105 @@ public class ProductoController {
             return "redirect:/productos/" + cb;
         }
 
-        Producto p = productoRepository.findByCodigoBarras(cb).orElse(null);
+        Producto p = productoRepository.buscarPorCodigo(cb).orElse(null);
         if (p == null) {
             ra.addFlashAttribute("error", "No existe un producto con el código: " + cb);
             return "redirect:/productos/buscar?q=" + UriUtils.encode(cb, StandardCharsets.UTF_8);
         }
-
-        int stockActual = p.getStockActual() == null ? 0 : p.getStockActual();
-
-        if (cantidad < 0 && stockActual + cantidad < 0) {
-            ra.addFlashAttribute("error", "No puede dejar el stock en negativo.");
-            return "redirect:/productos/" + cb;
-        }
-
-        int nuevoStock = stockActual + cantidad;
-        p.setStockActual(nuevoStock);
-        productoRepository.save(p);
+        cb = p.getCodigoBarras();
 
         TipoMovimiento tipo = (cantidad > 0) ? TipoMovimiento.ENTRADA : TipoMovimiento.SALIDA;
         int unidades = Math.abs(cantidad);
 
+        // el UPDATE atómico rechaza dejar el stock negativo (aunque otro ajuste haya entrado entremedio)
+        Escaneo esc;
         try {
-            movimientosService.registrarMovimiento(
+            esc = registrarEscaneo(
                     p,
                     tipo,
                     unidades,
                     (motivo == null || motivo.isBlank())
                             ? (tipo == TipoMovimiento.ENTRADA ? "Ajuste de stock (entrada)" : "Ajuste de stock (salida)")
                             : motivo,
-                    "UI/AJUSTE_STOCK:" + cb
+                    "UI/AJUSTE_STOCK:" + cb,
+                    idempotencyKey != null ? idempotencyKey : idempotencyKeyForm
             );
+        } catch (IllegalStateException ex) {
+            ra.addFlashAttribute("error", "No puede dejar el stock en negativo.");
+            return "redirect:/productos/" + cb;
         } catch (Exception ex) {
-            log.warn("No se pudo registrar el movimiento de ajuste. Causa: {}", ex.getMessage());
+            log.warn("No se pudo ajustar el stock de {}. Causa: {}", cb, ex.getMessage());
+            ra.addFlashAttribute("error", "No se pudo ajustar el stock: " + ex.getMessage());
+            return "redirect:/productos/" + cb;
         }
 
-        String msg = (cantidad > 0)
-                ? ("Stock ajustado (+" + unidades + "). Nuevo stock: " + nuevoStock)
-                : ("Stock ajustado (-" + unidades + "). Nuevo stock: " + nuevoStock);
+        String msg = (esc.repetido() ? "Este ajuste ya estaba registrado (" : "Stock ajustado (")
+                + (cantidad > 0 ? "+" : "-") + unidades + "). Nuevo stock: " + esc.stock();
 
         ra.addFlashAttribute("ok", msg);
         return "redirect:/productos/" + cb;
     }
 
+    /** Resultado de un escaneo: stock tras el movimiento; repetido si la Idempotency-Key ya lo había registrado. */
+    private record Escaneo(int stock, boolean repetido) {}
+
+    /**
+     * Escaneo con Idempotency-Key (header o campo idempotencyKey del formulario): el escáner reintenta el POST
+     * cuando se corta el Wi-Fi, y el reintento no debe sumar/restar otra vez. Con clave, el movimiento va directo
+     * (sin agrupar) dentro de la transacción de IdempotenciaService, así la clave y el movimiento se confirman
+     * juntos; un reintento devuelve el stock actual sin registrar nada. La misma clave con otro contenido es un
+     * error del cliente (IllegalArgumentException, no se confunde con el de stock insuficiente).
+     */
+    private Escaneo registrarEscaneo(Producto p, TipoMovimiento tipo, int cantidad, String comentario, String referencia,
+                                     String clave) {
+        if (clave == null || clave.isBlank()) {
+            return new Escaneo(registrarEscaneo(p, tipo, cantidad, comentario, referencia), false);
+        }
+        String huella = IdempotenciaService.huella(List.of(referencia, tipo.name(), String.valueOf(cantidad), comentario));
+        Integer[] despues = {null};
+        boolean[] ejecutado = {false};
+        try {
+            idempotencia.ejecutar(AMBITO_IDEMPOTENCIA, clave, huella, () -> {
+                ejecutado[0] = true;
+                despues[0] = movimientosService.registrarMovimiento(p, tipo, cantidad, comentario, referencia);
+                RegistrarSalidaResponse res = new RegistrarSalidaResponse();
+                res.ok = true;
+                res.registrados = 1;
+                return res;
+            });
+        } catch (IllegalStateException e) {
+            if (ejecutado[0]) throw e;
+            throw new IllegalArgumentException(e.getMessage(), e); // clave reusada con otro contenido
+        }
+        if (despues[0] != null) return new Escaneo(despues[0], false);
+        return new Escaneo(productoRepository.findStockActualById(p.getId()).orElse(0), true);
+    }
+
+    /**
+     * Movimiento de los endpoints de escaneo. Sin agrupar (por defecto) va directo a registrarMovimiento; agrupado
+     * espera su resultado (acotado por app.movimientos.agrupar.espera-max-ms) y relanza la causa real si falló.
+     */
+    private int registrarEscaneo(Producto p, TipoMovimiento tipo, int cantidad, String comentario, String referencia) {
+        if (!movimientosService.agrupaMovimientos()) {
+            return movimientosService.registrarMovimiento(p, tipo, cantidad, comentario, referencia);
+        }
+        try {
+            return movimientosService.registrarMovimientoAsync(p, tipo, cantidad, comentario, referencia).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                throw new CompletionException("el movimiento no se confirmó a tiempo; revise el stock antes de reintentar", e.getCause());
+            }
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            throw e;
+        }
+    }
+
     // ====== ELIMINAR ======
     @PostMapping("/{codigoBarras}/eliminar")
     public Object eliminar(@PathVariable String codigoBarras,
                            HttpServletRequest request,
                            RedirectAttributes ra) {
-        Producto p = productoRepository.findByCodigoBarras(codigoBarras)
+        Producto p = productoRepository.buscarPorCodigo(codigoBarras)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Producto no encontrado"));
 
         productoRepository.delete(p);
@@ -368,7 +461,7 @@ public class ProductoController {
         if (cb.isEmpty()) {
             return ResponseEntity.badRequest().build();
         }
-        return productoRepository.existsByCodigoBarras(cb)
+        return productoCodigoIndex.existe(cb)
                 ? ResponseEntity.ok().build()
                 : ResponseEntity.notFound().build();
     }
@@ -377,7 +470,7 @@ public class ProductoController {
     @GetMapping(value = "/api/detalle/{codigoBarras}", produces = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
     public ResponseEntity<ProductoMiniDTO> detalleJsonPorCodigo(@PathVariable String codigoBarras) {
-        return productoRepository.findByCodigoBarras(codigoBarras.trim())
+        return productoCodigoIndex.buscar(codigoBarras.trim())
                 .map(p -> ResponseEntity.ok(ProductoMiniDTO.from(p)))
                 .orElse(ResponseEntity.notFound().build());
     }
@@ -455,6 +548,26 @@ public class ProductoController {
             dto.precio = p.getPrecio(); // NUEVO
             return dto;
         }
+
+        public static ProductoMiniDTO from(ProductoSnapshot p) {
+            ProductoMiniDTO dto = new ProductoMiniDTO();
+            dto.id = p.id();
+            dto.codigoBarras = p.codigoBarras();
+            dto.nombre = p.nombre();
+            dto.marca = p.marca();
+            dto.categoria = p.categoria() != null ? p.categoria().name() : null;
+            dto.unidadBase = p.unidadBase() != null ? p.unidadBase().name() : null;
+            dto.volumenNominalMl = p.volumenNominalMl();
+            dto.graduacionAlcoholica = p.graduacionAlcoholica();
+            dto.fechaVencimiento = p.fechaVencimiento() != null ? p.fechaVencimiento().toString() : null;
+            dto.stockActual = p.stockActual();
+            dto.stockMinimo = p.stockMinimo();
+            dto.perecible = p.perecible();
+            dto.retornable = p.retornable();
+            dto.activo = p.activo();
+            dto.precio = p.precio();
+            return dto;
+        }
     }
 
     // ====== Helpers para edición ======
@@ -476,20 +589,4 @@ public class ProductoController {
         f.setPrecio(p.getPrecio()); // NUEVO
         return f;
     }
-
-    private void apply(ProductoEditarForm f, Producto p) {
-        p.setNombre(f.getNombre());
-        p.setMarca(f.getMarca());
-        p.setCategoria(f.getCategoria());
-        p.setUnidadBase(f.getUnidadBase());
-        p.setVolumenNominalMl(f.getVolumenNominalMl());
-        p.setGraduacionAlcoholica(f.getGraduacionAlcoholica());
-        p.setPerecible(Boolean.TRUE.equals(f.getPerecible()));
-        p.setRetornable(Boolean.TRUE.equals(f.getRetornable()));
-        p.setStockActual(f.getStockActual());
-        p.setStockMinimo(f.getStockMinimo());
-        p.setFechaVencimiento(f.getFechaVencimiento());
-        p.setActivo(Boolean.TRUE.equals(f.getActivo()));
-        p.setPrecio(f.getPrecio()); // NUEVO
-    }
 }
@@ -4,18 +4,22 @@ import com.inventario1.Inventario.models.Producto;
 import com.inventario1.Inventario.models.TipoMovimiento;
 import com.inventario1.Inventario.repos.ProductoRepository;
 import com.inventario1.Inventario.services.MovimientosService;
+import com.inventario1.Inventario.services.ProductoImagenCola;
 import com.inventario1.Inventario.web.dto.ProductoCrearForm;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Controller;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.io.IOException;
@@ -28,6 +32,7 @@ class ProductoCrearController {
 
     final ProductoRepository productoRepository;
     final MovimientosService movimientosService;
+    final ProductoImagenCola productoImagenCola;
 
     @GetMapping("/agregar")
     String agregarForm(Model model) {
@@ -57,9 +62,8 @@ class ProductoCrearController {
         p.setGraduacionAlcoholica(form.getGraduacionAlcoholica());
         p.setFechaVencimiento(form.getFechaVencimiento());
         p.setStockMinimo(form.getStockMinimo() != null ? form.getStockMinimo() : 0);
-        Integer stockInicial = form.getStockActual() != null ? form.getStockActual()
-                : (form.getCantidad() != null ? form.getCantidad() : 0);
-        p.setStockActual(stockInicial);
+        // la "cantidad" inicial entra con su movimiento (más abajo), no aquí
+        p.setStockActual(form.getStockActual() != null ? form.getStockActual() : 0);
         p.setPrecio(form.getPrecio());
         p.setPerecible(Boolean.TRUE.equals(form.getPerecible()));
         p.setRetornable(Boolean.TRUE.equals(form.getRetornable()));
@@ -67,17 +71,16 @@ class ProductoCrearController {
 
         p = productoRepository.save(p);
 
-        if (form.getImagen() != null && !form.getImagen().isEmpty()) {
-            try {
-                p.setImagen(form.getImagen().getBytes());
-                p.setImagenContentType(form.getImagen().getContentType());
-                p.setImagenNombre(form.getImagen().getOriginalFilename());
-                p.setImagenTamano(form.getImagen().getSize());
-                productoRepository.save(p);
-            } catch (IOException e) {
-                log.warn("No se pudo guardar la imagen del producto {}: {}", p.getCodigoBarras(), e.getMessage());
-                ra.addFlashAttribute("warn", "Producto creado, pero la imagen no pudo guardarse.");
-            }
+        MultipartFile imagen = form.getImagen();
+        if (imagen != null && !imagen.isEmpty()) {
+            // el worker busca el producto por código: se encola recién cuando el alta quedó confirmada
+            String cb = p.getCodigoBarras();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    encolarImagen(cb, imagen, ra);
+                }
+            });
         }
 
         int entradaInicial = form.getCantidad() != null ? Math.max(0, form.getCantidad()) : 0;
@@ -92,6 +95,18 @@ class ProductoCrearController {
         return "redirect:/productos/" + p.getCodigoBarras();
     }
 
+    /** La imagen va a la cola (validación, almacén y miniaturas en segundo plano); el request no lee sus bytes. */
+    private void encolarImagen(String cb, MultipartFile imagen, RedirectAttributes ra) {
+        try {
+            productoImagenCola.encolar(cb, imagen, ProductoImagenCola.Destino.ALMACEN);
+        } catch (ProductoImagenCola.ColaLlenaException e) {
+            ra.addFlashAttribute("warn", "Producto creado, pero hay demasiadas imágenes en proceso; vuelva a subirla en un momento.");
+        } catch (IOException e) {
+            log.warn("No se pudo recibir la imagen del producto {}: {}", cb, e.getMessage());
+            ra.addFlashAttribute("warn", "Producto creado, pero la imagen no pudo guardarse.");
+        }
+    }
+
     @PostMapping("/actualizar-stock")
     @Transactional
     String actualizarStock(@Valid @ModelAttribute("form") ProductoCrearForm form,
@@ -101,18 +116,17 @@ class ProductoCrearController {
 
         if (br.hasErrors()) return "agregar_producto";
 
-        Producto p = productoRepository.findByCodigoBarras(form.getCodigoBarras())
+        Producto p = productoRepository.buscarPorCodigo(form.getCodigoBarras())
                 .orElseThrow(() -> new IllegalArgumentException("Producto no encontrado"));
 
         int delta = form.getCantidad() != null ? Math.max(0, form.getCantidad()) : 0;
-        int actual = p.getStockActual() != null ? p.getStockActual() : 0;
-        p.setStockActual(actual + delta);
 
-        if (form.getPrecio() != null) p.setPrecio(form.getPrecio());
-
-        productoRepository.save(p);
+        if (form.getPrecio() != null) {
+            p.setPrecio(form.getPrecio());
+            productoRepository.save(p);
+        }
 
-        if (delta > 0) {
+        if (delta > 0) { // el stock se suma en BD junto con el movimiento
             movimientosService.registrarMovimiento(
                     p, TipoMovimiento.ENTRADA, delta,
                     "UI: actualizar stock (legacy)", null
@@ -4,11 +4,13 @@ import com.inventario1.Inventario.models.Categoria;
 import com.inventario1.Inventario.models.Producto;
 import com.inventario1.Inventario.models.UnidadBase;
 import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.MovimientosService;
+import com.inventario1.Inventario.services.ProductoImagenService;
+import com.inventario1.Inventario.services.ProductoMiniaturaService;
 import com.inventario1.Inventario.web.dto.ProductoEditarForm;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
@@ -21,9 +23,7 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 
@@ -34,9 +34,9 @@ import java.text.DecimalFormatSymbols;
 public class ProductoEditarController {
 
     private final ProductoRepository productoRepository;
-
-    @Value("${app.uploads.productos-dir:uploads/productos}")
-    private String productosDir;
+    private final ProductoImagenService productoImagenService;
+    private final ProductoMiniaturaService productoMiniaturaService;
+    private final MovimientosService movimientosService;
 
     /* ---------- Datos comunes para combos ---------- */
     @ModelAttribute("categorias")
@@ -66,7 +66,7 @@ public class ProductoEditarController {
 
         log.info("POST actualizar - código barras: {}", codigoBarras);
 
-        Producto existente = productoRepository.findByCodigoBarras(codigoBarras)
+        Producto existente = productoRepository.buscarPorCodigo(codigoBarras)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Producto no encontrado"));
 
         if (binding.hasErrors()) {
@@ -82,6 +82,16 @@ public class ProductoEditarController {
         log.info("POST actualizar - Producto guardado en BD. id={}, version={}",
                 existente.getId(), existente.getVersion());
 
+        // El stock no se pisa: la diferencia con el vigente entra al libro de movimientos
+        int diferencia = movimientosService.fijarStock(existente, form.getStockActual(),
+                "UI: edición de producto (stock " + form.getStockActual() + ")",
+                "UI/EDICION:" + existente.getCodigoBarras());
+        if (diferencia != 0) {
+            log.info("POST actualizar - stock de {} ajustado en {}", existente.getCodigoBarras(), diferencia);
+            // el UPDATE del stock subió la versión: se relee para no pisarlo al guardar la imagen
+            existente = productoRepository.findById(existente.getId()).orElseThrow();
+        }
+
         // Guardar imagen y metadatos (si vino archivo)
         try {
             ImageMeta meta = storeImageIfPresent(existente.getCodigoBarras(), form.getImagen());
@@ -90,7 +100,9 @@ public class ProductoEditarController {
                 existente.setImagenContentType(meta.contentType());
                 existente.setImagenNombre(meta.nombre());
                 existente.setImagenTamano(meta.tamano()); // Long
+                ProductoImagenService.marcarVersion(existente, meta.hash());
                 productoRepository.save(existente);
+                productoMiniaturaService.regenerar(existente.getCodigoBarras());
             }
         } catch (IOException e) {
             log.error("POST actualizar - Error guardando imagen para {}: {}", codigoBarras, e.getMessage(), e);
@@ -113,7 +125,7 @@ public class ProductoEditarController {
         p.setGraduacionAlcoholica(f.getGraduacionAlcoholica());
         p.setPerecible(Boolean.TRUE.equals(f.getPerecible()));
         p.setRetornable(Boolean.TRUE.equals(f.getRetornable()));
-        p.setStockActual(f.getStockActual());
+        // stockActual no: lo ajusta MovimientosService.fijarStock con su movimiento
         p.setStockMinimo(f.getStockMinimo());
         p.setFechaVencimiento(f.getFechaVencimiento());
         p.setActivo(Boolean.TRUE.equals(f.getActivo()));
@@ -131,16 +143,15 @@ public class ProductoEditarController {
         log.info("storeImageIfPresent - Recibido archivo: nombre='{}', contentType={}, size={} bytes",
                 imagen.getOriginalFilename(), imagen.getContentType(), imagen.getSize());
 
-        // Crear el directorio si no existe
-        Path baseDir = Path.of(productosDir);
-        Files.createDirectories(baseDir);
-
         String ext = detectExtension(imagen);
         if (ext == null) ext = ".png";
 
-        Path destino = baseDir.resolve(codigoBarras + ext);
+        // Ubicación según la disposición de uploads/productos (crea ab/ si hace falta)
+        Path destino = productoImagenService.destinoEnDisco(codigoBarras, ext);
         log.info("storeImageIfPresent - Guardando imagen en: {}", destino.toAbsolutePath());
-        Files.copy(imagen.getInputStream(), destino, StandardCopyOption.REPLACE_EXISTING);
+        String hash = ProductoImagenService.copiarConHash(imagen.getInputStream(), destino);
+        productoImagenService.descartarOtros(codigoBarras, destino);
+        productoImagenService.archivoActualizado(codigoBarras);
         log.info("storeImageIfPresent - Imagen guardada OK ({} bytes)", imagen.getSize());
 
         String original = imagen.getOriginalFilename();
@@ -148,7 +159,7 @@ public class ProductoEditarController {
         String ctype = (imagen.getContentType() != null) ? imagen.getContentType() : MediaType.IMAGE_PNG_VALUE;
         Long tamano = imagen.getSize(); // Long
 
-        return new ImageMeta(nombre, ctype, tamano);
+        return new ImageMeta(nombre, ctype, tamano, hash);
     }
 
     private String detectExtension(MultipartFile file) {
@@ -167,5 +178,5 @@ public class ProductoEditarController {
     }
 
     /* ---------- Tipo anidado para metadatos (usa Long) ---------- */
-    private record ImageMeta(String nombre, String contentType, Long tamano) {}
+    private record ImageMeta(String nombre, String contentType, Long tamano, String hash) {}
 }
@@ -1,11 +1,12 @@
 package com.inventario1.Inventario.web;
 
-import com.inventario1.Inventario.models.Producto;
-import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.ProductoImagenService;
+import com.inventario1.Inventario.services.ProductoMiniaturaService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -13,7 +14,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
 
@@ -24,88 +24,95 @@ import java.util.Optional;
 @RequiredArgsConstructor
 public class ProductoImagenController {
 
-    private final ProductoRepository productoRepository;
+    private final ProductoImagenService productoImagenService;
+    private final ProductoMiniaturaService productoMiniaturaService;
 
-    @Value("${app.uploads.productos-dir:uploads/productos}")
-    private String productosDir;
-
-    // Ahora expone: GET /img/productos/{codigoBarras}
+    // Ahora expone: GET /img/productos/{codigoBarras}[?size=64|256|1024]
+    // Responde 304 si el cliente ya tiene la versión vigente (If-None-Match / If-Modified-Since).
+    // Lo que está en disco (originales y miniaturas) se envía en streaming, con soporte de Range.
     @GetMapping("/{codigoBarras}")
-    public ResponseEntity<byte[]> obtenerImagen(@PathVariable String codigoBarras) {
-        log.info("GET IMG - código barras: {}", codigoBarras);
+    public ResponseEntity<Resource> obtenerImagen(@PathVariable String codigoBarras,
+                                                  @RequestParam(value = "size", required = false) Integer size,
+                                                  HttpServletRequest request) {
+        log.debug("GET IMG - código barras: {} size={}", codigoBarras, size);
+        Integer tamano = (size != null && size > 0) ? ProductoMiniaturaService.ajustarTamano(size) : null;
 
-        // 1) DISCO
-        ResponseFromDisk fromDisk = loadFromDisk(codigoBarras);
-        if (fromDisk != null) {
-            log.info("GET IMG - Servida desde DISCO: {}", fromDisk.path().toAbsolutePath());
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(fromDisk.contentType()))
-                    .header(HttpHeaders.CACHE_CONTROL, "max-age=3600, public")
-                    .body(fromDisk.bytes());
-        } else {
-            log.info("GET IMG - No encontrada en DISCO para {}", codigoBarras);
+        // Revalidación con el hash del índice en memoria: sin leer la imagen ni tocar BD
+        Optional<ProductoImagenService.Version> version = productoImagenService.version(codigoBarras);
+        if (version.isPresent() && ProductoImagenService.sinCambios(request, version.get(), tamano)) {
+            return ProductoImagenService.noModificado(version.get(), tamano);
         }
 
-        // 2) BD (BLOB)
-        Optional<Producto> opt = productoRepository.findByCodigoBarras(codigoBarras);
-        if (opt.isPresent()) {
-            Producto p = opt.get();
-            if (p.getImagen() != null && p.getImagen().length > 0) {
-                String ctype = (p.getImagenContentType() != null && !p.getImagenContentType().isBlank())
-                        ? p.getImagenContentType() : MediaType.IMAGE_JPEG_VALUE;
-                log.info("GET IMG - Servida desde BD (BLOB) para {}", codigoBarras);
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(ctype))
-                        .header(HttpHeaders.CACHE_CONTROL, "max-age=3600, public")
-                        .body(p.getImagen());
-            } else {
-                log.info("GET IMG - En BD sin BLOB para {}", codigoBarras);
+        // 0) MINIATURA (se genera la primera vez si la imagen es anterior al pipeline)
+        if (tamano != null) {
+            Optional<Path> mini = productoMiniaturaService.obtener(codigoBarras, tamano);
+            if (mini.isPresent()) {
+                ProductoImagenService.Version v = version.orElseGet(() -> productoImagenService.registrarVersion(codigoBarras));
+                ResponseEntity<Resource> r = enviarArchivo(mini.get(), MediaType.IMAGE_JPEG, v, tamano, request);
+                if (r != null) return r;
             }
-        } else {
-            log.warn("GET IMG - Producto no existe: {}", codigoBarras);
         }
 
-        // 3) Placeholder
-        try {
-            ClassPathResource cpr = new ClassPathResource("static/img/no-image.png");
-            byte[] bytes = cpr.getContentAsByteArray();
-            log.info("GET IMG - Servida placeholder para {}", codigoBarras);
-            return ResponseEntity.status(HttpStatus.OK)
-                    .contentType(MediaType.IMAGE_PNG)
-                    .body(bytes);
-        } catch (IOException e) {
-            log.error("GET IMG - Error cargando placeholder: {}", e.getMessage(), e);
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        // 1) DISCO (streaming: no se carga el archivo en memoria). El índice ya sabe en qué subdirectorio
+        //    de la disposición (ab/) o en la raíz plana está el archivo.
+        Optional<Path> disco = productoImagenService.ubicarEnDisco(codigoBarras);
+        if (disco.isPresent()) {
+            Path path = disco.get();
+            log.debug("GET IMG - Servida desde DISCO para {}", codigoBarras);
+            ProductoImagenService.Version v = version.orElseGet(() -> productoImagenService.registrarVersion(codigoBarras));
+            ResponseEntity<Resource> r = enviarArchivo(path, MediaType.parseMediaType(ProductoImagenService.probeOrDefault(path)),
+                    v, tamano, request);
+            if (r != null) return r;
         }
-    }
 
-    private ResponseFromDisk loadFromDisk(String codigoBarras) {
-        String[] exts = {".jpg", ".jpeg", ".png", ".webp"};
-        for (String ext : exts) {
-            Path path = Path.of(productosDir).resolve(codigoBarras + ext).normalize();
-            if (Files.exists(path)) {
-                try {
-                    byte[] bytes = Files.readAllBytes(path);
-                    String ctype = probeOrDefault(path);
-                    return new ResponseFromDisk(path, bytes, ctype);
-                } catch (IOException e) {
-                    log.warn("loadFromDisk - No se pudo leer {}: {}", path.toAbsolutePath(), e.getMessage());
-                }
-            }
+        // 2) BD (BLOB, o su archivo en el almacén si ya se migró)
+        Optional<ProductoImagenService.Original> bd = productoImagenService.cargarDeBd(codigoBarras);
+        if (bd.isPresent() && bd.get().bytes() == null) {
+            ProductoImagenService.Original o = bd.get();
+            log.debug("GET IMG - Servida desde ALMACÉN para {}", codigoBarras);
+            ProductoImagenService.Version v = version.orElseGet(() -> productoImagenService.registrarVersion(codigoBarras));
+            ResponseEntity<Resource> r = enviarArchivo(o.path(), MediaType.parseMediaType(o.contentType()), v, tamano, request);
+            if (r != null) return r;
+        } else if (bd.isPresent()) {
+            ProductoImagenService.Original o = bd.get();
+            log.debug("GET IMG - Servida desde BD (BLOB) para {}", codigoBarras);
+            ProductoImagenService.Version v = version.orElseGet(() ->
+                    productoImagenService.registrarVersion(codigoBarras, ProductoImagenService.sha256(o.bytes())));
+            return ResponseEntity.ok()
+                    .headers(cabeceras(v, tamano))
+                    .contentType(MediaType.parseMediaType(o.contentType()))
+                    .body(new ByteArrayResource(o.bytes()));
         }
-        return null;
+        log.info("GET IMG - Sin imagen en disco ni BD para {}", codigoBarras);
+
+        // 3) Placeholder (en memoria desde el arranque; sin ETag: al subir una imagen se debe ver de inmediato)
+        Optional<byte[]> placeholder = productoImagenService.placeholder();
+        if (placeholder.isEmpty()) return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        log.debug("GET IMG - Servida placeholder para {}", codigoBarras);
+        return ResponseEntity.status(HttpStatus.OK)
+                .contentType(MediaType.IMAGE_PNG)
+                .body(new ByteArrayResource(placeholder.get()));
     }
 
-    private String probeOrDefault(Path p) {
+    /** null si el archivo desapareció o no se pudo leer entre que se ubicó y se envió. */
+    private ResponseEntity<Resource> enviarArchivo(Path path, MediaType tipo, ProductoImagenService.Version v,
+                                                   Integer tamano, HttpServletRequest request) {
         try {
-            String ctype = Files.probeContentType(p);
-            if (ctype != null) return ctype;
-        } catch (IOException ignored) { }
-        String name = p.getFileName().toString().toLowerCase();
-        if (name.endsWith(".png"))  return MediaType.IMAGE_PNG_VALUE;
-        if (name.endsWith(".webp")) return "image/webp";
-        return MediaType.IMAGE_JPEG_VALUE; // default
+            return EnvioArchivo.archivo(path, tipo, cabeceras(v, tamano), request);
+        } catch (IOException e) {
+            log.warn("GET IMG - No se pudo leer {}: {}", path, e.getMessage());
+            return null;
+        }
     }
 
-    private record ResponseFromDisk(Path path, byte[] bytes, String contentType) {}
+    /** Cache-Control y validadores (ETag / Last-Modified) de la versión servida. */
+    private static HttpHeaders cabeceras(ProductoImagenService.Version v, Integer tamano) {
+        HttpHeaders h = new HttpHeaders();
+        h.setCacheControl(ProductoImagenService.CACHE_CONTROL);
+        if (v != null) {
+            h.setETag(v.etag(tamano));
+            if (v.lastModified() > 0) h.setLastModified(v.lastModified());
+        }
+        return h;
+    }
 }
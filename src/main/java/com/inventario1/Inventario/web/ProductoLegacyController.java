@@ -35,7 +35,7 @@ public class ProductoLegacyController {
                                          @RequestParam("cantidad") int cantidad,
                                          RedirectAttributes ra) {
 
-        Producto p = productoRepository.findByCodigoBarras(codigoBarras.trim())
+        Producto p = productoRepository.buscarPorCodigo(codigoBarras)
                 .orElseThrow(() -> new IllegalArgumentException("No existe producto con código: " + codigoBarras));
 
         int sumar = Math.max(0, cantidad);
@@ -44,17 +44,13 @@ public class ProductoLegacyController {
             return "redirect:/productos/" + p.getCodigoBarras();
         }
 
-        int actual = p.getStockActual() == null ? 0 : p.getStockActual();
-        p.setStockActual(actual + sumar);
-        productoRepository.save(p);
-
         log.info("Registrando movimiento ENTRADA: cb={}, cantidad={}", p.getCodigoBarras(), sumar);
-        movimientosService.registrarMovimiento(
+        int nuevo = movimientosService.registrarMovimiento( // suma en BD, en la misma transacción que el movimiento
                 p, TipoMovimiento.ENTRADA, sumar,
                 "UI: actualizar stock (directo)", null
         );
 
-        ra.addFlashAttribute("ok", "Stock actualizado (+ " + sumar + ") y movimiento registrado.");
+        ra.addFlashAttribute("ok", "Stock actualizado (+ " + sumar + ") y movimiento registrado. Stock actual: " + nuevo);
         return "redirect:/productos/" + p.getCodigoBarras();
     }
 }
@@ -1,13 +1,17 @@
 // path: src/main/java/com/inventario1/Inventario/web/ProductosApiController.java
 package com.inventario1.Inventario.web;
 
-import com.inventario1.Inventario.models.Producto;
-import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.ProductoImagenCache;
+import com.inventario1.Inventario.services.ProductoImagenCola;
+import com.inventario1.Inventario.services.dto.ProductoSnapshot;
+import com.inventario1.Inventario.services.index.ProductoCodigoIndex;
+import com.inventario1.Inventario.services.index.ProductoPrefixTrie;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -15,34 +19,73 @@ import java.util.Optional;
 @RequestMapping("/productos/api")
 public class ProductosApiController {
 
-    private final ProductoRepository productoRepository;
+    private final ProductoCodigoIndex productoCodigoIndex;
+    private final ProductoPrefixTrie productoPrefixTrie;
+    private final ProductoImagenCache productoImagenCache;
+    private final ProductoImagenCola productoImagenCola;
 
-    public ProductosApiController(ProductoRepository productoRepository) {
-        this.productoRepository = productoRepository;
+    public ProductosApiController(ProductoCodigoIndex productoCodigoIndex,
+                                  ProductoPrefixTrie productoPrefixTrie,
+                                  ProductoImagenCache productoImagenCache,
+                                  ProductoImagenCola productoImagenCola) {
+        this.productoCodigoIndex = productoCodigoIndex;
+        this.productoPrefixTrie = productoPrefixTrie;
+        this.productoImagenCache = productoImagenCache;
+        this.productoImagenCola = productoImagenCola;
     }
 
     @GetMapping("/by-barcode/{codigo}")
     public ResponseEntity<?> byBarcode(@PathVariable String codigo) {
-        // Usa el que prefieras; ambos existen en tu repo
-        Optional<Producto> opt = productoRepository.findByCodigoBarras(codigo);
-        // Optional<Producto> opt = productoRepository.findByCodigoBarrasAndActivoTrue(codigo);
+        // Servido desde el índice en memoria (sin ida a BD salvo miss)
+        Optional<ProductoSnapshot> opt = productoCodigoIndex.buscar(codigo);
 
         return opt.<ResponseEntity<?>>map(p -> {
             Map<String, Object> m = new LinkedHashMap<>();
-            m.put("codigoBarras", p.getCodigoBarras());
-            m.put("nombre", p.getNombre());
-            m.put("marca", p.getMarca()); // puede ser null
-            m.put("precio", p.getPrecio());
-            m.put("categoria", p.getCategoria()); // enum o null
-            m.put("unidadBase", p.getUnidadBase()); // enum o null
-            m.put("volumenNominalMl", p.getVolumenNominalMl()); // puede ser null
-            m.put("graduacionAlcoholica", p.getGraduacionAlcoholica()); // puede ser null
-            m.put("fechaVencimiento", p.getFechaVencimiento()); // puede ser null
-            m.put("perecible", p.getPerecible());
-            m.put("retornable", p.getRetornable());
-            m.put("stockActual", p.getStockActual()); // ← este es el que editas en el form
-            m.put("fotoUrl", p.getImagenUrl()); // puede ser null
+            m.put("codigoBarras", p.codigoBarras());
+            m.put("nombre", p.nombre());
+            m.put("marca", p.marca()); // puede ser null
+            m.put("precio", p.precio());
+            m.put("categoria", p.categoria()); // enum o null
+            m.put("unidadBase", p.unidadBase()); // enum o null
+            m.put("volumenNominalMl", p.volumenNominalMl()); // puede ser null
+            m.put("graduacionAlcoholica", p.graduacionAlcoholica()); // puede ser null
+            m.put("fechaVencimiento", p.fechaVencimiento()); // puede ser null
+            m.put("perecible", p.perecible());
+            m.put("retornable", p.retornable());
+            m.put("stockActual", p.stockActual()); // ← este es el que editas en el form
+            m.put("fotoUrl", p.imagenUrl()); // puede ser null
             return ResponseEntity.ok(m);
         }).orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).build());
     }
+
+    /** Autocompletar por prefijo de código o nombre (trie en memoria, sin consulta por tecla). */
+    @GetMapping("/suggest")
+    public List<ProductoPrefixTrie.Sugerencia> suggest(@RequestParam("prefix") String prefix,
+                                                       @RequestParam(value = "k", defaultValue = "8") int k) {
+        return productoPrefixTrie.sugerir(prefix, Math.min(k, ProductoPrefixTrie.MAX_K));
+    }
+
+    /** Contadores del índice por código (hits/misses) para verificar su efecto en ráfagas de escaneo. */
+    @GetMapping("/index/stats")
+    public Map<String, Object> indexStats() {
+        return productoCodigoIndex.stats();
+    }
+
+    /** Caché de imágenes (BLOB): bytes ocupados, hit rate, admisiones y expulsiones. */
+    @GetMapping("/imagenes/cache/stats")
+    public Map<String, Object> imagenesCacheStats() {
+        return productoImagenCache.stats();
+    }
+
+    /** Cola de subidas de imágenes: profundidad, capacidad y resultados. */
+    @GetMapping("/imagenes/cola")
+    public Map<String, Object> imagenesColaStats() {
+        return productoImagenCola.stats();
+    }
+
+    /** Estado de una subida (EN_COLA, PROCESANDO, LISTA o ERROR con su mensaje). */
+    @GetMapping("/imagenes/cola/{id}")
+    public ResponseEntity<ProductoImagenCola.Tarea> imagenesColaTarea(@PathVariable String id) {
+        return ResponseEntity.of(productoImagenCola.tarea(id));
+    }
 }
@@ -1,7 +1,12 @@
 package com.inventario1.Inventario.web;
 
-import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.models.RegistrarSalidaResponse;
+import com.inventario1.Inventario.services.CarritoSalida;
+import com.inventario1.Inventario.services.CarritoSalidaService;
 import com.inventario1.Inventario.services.InventarioService;
+import com.inventario1.Inventario.services.dto.ProductoListItem;
+import com.inventario1.Inventario.services.dto.ProductoSnapshot;
+import com.inventario1.Inventario.util.CursorTokens;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -10,6 +15,7 @@ import org.springframework.data.domain.*;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -18,19 +24,21 @@ import java.util.stream.Collectors;
 
 @Controller
 @RequestMapping("/salidas")
-@SessionAttributes("seleccionIds")
+@SessionAttributes("carrito")
 public class SalidaController {
 
     private final InventarioService inventarioService;
+    private final CarritoSalidaService carritoSalidaService;
 
-    public SalidaController(InventarioService inventarioService) {
+    public SalidaController(InventarioService inventarioService, CarritoSalidaService carritoSalidaService) {
         this.inventarioService = inventarioService;
+        this.carritoSalidaService = carritoSalidaService;
     }
 
-    /** Lista en sesión de códigos de barras seleccionados. */
-    @ModelAttribute("seleccionIds")
-    public List<String> seleccionIds() {
-        return new ArrayList<>();
+    /** Carrito de salida en sesión (código de barras -> cantidad). */
+    @ModelAttribute("carrito")
+    public CarritoSalida carrito() {
+        return new CarritoSalida();
     }
 
     @GetMapping({"", "/"})
@@ -41,8 +49,9 @@ public class SalidaController {
                         @RequestParam(value = "q", required = false) String q,
                         @RequestParam(value = "page", defaultValue = "0") int page,
                         @RequestParam(value = "size", defaultValue = "12") int size,
+                        @RequestParam(value = "cursor", required = false) String cursor,
                         Model model,
-                        @ModelAttribute("seleccionIds") List<String> seleccionIds) {
+                        @ModelAttribute("carrito") CarritoSalida carrito) {
 
         if (size <= 0) size = 12;
 
@@ -50,98 +59,157 @@ public class SalidaController {
         if (codigo != null && !codigo.isBlank()) {
             String cod = codigo.trim();
             try {
-                Producto p = inventarioService.leerProducto(cod); // busca por código de barras
+                ProductoSnapshot p = inventarioService.leerProducto(cod); // busca por código de barras
                 model.addAttribute("producto", p);
-                model.addAttribute("codigo", p.getCodigoBarras());
+                model.addAttribute("codigo", p.codigoBarras());
             } catch (Exception e) {
                 model.addAttribute("error", e.getMessage());
                 model.addAttribute("codigo", cod);
             }
         }
 
-        Pageable pageable = PageRequest.of(page, size, Sort.by("nombre").ascending());
-        Page<Producto> pagina = (q != null && !q.isBlank())
-                ? inventarioService.buscarProductos(q.trim(), pageable)   // búsqueda por nombre o código
-                : inventarioService.listarProductos(pageable);
+        List<ProductoListItem> contenido;
+        if (q != null && !q.isBlank()) {
+            Pageable pageable = PageRequest.of(page, size, Sort.by("nombre").ascending());
+            Page<ProductoListItem> pagina = inventarioService.buscarProductos(q.trim(), pageable);   // búsqueda por nombre o código
+            contenido = pagina.getContent();
+            model.addAttribute("page", pagina.getNumber());
+            model.addAttribute("totalPages", pagina.getTotalPages());
+            model.addAttribute("totalElements", pagina.getTotalElements());
+        } else {
+            // Sin búsqueda: keyset por (nombre, id), sin OFFSET ni COUNT; navegación con cursor opaco
+            KeysetScrollPosition pos = CursorTokens.decode(cursor);
+            Window<ProductoListItem> ventana = inventarioService.listarProductosKeyset(pos, size);
+            contenido = ventana.getContent();
+            model.addAttribute("siguiente", CursorTokens.siguiente(ventana, pos));
+            model.addAttribute("anterior", CursorTokens.anterior(ventana, pos));
+            model.addAttribute("size", size);
+        }
 
-        List<ProductoView> productosView = pagina.getContent()
+        List<ProductoView> productosView = contenido
                 .stream()
                 .map(this::toView)
                 .collect(Collectors.toList());
 
-        // Reconstruir selección (ids en sesión son códigos de barras)
-        List<ProductoView> seleccionados = seleccionIds.isEmpty()
-                ? Collections.emptyList()
-                : seleccionIds.stream()
-                .map(idCodigoBarras -> {
-                    try { return inventarioService.leerProducto(idCodigoBarras); }
-                    catch (Exception e) { return null; }
-                })
-                .filter(Objects::nonNull)
-                .map(this::toView)
-                .collect(Collectors.toList());
-
         model.addAttribute("q", q);
         model.addAttribute("productos", productosView);
-        model.addAttribute("page", pagina.getNumber());
-        model.addAttribute("totalPages", pagina.getTotalPages());
-        model.addAttribute("totalElements", pagina.getTotalElements());
-        model.addAttribute("seleccionIds", seleccionIds);
-        model.addAttribute("seleccionados", seleccionados);
+        agregarCarrito(carrito, model);
 
         return "salida_nueva";
     }
 
-    /** Agrega un producto (por código de barras) a la selección en sesión. */
+    /** Agrega un producto (por código de barras) al carrito; suma si ya estaba. */
     @PostMapping("/seleccionar")
     public String seleccionar(@RequestParam("id") String idCodigoBarras,
-                              @ModelAttribute("seleccionIds") List<String> seleccionIds,
-                              @RequestParam(value = "q", required = false) String q) {
-        if (idCodigoBarras != null && !idCodigoBarras.isBlank()
-                && !seleccionIds.contains(idCodigoBarras)
-                && seleccionIds.size() < 3) {
-            seleccionIds.add(idCodigoBarras.trim());
+                              @RequestParam(value = "cantidad", defaultValue = "1") int cantidad,
+                              @ModelAttribute("carrito") CarritoSalida carrito,
+                              @RequestParam(value = "q", required = false) String q,
+                              RedirectAttributes ra) {
+        try {
+            carritoSalidaService.agregar(carrito, idCodigoBarras, cantidad); // reserva las unidades
+        } catch (IllegalStateException e) {
+            ra.addFlashAttribute("error", e.getMessage());
         }
         return "redirect:/salidas/nueva" + buildQ(q);
     }
 
-    /** Quita un producto (por código de barras) de la selección en sesión. */
+    /** Cambia la cantidad de una línea del carrito (0 la quita). */
+    @PostMapping("/cantidad")
+    public String cantidad(@RequestParam("id") String idCodigoBarras,
+                           @RequestParam("cantidad") int cantidad,
+                           @ModelAttribute("carrito") CarritoSalida carrito,
+                           @RequestParam(value = "q", required = false) String q,
+                           RedirectAttributes ra) {
+        try {
+            carritoSalidaService.fijar(carrito, idCodigoBarras, cantidad);
+        } catch (IllegalStateException e) {
+            ra.addFlashAttribute("error", e.getMessage());
+        }
+        return "redirect:/salidas/nueva" + buildQ(q);
+    }
+
+    /** Quita un producto (por código de barras) del carrito. */
     @PostMapping("/quitar")
     public String quitar(@RequestParam("id") String idCodigoBarras,
-                         @ModelAttribute("seleccionIds") List<String> seleccionIds,
+                         @ModelAttribute("carrito") CarritoSalida carrito,
                          @RequestParam(value = "q", required = false) String q) {
-        seleccionIds.remove(idCodigoBarras);
+        carritoSalidaService.quitar(carrito, idCodigoBarras);
         return "redirect:/salidas/nueva" + buildQ(q);
     }
 
+    @PostMapping("/vaciar")
+    public String vaciar(@ModelAttribute("carrito") CarritoSalida carrito) {
+        carritoSalidaService.vaciar(carrito);
+        return "redirect:/salidas/nueva";
+    }
+
     @PostMapping("/continuar")
-    public String continuar(@ModelAttribute("seleccionIds") List<String> seleccionIds, Model model) {
-        if (seleccionIds.isEmpty()) return "redirect:/salidas/nueva";
-        List<ProductoView> seleccionados = seleccionIds.stream()
-                .map(idCodigoBarras -> {
-                    try { return inventarioService.leerProducto(idCodigoBarras); }
-                    catch (Exception e) { return null; }
-                })
-                .filter(Objects::nonNull)
-                .map(this::toView)
-                .collect(Collectors.toList());
-        model.addAttribute("seleccionados", seleccionados);
+    public String continuar(@ModelAttribute("carrito") CarritoSalida carrito, Model model) {
+        if (carrito.isVacio()) return "redirect:/salidas/nueva";
+        agregarCarrito(carrito, model);
         return "salida_confirmar";
     }
 
+    /** Registra todo el carrito como una sola salida (una transacción). */
+    @PostMapping("/registrar-carrito")
+    public String registrarCarrito(@ModelAttribute("carrito") CarritoSalida carrito,
+                                   @RequestParam(value = "motivo", required = false) String motivo,
+                                   @RequestParam(value = "referencia", required = false) String referencia,
+                                   @RequestParam(value = "usuario", required = false) String usuario,
+                                   RedirectAttributes ra) {
+        if (carrito.isVacio()) {
+            ra.addFlashAttribute("error", "No hay productos en la salida.");
+            return "redirect:/salidas/nueva";
+        }
+        try {
+            RegistrarSalidaResponse res = carritoSalidaService.registrar(carrito, motivo, referencia, usuario);
+            if (res.ok) ra.addFlashAttribute("ok", "Salida registrada. Líneas procesadas: " + res.registrados);
+            else ra.addFlashAttribute("error", String.join(" · ", res.errores));
+        } catch (RuntimeException e) {
+            ra.addFlashAttribute("error", e.getMessage() != null ? e.getMessage() : "Error al registrar la salida.");
+        }
+        return "redirect:/salidas/nueva";
+    }
+
     // ------------ helpers (ViewModel) ------------
-    private ProductoView toView(Producto p) {
+    private ProductoView toView(ProductoListItem p) {
         return ProductoView.builder()
-                .id(nz(p.getCodigoBarras()))                    // id lógico en la vista = código de barras
-                .nombre(nz(p.getNombre()))
-                .sku(nz(p.getCodigoBarras()))
-                .marca(p.getMarca())
-                .categoria(p.getCategoria() != null ? p.getCategoria().name() : null) // enum -> texto
-                .stockActual(p.getStockActual() == null ? 0 : p.getStockActual())
-                .stockMinimo(p.getStockMinimo())
+                .id(nz(p.codigoBarras()))                       // id lógico en la vista = código de barras
+                .nombre(nz(p.nombre()))
+                .sku(nz(p.codigoBarras()))
+                .marca(p.marca())
+                .categoria(p.categoria() != null ? p.categoria().name() : null) // enum -> texto
+                .stockActual(p.stockActual() == null ? 0 : p.stockActual())
+                .stockMinimo(p.stockMinimo())
                 .build();
     }
 
+    private ProductoView toView(ProductoSnapshot p) {
+        return ProductoView.builder()
+                .id(nz(p.codigoBarras()))
+                .nombre(nz(p.nombre()))
+                .sku(nz(p.codigoBarras()))
+                .marca(p.marca())
+                .categoria(p.categoria() != null ? p.categoria().name() : null)
+                .stockActual(p.stockActual() == null ? 0 : p.stockActual())
+                .stockMinimo(p.stockMinimo())
+                .build();
+    }
+
+    /** Resuelve el carrito (una consulta, cacheada por versión) y lo deja en el modelo. */
+    private void agregarCarrito(CarritoSalida carrito, Model model) {
+        CarritoSalidaService.Resolucion r = carritoSalidaService.resolver(carrito);
+        List<ProductoView> seleccionados = new ArrayList<>(r.lineas().size());
+        for (CarritoSalidaService.Linea l : r.lineas()) {
+            ProductoView v = toView(l.producto());
+            v.setCantidad(l.cantidad());
+            seleccionados.add(v);
+        }
+        model.addAttribute("seleccionados", seleccionados);
+        model.addAttribute("faltantes", r.faltantes());
+        model.addAttribute("totalUnidades", carrito.getTotalUnidades());
+    }
+
     private String buildQ(String q) {
         if (q == null || q.isBlank()) return "";
         String enc = URLEncoder.encode(q, StandardCharsets.UTF_8);
@@ -159,5 +227,6 @@ public class SalidaController {
         private String categoria;    // texto del enum (GENERAL/ALIMENTOS/INSUMOS)
         private Integer stockActual; // stock_actual
         private Integer stockMinimo; // stock_minimo
+        private Integer cantidad;    // cantidad en el carrito (solo seleccionados)
     }
 }
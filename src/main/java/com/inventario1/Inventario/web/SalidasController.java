@@ -4,26 +4,98 @@ package com.inventario1.Inventario.web;
 
 import com.inventario1.Inventario.models.RegistrarSalidaRequest;
 import com.inventario1.Inventario.models.RegistrarSalidaResponse;
+import com.inventario1.Inventario.models.ReservaSalidaRequest;
+import com.inventario1.Inventario.services.ReservasStock;
 import com.inventario1.Inventario.services.SalidasService;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.Valid;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
 @RestController
 @RequestMapping("/salidas")
 public class SalidasController {
 
+    /** Tope de códigos por consulta de disponibles (una página del listado son 12). */
+    private static final int MAX_CODIGOS = 200;
+
     private final SalidasService salidasService;
+    private final ReservasStock reservas;
 
-    public SalidasController(SalidasService salidasService) {
+    public SalidasController(SalidasService salidasService, ReservasStock reservas) {
         this.salidasService = salidasService;
+        this.reservas = reservas;
+    }
+
+    /**
+     * Deja reservadas exactamente "cantidad" unidades del producto para el carrito de la página (0 las libera).
+     * Devuelve el disponible para esa reserva (stock - lo reservado por otras salidas); 409 con el disponible
+     * si no alcanza. Al registrar, registrar-lote recibe el mismo id en "reserva" y la libera al confirmar.
+     */
+    @PostMapping("/reservar")
+    public ResponseEntity<?> reservar(@Valid @RequestBody ReservaSalidaRequest req) {
+        String reserva;
+        try {
+            reserva = idReserva(req.reserva);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(error(e.getMessage()));
+        }
+        String codigo = req.codigo.trim();
+        if (reservas.disponiblePara(reserva, codigo) == null) {
+            return ResponseEntity.status(404).body(error("No existe el producto: " + codigo));
+        }
+        try {
+            reservas.reservar(reserva, codigo, req.cantidad);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(disponibilidad(false, e.getMessage(), reserva, codigo));
+        }
+        return ResponseEntity.ok(disponibilidad(true, null, reserva, codigo));
+    }
+
+    /** Disponible por código para la reserva (sin reserva: stock - todo lo reservado). Omite los que no existen. */
+    @GetMapping("/disponible")
+    public ResponseEntity<?> disponible(@RequestParam(value = "reserva", required = false) String reserva,
+                                        @RequestParam("codigos") List<String> codigos) {
+        String id;
+        try {
+            id = reserva == null || reserva.isBlank() ? null : idReserva(reserva);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(error(e.getMessage()));
+        }
+        if (codigos.size() > MAX_CODIGOS) {
+            return ResponseEntity.badRequest().body(error("Demasiados códigos (máximo " + MAX_CODIGOS + ")."));
+        }
+        Map<String, Integer> out = new LinkedHashMap<>();
+        for (String c : codigos) {
+            if (c == null || c.isBlank()) continue;
+            Integer d = reservas.disponiblePara(id, c.trim());
+            if (d != null) out.put(c.trim(), d);
+        }
+        return ResponseEntity.ok(out);
+    }
+
+    /** Libera todo lo que tenía apartado el carrito (vaciar). */
+    @DeleteMapping("/reservas/{reserva}")
+    public ResponseEntity<?> liberar(@PathVariable String reserva) {
+        try {
+            reservas.liberar(idReserva(reserva));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(error(e.getMessage()));
+        }
+        return ResponseEntity.noContent().build();
     }
 
     @PostMapping("/registrar-lote")
-    public ResponseEntity<?> registrarLote(@Valid @RequestBody RegistrarSalidaRequest req) {
+    public ResponseEntity<?> registrarLote(@Valid @RequestBody RegistrarSalidaRequest req,
+                                           @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
         try {
-            RegistrarSalidaResponse res = salidasService.registrarSalida(req);
+            // con Idempotency-Key, un reintento del escáner devuelve la respuesta original sin registrar otra salida
+            RegistrarSalidaResponse res = salidasService.registrarSalida(req, idempotencyKey);
             if (!res.ok) return ResponseEntity.badRequest().body(res);
             return ResponseEntity.ok(res);
         } catch (EntityNotFoundException e) {
@@ -31,12 +103,31 @@ public class SalidasController {
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(error(e.getMessage()));
         } catch (IllegalStateException e) {
-            return ResponseEntity.status(409).body(error(e.getMessage())); // conflicto (stock)
+            return ResponseEntity.status(409).body(error(e.getMessage())); // conflicto (stock, o clave reusada con otro contenido)
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(error("Error al registrar la salida."));
         }
     }
 
+    /** Los ids de reserva de la página son UUID (como los del carrito de sesión): no se aceptan otros. */
+    private static String idReserva(String reserva) {
+        try {
+            return UUID.fromString(reserva.trim()).toString();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Reserva inválida.");
+        }
+    }
+
+    private Map<String, Object> disponibilidad(boolean ok, String error, String reserva, String codigo) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("ok", ok);
+        if (error != null) m.put("error", error);
+        m.put("reserva", reserva);
+        m.put("codigo", codigo);
+        m.put("disponible", reservas.disponiblePara(reserva, codigo));
+        return m;
+    }
+
     private static Object error(String msg) {
         return new Object() { public final boolean ok = false; public final String error = msg; };
     }
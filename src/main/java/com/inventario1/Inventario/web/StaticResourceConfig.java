@@ -1,14 +1,66 @@
 package com.inventario1.Inventario.web;
 
+import com.inventario1.Inventario.files.DirectorioImagenes;
+import com.inventario1.Inventario.files.FileStorageService;
+import com.inventario1.Inventario.services.ProductoImagenService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.web.servlet.config.annotation.*;
+import org.springframework.web.servlet.resource.ResourceResolver;
+import org.springframework.web.servlet.resource.ResourceResolverChain;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
 
 @Configuration
+@RequiredArgsConstructor
 public class StaticResourceConfig implements WebMvcConfigurer {
+
+    private final ProductoImagenService productoImagenService;
+    private final FileStorageService fileStorageService;
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        // Imágenes de producto: la URL sigue siendo plana (/uploads/productos/{cb}.jpg, la que queda en imagen_url),
+        // pero el archivo está en ab/ según la disposición; se resuelve con el índice del directorio.
+        registry.addResourceHandler("/uploads/productos/*")
+                .addResourceLocations("file:uploads/productos/")
+                .resourceChain(false)
+                .addResolver(new PorIndice(productoImagenService::ubicarEnDisco));
+        registry.addResourceHandler("/uploads/products/*")
+                .addResourceLocations("file:uploads/products/")
+                .resourceChain(false)
+                .addResolver(new PorIndice(c -> Optional.ofNullable(fileStorageService.findExisting(c))));
+
         // Sirve archivos del sistema: http://localhost:8080/uploads/...
         registry.addResourceHandler("/uploads/**")
                 .addResourceLocations("file:uploads/"); // carpeta relativa al working dir
     }
+
+    /** {codigo}.ext -> archivo del índice; si el código no está, sigue la cadena (archivo en la raíz, o 404). */
+    private record PorIndice(Function<String, Optional<Path>> buscar) implements ResourceResolver {
+
+        @Override
+        public Resource resolveResource(HttpServletRequest request, String requestPath,
+                                        List<? extends Resource> locations, ResourceResolverChain chain) {
+            String codigo = DirectorioImagenes.codigoDe(requestPath);
+            if (DirectorioImagenes.codigoValido(codigo)) {
+                Optional<Path> p = buscar.apply(codigo);
+                if (p.isPresent() && p.get().getFileName().toString().equals(requestPath)) {
+                    return new FileSystemResource(p.get());
+                }
+            }
+            return chain.resolveResource(request, requestPath, locations);
+        }
+
+        @Override
+        public String resolveUrlPath(String resourcePath, List<? extends Resource> locations, ResourceResolverChain chain) {
+            return chain.resolveUrlPath(resourcePath, locations);
+        }
+    }
 }
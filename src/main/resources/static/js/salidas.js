@@ -45,6 +45,126 @@
     // Guarda justo antes de salir (cambio de página/recarga)
     window.addEventListener('beforeunload', () => { saveCart(); });
 
+    // ====== Idempotency-Key del envío pendiente ======
+    // Una clave por carrito enviado: se reusa en cada reintento (aunque se recargue la página) hasta que el
+    // servidor confirme; si el contenido cambia, es otra salida y lleva clave nueva.
+    const IDEM_KEY = 'salidas_idem';
+
+    function nuevaClave() {
+        if (window.crypto && typeof window.crypto.randomUUID === 'function') return window.crypto.randomUUID();
+        // randomUUID solo existe en contextos seguros (https/localhost): v4 a mano con getRandomValues
+        const b = window.crypto.getRandomValues(new Uint8Array(16));
+        b[6] = (b[6] & 0x0f) | 0x40;
+        b[8] = (b[8] & 0x3f) | 0x80;
+        const h = Array.from(b, (x) => x.toString(16).padStart(2, '0')).join('');
+        return `${h.slice(0, 8)}-${h.slice(8, 12)}-${h.slice(12, 16)}-${h.slice(16, 20)}-${h.slice(20)}`;
+    }
+
+    function claveIdempotencia(payload) {
+        const firma = JSON.stringify(payload);
+        try {
+            const pendiente = JSON.parse(localStorage.getItem(IDEM_KEY) || 'null');
+            if (pendiente && pendiente.firma === firma && pendiente.clave) return pendiente.clave;
+        } catch {}
+        const clave = nuevaClave();
+        try { localStorage.setItem(IDEM_KEY, JSON.stringify({ clave, firma })); } catch {}
+        return clave;
+    }
+
+    function olvidarClaveIdempotencia() {
+        try { localStorage.removeItem(IDEM_KEY); } catch {}
+    }
+
+    // ====== Reserva de stock del carrito ======
+    // Cada unidad que entra al carrito se aparta en el servidor (/salidas/reservar) bajo el id de reserva del
+    // carrito; registrar-lote recibe ese id y la libera al confirmar. Otro bartender ya no puede tomar esas unidades.
+    const RESERVA_KEY = 'salidas_reserva';
+    const disponibles = new Map(); // code -> disponible para esta reserva (stock - lo reservado por otras salidas)
+
+    function reservaId() {
+        let id = null;
+        try { id = localStorage.getItem(RESERVA_KEY); } catch {}
+        if (!id) {
+            id = nuevaClave();
+            try { localStorage.setItem(RESERVA_KEY, id); } catch {}
+        }
+        return id;
+    }
+
+    function nuevaReserva() {
+        try { localStorage.removeItem(RESERVA_KEY); } catch {}
+        disponibles.clear();
+    }
+
+    // Deja reservadas exactamente qty unidades de code. { ok, error } (error con el disponible si no alcanza)
+    async function reservarLinea(code, qty) {
+        try {
+            const res = await fetch('/salidas/reservar', {
+                method: 'POST',
+                headers: { 'Content-Type': 'application/json', [CSRF_HEADER]: CSRF_TOKEN },
+                body: JSON.stringify({ reserva: reservaId(), codigo: code, cantidad: qty })
+            });
+            const data = await res.json().catch(() => ({}));
+            if (typeof data.disponible === 'number') {
+                disponibles.set(code, data.disponible);
+                pintarDisponible(code);
+            }
+            if (res.ok) return { ok: true };
+            return { ok: false, error: data.error || 'No se pudo reservar el producto.' };
+        } catch (e) {
+            return { ok: false, error: 'Sin conexión: no se pudo reservar el producto.' };
+        }
+    }
+
+    function liberarReserva() {
+        let id = null;
+        try { id = localStorage.getItem(RESERVA_KEY); } catch {}
+        if (!id) return;
+        fetch(`/salidas/reservas/${encodeURIComponent(id)}`, {
+            method: 'DELETE',
+            headers: { [CSRF_HEADER]: CSRF_TOKEN }
+        }).catch(() => {}); // si falla, la reserva vence sola
+    }
+
+    // "Disp." de la lista: lo que todavía se puede agregar (disponible para la reserva - lo que ya está en el carrito)
+    function pintarDisponible(code) {
+        const row = document.querySelector(`.product-row[data-code="${cssEscape(code)}"]`);
+        const el = row?.querySelector('[data-disp]');
+        if (!el || !disponibles.has(code)) return;
+        el.textContent = Math.max(0, disponibles.get(code) - (cart.get(code)?.qty || 0));
+    }
+
+    async function refrescarDisponibles(scope = document) {
+        const codes = qsa('.product-row[data-code]', scope).map((r) => r.getAttribute('data-code')).filter(Boolean);
+        if (codes.length === 0) return;
+        const params = new URLSearchParams({ reserva: reservaId() });
+        codes.forEach((c) => params.append('codigos', c));
+        try {
+            const res = await fetch(`/salidas/disponible?${params}`, { headers: { 'Accept': 'application/json' } });
+            if (!res.ok) return;
+            const data = await res.json();
+            Object.entries(data).forEach(([code, disp]) => {
+                disponibles.set(code, disp);
+                pintarDisponible(code);
+            });
+        } catch {}
+    }
+
+    // Lleva la línea a qty reservando primero; si el servidor no aparta las unidades, el carrito no cambia
+    async function fijarLinea(code, name, qty) {
+        const r = await reservarLinea(code, qty);
+        if (!r.ok) {
+            showFormMsg(r.error, 'error');
+            return false;
+        }
+        if (qty <= 0) cart.delete(code);
+        else if (cart.has(code)) cart.get(code).qty = qty;
+        else cart.set(code, { name, qty });
+        renderCart();
+        pintarDisponible(code);
+        return true;
+    }
+
     // --- Estado / refs modal ---
     const pop = document.getElementById('qtyPop');            // modal
     const backdrop = document.getElementById('qtyBackdrop');  // overlay
@@ -131,30 +251,24 @@
         <div class="trash" title="Quitar"><i class="fas fa-times"></i></div>
       `;
 
-            // Handlers cantidad
+            // Handlers cantidad (cada cambio ajusta la reserva; si no alcanza, vuelve la cantidad anterior)
             row.querySelector('[data-dec]').addEventListener('click', () => {
-                if (v.qty > 1) {
-                    v.qty--;
-                    row.querySelector('.qty-input').value = v.qty;
-                    updateSummary();
-                }
+                if (v.qty > 1) fijarLinea(code, v.name, v.qty - 1);
             });
             row.querySelector('[data-inc]').addEventListener('click', () => {
-                v.qty++;
-                row.querySelector('.qty-input').value = v.qty;
-                updateSummary();
+                fijarLinea(code, v.name, v.qty + 1);
             });
-            row.querySelector('.qty-input').addEventListener('change', (e) => {
+            row.querySelector('.qty-input').addEventListener('change', async (e) => {
                 const n = Math.max(1, parseInt(e.target.value || '1', 10));
-                v.qty = n;
-                e.target.value = n;
-                updateSummary();
+                if (!(await fijarLinea(code, v.name, n))) e.target.value = v.qty;
             });
 
-            // Quitar producto
+            // Quitar producto (aunque falle la llamada, la reserva vence sola)
             row.querySelector('.trash').addEventListener('click', () => {
+                reservarLinea(code, 0);
                 cart.delete(code);
                 renderCart();
+                pintarDisponible(code);
             });
 
             list.appendChild(row);
@@ -191,20 +305,15 @@
     });
 
     // --- Confirmar (agregar) y cerrar automáticamente ---
-    qs('#addToCartBtn')?.addEventListener('click', () => {
+    qs('#addToCartBtn')?.addEventListener('click', async () => {
         if (!currentProduct) return;
         const qty = Math.max(1, parseInt(qtyInputEl?.value || '1', 10));
         const code = String(currentProduct.code || '');
         const name = String(currentProduct.name || 'Producto');
         if (!code) return;
 
-        if (cart.has(code)) {
-            cart.get(code).qty += qty;
-        } else {
-            cart.set(code, { name, qty });
-        }
-        renderCart();
         closeQtyModal(); // cierre automático tras confirmar
+        await fijarLinea(code, name, (cart.get(code)?.qty || 0) + qty);
     });
 
     // --- Confirmar con Enter dentro del input ---
@@ -245,13 +354,7 @@
         const row = document.querySelector(`.product-row[data-code="${cssEscape(code)}"]`);
         if (row) {
             const name = row.getAttribute('data-name') || 'Producto';
-            if (cart.has(code)) {
-                cart.get(code).qty += 1;
-            } else {
-                cart.set(code, { name, qty: 1 });
-            }
-            renderCart();
-            showFormMsg('Producto agregado', 'ok');
+            if (await fijarLinea(code, name, (cart.get(code)?.qty || 0) + 1)) showFormMsg('Producto agregado', 'ok');
             return;
         }
 
@@ -266,13 +369,9 @@
                     const p = await res.json(); // { codigoBarras, nombre, ... }
                     const codeStr = String(p.codigoBarras ?? code);
                     const nameStr = String(p.nombre ?? 'Producto');
-                    if (cart.has(codeStr)) {
-                        cart.get(codeStr).qty += 1;
-                    } else {
-                        cart.set(codeStr, { name: nameStr, qty: 1 });
+                    if (await fijarLinea(codeStr, nameStr, (cart.get(codeStr)?.qty || 0) + 1)) {
+                        showFormMsg('Producto agregado', 'ok');
                     }
-                    renderCart();
-                    showFormMsg('Producto agregado', 'ok');
                     return;
                 }
             } catch (e) {
@@ -295,9 +394,11 @@
 
     // --- Vaciar carrito ---
     qs('#btnVaciar')?.addEventListener('click', () => {
+        liberarReserva();
         cart.clear();
         saveCart();
         renderCart();
+        refrescarDisponibles();
         // Si quieres limpiar completamente el storage:
         // try { localStorage.removeItem(STORAGE_KEY); } catch {}
     });
@@ -318,14 +419,18 @@
             cantidad: v.qty
         }));
 
+        const payload = { items, motivo, referencia, usuario, reserva: reservaId() };
+        const clave = claveIdempotencia(payload);
+
         try {
             const res = await fetch('/salidas/registrar-lote', {
                 method: 'POST',
                 headers: {
                     'Content-Type': 'application/json',
+                    'Idempotency-Key': clave,
                     [CSRF_HEADER]: CSRF_TOKEN
                 },
-                body: JSON.stringify({ items, motivo, referencia, usuario })
+                body: JSON.stringify(payload)
             });
 
             if (!res.ok) {
@@ -334,10 +439,13 @@
             }
 
             const data = await res.json(); // { ok: true, registrados: n, ... }
+            olvidarClaveIdempotencia();
             alert(`Salida registrada.\nLíneas procesadas: ${data.registrados}`);
             cart.clear();
             try { localStorage.removeItem(STORAGE_KEY); } catch {}
+            nuevaReserva(); // el servidor ya liberó la anterior: el próximo carrito aparta con otra
             renderCart();
+            refrescarDisponibles();
             // location.reload(); // si quieres refrescar stocks visualmente
         } catch (err) {
             alert('Error: ' + (err.message || err));
@@ -345,10 +453,18 @@
     });
 
     // --- Inicialización principal ---
-    function init() {
+    async function init() {
         // loadCart() YA se llamó al inicio del archivo
         wireOpenQtyButtons(document); // botones de la lista
         renderCart();                 // estado inicial (persistente)
+        // el carrito guardado puede haber perdido su reserva (venció o se reinició el servidor): se vuelve a apartar
+        const faltan = [];
+        for (const [code, v] of cart) {
+            const r = await reservarLinea(code, v.qty);
+            if (!r.ok) faltan.push(`${v.name}: ${r.error}`);
+        }
+        if (faltan.length) showFormMsg(faltan.join(' '), 'error');
+        refrescarDisponibles();
     }
 
     if (document.readyState === 'loading') {
@@ -391,6 +507,7 @@
 
             // Re-cablea handlers para el HTML recién inyectado
             rewireAfterSwap(document);
+            refrescarDisponibles(getListEl() || document); // el "Disp." del servidor no descuenta reservas
 
             // Render del carrito por si se muestra resumen en la misma vista
             if (typeof renderCart === 'function') renderCart();
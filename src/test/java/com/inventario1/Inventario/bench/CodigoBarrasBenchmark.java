@@ -0,0 +1,78 @@
+package com.inventario1.Inventario.bench;
+
+import com.inventario1.Inventario.util.CodigoBarras;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CodigoBarras.normalizar contra las limpiezas que había antes en BulkMovimientoLoaderService
+ * (trim + Double.parseDouble + replaceAll("\\D+")) y BulkProductoService (replaceAll("\\D")).
+ * Cada operación normaliza las 8 entradas de {@link #ENTRADAS}, mezcladas como llegan desde Excel/CSV y escáner.
+ *
+ * Ejecutar (JMH necesita su propio JVM con el classpath de test):
+ *   mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ *       "-Dexec.args=-cp %classpath com.inventario1.Inventario.bench.CodigoBarrasBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodigoBarrasBenchmark {
+
+    private static final String[] ENTRADAS = {
+            "7801234567890",
+            " 7801234567890.0 ",
+            "7,80123456789E+12",
+            "780 1234 567890",
+            "96385074",
+            "036000291452",
+            "7.801234567890E12",
+            "78012345678900,00",
+    };
+
+    @Benchmark
+    public void codec(Blackhole bh) {
+        for (String s : ENTRADAS) bh.consume(CodigoBarras.normalizar(s));
+    }
+
+    @Benchmark
+    public void codecConDigitoControl(Blackhole bh) {
+        for (String s : ENTRADAS) {
+            String n = CodigoBarras.normalizar(s);
+            bh.consume(n);
+            bh.consume(CodigoBarras.gtinInvalido(n));
+        }
+    }
+
+    @Benchmark
+    public void anteriorMovimientos(Blackhole bh) {
+        for (String s : ENTRADAS) bh.consume(anteriorMovimientos(s));
+    }
+
+    @Benchmark
+    public void anteriorProductos(Blackhole bh) {
+        for (String s : ENTRADAS) bh.consume(s.replaceAll("\\D", "").trim());
+    }
+
+    /** BulkMovimientoLoaderService.normalizeBarcode antes del codec. */
+    static String anteriorMovimientos(String v) {
+        if (v == null) return null;
+        String s = v.trim().replace(",", ".");
+        try { if (s.toLowerCase(Locale.ROOT).contains("e")) s = String.valueOf((long) Double.parseDouble(s)); } catch (Exception ignored) {}
+        if (s.endsWith(".0")) s = s.substring(0, s.length() - 2);
+        String digits = s.replaceAll("\\D+", "");
+        return digits.isEmpty() ? null : digits;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CodigoBarrasBenchmark.class.getSimpleName()).build()).run();
+    }
+}
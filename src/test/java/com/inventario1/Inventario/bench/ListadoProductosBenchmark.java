@@ -0,0 +1,132 @@
+package com.inventario1.Inventario.bench;
+
+import com.inventario1.Inventario.InventarioApplication;
+import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.models.UnidadBase;
+import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.util.CodigoBarras;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Heap por request de los listados: entidades Producto (findByActivoTrue / findAllById, lo que leían /alertas y
+ * las páginas de /buscar) contra la proyección ProductoListItem (findListItemsByActivo / findListItemsByIdIn).
+ * Cada operación abre un EntityManager para el hilo, igual que open-in-view en un request, lee y lo cierra; la
+ * cifra que importa es gc.alloc.rate.norm (bytes por operación) del profiler GC.
+ * Corre sobre H2 en memoria (MODE=MySQL) con {@link #filas} productos activos; las páginas son de {@value #PAGINA}.
+ *
+ * Ejecutar (JMH necesita su propio JVM con el classpath de test):
+ *   mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ *       "-Dexec.args=-cp %classpath com.inventario1.Inventario.bench.ListadoProductosBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListadoProductosBenchmark {
+
+    private static final int PAGINA = 50;
+
+    @Param({"1000"})
+    public int filas;
+
+    private ConfigurableApplicationContext ctx;
+    private EntityManagerFactory emf;
+    private ProductoRepository repo;
+    private List<Long> pagina;
+
+    @Setup(Level.Trial)
+    public void arrancar() {
+        // como argumentos de línea de comandos: pisan el MySQL de application.yml
+        ctx = new SpringApplicationBuilder(InventarioApplication.class).run(
+                "--spring.datasource.url=jdbc:h2:mem:bench;MODE=MySQL;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                "--spring.jpa.hibernate.ddl-auto=create-drop",
+                "--spring.jpa.show-sql=false",
+                "--server.port=0",
+                "--logging.level.root=WARN");
+        emf = ctx.getBean(EntityManagerFactory.class);
+        repo = ctx.getBean(ProductoRepository.class);
+
+        List<Producto> productos = new ArrayList<>(filas);
+        for (int i = 0; i < filas; i++) {
+            String cuerpo = String.format("783%09d", i);
+            productos.add(Producto.builder()
+                    .codigoBarras(cuerpo + CodigoBarras.digitoControl(cuerpo, cuerpo.length()))
+                    .nombre("Producto " + i)
+                    .marca("Marca " + (i % 20))
+                    .unidadBase(UnidadBase.UNIDAD)
+                    .stockActual(i % 40)
+                    .stockMinimo(10)
+                    .imagenUrl("/productos/" + i + "/imagen")
+                    .build());
+        }
+        pagina = repo.saveAll(productos).stream().limit(PAGINA).map(Producto::getId).toList();
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() {
+        ctx.close();
+    }
+
+    /** /alertas antes: todos los activos como entidades. */
+    @Benchmark
+    public void alertasEntidades(Blackhole bh) {
+        bh.consume(enRequest(() -> repo.findByActivoTrue()));
+    }
+
+    @Benchmark
+    public void alertasProyeccion(Blackhole bh) {
+        bh.consume(enRequest(() -> repo.findListItemsByActivo(true)));
+    }
+
+    /** Página de /buscar (ids que entrega el índice de trigramas) como entidades. */
+    @Benchmark
+    public void paginaEntidades(Blackhole bh) {
+        bh.consume(enRequest(() -> repo.findAllById(pagina)));
+    }
+
+    @Benchmark
+    public void paginaProyeccion(Blackhole bh) {
+        bh.consume(enRequest(() -> repo.findListItemsByIdIn(pagina)));
+    }
+
+    /** Lo que hace OpenEntityManagerInViewInterceptor: un EntityManager ligado al hilo durante el request. */
+    private <T> T enRequest(Supplier<T> lectura) {
+        EntityManager em = emf.createEntityManager();
+        TransactionSynchronizationManager.bindResource(emf, new EntityManagerHolder(em));
+        try {
+            return lectura.get();
+        } finally {
+            TransactionSynchronizationManager.unbindResource(emf);
+            em.close();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ListadoProductosBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
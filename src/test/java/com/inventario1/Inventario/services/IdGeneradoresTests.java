@@ -0,0 +1,110 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.models.GeneradoresId;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Idas y vueltas a BD de {@link IdGeneradores#reservar}: un DataSource que cuenta las sentencias ejecutadas
+ * (H2 en memoria). Con el rango en memoria, BLOQUE pedidos de un id cuestan una sola reserva en BD.
+ */
+class IdGeneradoresTests {
+
+    private final AtomicInteger sentencias = new AtomicInteger();
+    private IdGeneradores generadores;
+
+    @BeforeEach
+    void preparar() {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:ids" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        DataSource ds = contando(h2);
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE " + GeneradoresId.MOVIMIENTOS + " (id BIGINT PRIMARY KEY)");
+        jdbc.execute("CREATE TABLE " + GeneradoresId.LINEAS + " (id BIGINT PRIMARY KEY)");
+        jdbc.update("INSERT INTO " + GeneradoresId.LINEAS + " (id) VALUES (7)");
+        generadores = new IdGeneradores(jdbc, new DataSourceTransactionManager(ds), null);
+        generadores.sembrar();
+        sentencias.set(0);
+    }
+
+    @Test
+    void pedidosDeUnIdSalenDelRangoEnMemoria() {
+        int pedidos = GeneradoresId.BLOQUE * 4;
+        Set<Long> ids = new HashSet<>();
+        long anterior = 0;
+        for (int i = 0; i < pedidos; i++) {
+            long id = generadores.reservar(GeneradoresId.LINEAS, 1);
+            assertTrue(id > 7, "no repite ids existentes");
+            assertTrue(id > anterior, "crecientes");
+            assertTrue(ids.add(id));
+            anterior = id;
+        }
+        // 4 bloques: SELECT ... FOR UPDATE + UPDATE por bloque, en vez de 2 sentencias por pedido
+        assertEquals(4 * 2, sentencias.get());
+    }
+
+    @Test
+    void pedidoGrandeApartaVariosBloquesConsecutivos() {
+        long primero = generadores.reservar(GeneradoresId.MOVIMIENTOS, GeneradoresId.BLOQUE + 10);
+        assertEquals(2, sentencias.get());
+        // lo que sobró del segundo bloque sirve para los pedidos siguientes, sin ir a BD
+        long siguiente = generadores.reservar(GeneradoresId.MOVIMIENTOS, GeneradoresId.BLOQUE - 10);
+        assertEquals(primero + GeneradoresId.BLOQUE + 10, siguiente);
+        assertEquals(2, sentencias.get());
+        // ya no cabe: bloque nuevo
+        assertTrue(generadores.reservar(GeneradoresId.MOVIMIENTOS, 1) > siguiente);
+        assertEquals(4, sentencias.get());
+    }
+
+    // ----------------- DataSource que cuenta sentencias -----------------
+
+    /** Proxy del DataSource: sus conexiones entregan sentencias que cuentan cada execute*. */
+    private DataSource contando(DataSource ds) {
+        return (DataSource) envolver(DataSource.class, ds, (target, m, args) -> {
+            Object r = m.invoke(target, args);
+            return r instanceof Connection con ? envolver(Connection.class, con, (c, mc, ac) -> {
+                Object st = mc.invoke(c, ac);
+                if (st instanceof PreparedStatement ps) return envolver(PreparedStatement.class, ps, this::contar);
+                if (st instanceof Statement s) return envolver(Statement.class, s, this::contar);
+                return st;
+            }) : r;
+        });
+    }
+
+    private Object contar(Object target, Method m, Object[] args) throws Exception {
+        if (m.getName().startsWith("execute")) sentencias.incrementAndGet();
+        return m.invoke(target, args);
+    }
+
+    private interface Delegado {
+        Object invocar(Object target, Method m, Object[] args) throws Exception;
+    }
+
+    private static Object envolver(Class<?> tipo, Object target, Delegado d) {
+        InvocationHandler h = (proxy, m, args) -> {
+            try {
+                return d.invocar(target, m, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return Proxy.newProxyInstance(IdGeneradoresTests.class.getClassLoader(), new Class<?>[]{tipo}, h);
+    }
+}
@@ -0,0 +1,158 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.models.RegistrarSalidaRequest;
+import com.inventario1.Inventario.models.RegistrarSalidaResponse;
+import com.inventario1.Inventario.models.UnidadBase;
+import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.dto.LineaMovimientoInput;
+import com.inventario1.Inventario.util.CodigoBarras;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Idas y vueltas a BD de una salida de {@value #LINEAS} líneas ({@link SalidasService#registrarSalida} e
+ * {@link InventarioService#registrarSalida}): el DataSource de la aplicación se envuelve en un proxy que cuenta
+ * cada execute* (un executeBatch cuenta una vez) hecho desde el hilo del test. Antes de los ids por bloque y los
+ * batch eran 1.002 (cabecera + una por línea + bloqueo); el tope de abajo es el que tiene que seguir cumpliéndose.
+ * <p>
+ * mvn test -Dtest=SalidaIdasYVueltasTests (la cuenta se imprime en la salida del test).
+ */
+@SpringBootTest
+@Import(SalidaIdasYVueltasTests.Contador.class)
+class SalidaIdasYVueltasTests {
+
+    private static final int LINEAS = 1000;
+    /** Bloqueo + descuento (StockEnLote) + ids (cabecera y líneas) + inserts en lotes de 50 (hibernate.jdbc.batch_size). */
+    private static final int TOPE = 70;
+
+    private static final AtomicInteger SENTENCIAS = new AtomicInteger();
+    private static volatile Thread medido;
+
+    @Autowired ProductoRepository productoRepository;
+    @Autowired SalidasService salidasService;
+    @Autowired InventarioService inventarioService;
+
+    @Test
+    void salidaDeMilLineasNoHaceUnaIdaYVueltaPorLinea() {
+        RegistrarSalidaRequest req = new RegistrarSalidaRequest();
+        req.motivo = "idas y vueltas";
+        req.items = new ArrayList<>();
+        for (String cb : sembrar("781")) {
+            RegistrarSalidaRequest.Item it = new RegistrarSalidaRequest.Item();
+            it.codigo = cb;
+            it.cantidad = 1;
+            req.items.add(it);
+        }
+
+        RegistrarSalidaResponse res = medir("SalidasService.registrarSalida", () -> salidasService.registrarSalida(req));
+        assertTrue(res.ok, () -> String.valueOf(res.errores));
+        assertEquals(LINEAS, res.registrados);
+    }
+
+    @Test
+    void salidaDeInventarioDeMilLineasNoHaceUnaIdaYVueltaPorLinea() {
+        List<LineaMovimientoInput> lineas = sembrar("782").stream().map(cb -> new LineaMovimientoInput(cb, 1)).toList();
+
+        var mov = medir("InventarioService.registrarSalida", () -> inventarioService.registrarSalida(lineas, "idas y vueltas"));
+        assertEquals(LINEAS, mov.getLineas().size());
+    }
+
+    /** {@value #LINEAS} productos con stock 10; devuelve sus códigos. */
+    private List<String> sembrar(String prefijo) {
+        List<Producto> productos = new ArrayList<>();
+        for (int i = 0; i < LINEAS; i++) {
+            String cuerpo = prefijo + String.format("%09d", i);
+            productos.add(Producto.builder()
+                    .codigoBarras(cuerpo + CodigoBarras.digitoControl(cuerpo, cuerpo.length()))
+                    .nombre("Idas y vueltas " + prefijo + i)
+                    .unidadBase(UnidadBase.UNIDAD)
+                    .stockActual(10)
+                    .build());
+        }
+        return productoRepository.saveAll(productos).stream().map(Producto::getCodigoBarras).toList();
+    }
+
+    private static <T> T medir(String que, Supplier<T> accion) {
+        T r;
+        SENTENCIAS.set(0);
+        medido = Thread.currentThread();
+        try {
+            r = accion.get();
+        } finally {
+            medido = null;
+        }
+        int n = SENTENCIAS.get();
+        System.out.printf("%s con %d líneas: %d idas y vueltas a BD%n", que, LINEAS, n);
+        assertTrue(n <= TOPE, () -> que + ": " + n + " idas y vueltas para " + LINEAS + " líneas");
+        return r;
+    }
+
+    // ----------------- DataSource que cuenta sentencias -----------------
+
+    @TestConfiguration
+    static class Contador {
+        @Bean
+        static BeanPostProcessor contarSentencias() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String nombre) {
+                    return bean instanceof DataSource ds ? contando(ds) : bean;
+                }
+            };
+        }
+    }
+
+    /** Proxy del DataSource: sus conexiones entregan sentencias que cuentan cada execute* del hilo medido. */
+    private static DataSource contando(DataSource ds) {
+        return (DataSource) envolver(DataSource.class, ds, (target, m, args) -> {
+            Object r = m.invoke(target, args);
+            return r instanceof Connection con ? envolver(Connection.class, con, (c, mc, ac) -> {
+                Object st = mc.invoke(c, ac);
+                if (st instanceof PreparedStatement ps) return envolver(PreparedStatement.class, ps, SalidaIdasYVueltasTests::contar);
+                if (st instanceof Statement s) return envolver(Statement.class, s, SalidaIdasYVueltasTests::contar);
+                return st;
+            }) : r;
+        });
+    }
+
+    private static Object contar(Object target, Method m, Object[] args) throws Exception {
+        if (m.getName().startsWith("execute") && Thread.currentThread() == medido) SENTENCIAS.incrementAndGet();
+        return m.invoke(target, args);
+    }
+
+    private interface Delegado {
+        Object invocar(Object target, Method m, Object[] args) throws Exception;
+    }
+
+    private static Object envolver(Class<?> tipo, Object target, Delegado d) {
+        InvocationHandler h = (proxy, m, args) -> {
+            try {
+                return d.invocar(target, m, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return Proxy.newProxyInstance(SalidaIdasYVueltasTests.class.getClassLoader(), new Class<?>[]{tipo}, h);
+    }
+}
@@ -0,0 +1,94 @@
+package com.inventario1.Inventario.services;
+
+import com.inventario1.Inventario.models.Producto;
+import com.inventario1.Inventario.models.RegistrarSalidaRequest;
+import com.inventario1.Inventario.models.RegistrarSalidaResponse;
+import com.inventario1.Inventario.models.TipoMovimiento;
+import com.inventario1.Inventario.models.UnidadBase;
+import com.inventario1.Inventario.repos.ProductoRepository;
+import com.inventario1.Inventario.services.dto.LineaMovimientoInput;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Todos los caminos que mueven stock (escáner, salidas, inventario) en paralelo sobre el mismo producto:
+ * el stock final y la cantidad de líneas tienen que cuadrar exactamente (sin pérdidas ni dobles descuentos).
+ */
+@SpringBootTest
+class StockConcurrenciaTests {
+
+    private static final int HILOS = 8;
+    private static final int POR_HILO = 30;
+    private static final int STOCK_INICIAL = 1000;
+
+    @Autowired ProductoRepository productoRepository;
+    @Autowired MovimientosService movimientosService;
+    @Autowired SalidasService salidasService;
+    @Autowired InventarioService inventarioService;
+    @Autowired JdbcTemplate jdbc;
+
+    @Test
+    void movimientosConcurrentesCuadranStockYLineas() throws Exception {
+        Producto p = productoRepository.save(Producto.builder()
+                .codigoBarras("7800000000017")
+                .nombre("Prueba concurrencia")
+                .unidadBase(UnidadBase.UNIDAD)
+                .stockActual(STOCK_INICIAL)
+                .build());
+        String cb = p.getCodigoBarras();
+
+        ExecutorService pool = Executors.newFixedThreadPool(HILOS);
+        CountDownLatch largada = new CountDownLatch(1);
+        List<Future<Integer>> hilos = new ArrayList<>();
+        for (int h = 0; h < HILOS; h++) {
+            hilos.add(pool.submit(() -> {
+                largada.await();
+                int neto = 0;
+                for (int i = 0; i < POR_HILO; i++) {
+                    switch (i % 3) {
+                        case 0 -> {
+                            movimientosService.registrarMovimiento(p, TipoMovimiento.ENTRADA, 3, "test", null);
+                            neto += 3;
+                        }
+                        case 1 -> {
+                            RegistrarSalidaResponse res = salidasService.registrarSalida(salida(cb, 2));
+                            assertEquals(true, res.ok, () -> String.valueOf(res.errores));
+                            neto -= 2;
+                        }
+                        default -> {
+                            inventarioService.registrarSalida(List.of(new LineaMovimientoInput(cb, 1)), "test");
+                            neto -= 1;
+                        }
+                    }
+                }
+                return neto;
+            }));
+        }
+        largada.countDown();
+        int neto = 0;
+        for (Future<Integer> f : hilos) neto += f.get(2, TimeUnit.MINUTES);
+        pool.shutdown();
+
+        assertEquals(STOCK_INICIAL + neto, productoRepository.findStockActualById(p.getId()).orElseThrow());
+        assertEquals(HILOS * POR_HILO, jdbc.queryForObject(
+                "SELECT COUNT(*) FROM movimiento_lineas WHERE producto_id = ?", Integer.class, p.getId()));
+    }
+
+    private static RegistrarSalidaRequest salida(String codigo, int cantidad) {
+        RegistrarSalidaRequest req = new RegistrarSalidaRequest();
+        RegistrarSalidaRequest.Item it = new RegistrarSalidaRequest.Item();
+        it.codigo = codigo;
+        it.cantidad = cantidad;
+        req.items = List.of(it);
+        req.motivo = "test";
+        return req;
+    }
+}